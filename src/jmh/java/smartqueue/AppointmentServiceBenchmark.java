@@ -0,0 +1,86 @@
+package smartqueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Throughput of the AppointmentService read and serve paths at different queue sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AppointmentServiceBenchmark {
+
+    /** @brief Per-thread picks of existing appointments, so lookups hit random parts of the queue. */
+    @State(Scope.Thread)
+    public static class Picks {
+        List<Appointment> seeded;
+        LocalDate reportEnd;
+
+        @Setup(Level.Trial)
+        public void setUp(SeededQueue queue) {
+            seeded = queue.seeded;
+            reportEnd = queue.firstDate.plusDays(29);
+        }
+
+        Appointment random() {
+            return seeded.get(ThreadLocalRandom.current().nextInt(seeded.size()));
+        }
+    }
+
+    @Benchmark
+    public int getWaitCount(SeededQueue queue, Picks picks) {
+        Appointment a = picks.random();
+        return queue.appointmentService.getWaitCount(a.queueId, a.date, a.hour);
+    }
+
+    @Benchmark
+    public int getPosition(SeededQueue queue, Picks picks) {
+        return queue.appointmentService.getPosition(Appointment.DEFAULT_QUEUE, picks.random().id);
+    }
+
+    /** @brief The count query used for wait-time polls when smartqueue.queue.count-in-database is set. */
+    @Benchmark
+    public long countWaitInDatabase(SeededQueue queue, Picks picks) {
+        Appointment a = picks.random();
+        return queue.database.countByQueueIdAndDateAndHourLessThan(a.queueId, a.date, a.hour);
+    }
+
+    /** @brief The count query used for position polls when smartqueue.queue.count-in-database is set. */
+    @Benchmark
+    public Object countAheadInDatabase(SeededQueue queue, Picks picks) {
+        return queue.database.countAhead(Appointment.DEFAULT_QUEUE, picks.random().id);
+    }
+
+    /**
+     * @brief Serves the head of the queue and books the same slot again so the queue size stays fixed.
+     * Measures one serve plus one booking (two database writes).
+     */
+    @Benchmark
+    public void removeNextAndRebook(SeededQueue queue, Blackhole bh) {
+        Appointment next = queue.appointmentService.removeNext(Appointment.DEFAULT_QUEUE);
+        bh.consume(queue.appointmentService.add(new Appointment(next.name, next.date, next.hour)));
+    }
+
+    /** @brief Wait report over the first 30 days of the queue (up to 720 rows). */
+    @Benchmark
+    public void getWaitReport(SeededQueue queue, Picks picks, Blackhole bh) {
+        bh.consume(queue.appointmentService.getWaitReport(Appointment.DEFAULT_QUEUE, queue.firstDate, picks.reportEnd));
+    }
+}
@@ -0,0 +1,72 @@
+package smartqueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Throughput of CustomerDashboard.book, including all of its validation, at different queue sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BookingBenchmark {
+
+    /** @brief One request for a slot that is already taken and one for a slot kept free. */
+    @State(Scope.Benchmark)
+    public static class Requests {
+        AppointmentRequest takenSlot;
+        AppointmentRequest freeSlot;
+        AppointmentRequest cancel = new AppointmentRequest();
+
+        @Setup(Level.Trial)
+        public void setUp(SeededQueue queue) {
+            Appointment taken = queue.firstBookableSlot();
+            takenSlot = request("Someone Else", taken.date.toString(), taken.hour);
+
+            // Free up one bookable slot so the happy path can book and cancel it repeatedly
+            QueueSettings settings = queue.appointmentService.getSettings(taken.queueId);
+            Appointment freed = queue.seeded.stream()
+                    .filter(a -> a != taken && a.date.equals(taken.date)
+                            && a.hour >= settings.getOpenHour() && a.hour < settings.getCloseHour())
+                    .findFirst()
+                    .orElseThrow();
+            queue.appointmentService.removeSpecific(freed.queueId, freed.id);
+            freeSlot = request("Bench Customer", freed.date.toString(), freed.hour);
+        }
+
+        private static AppointmentRequest request(String name, String date, int hour) {
+            AppointmentRequest r = new AppointmentRequest();
+            r.setName(name);
+            r.setDate(date);
+            r.setHour(hour);
+            return r;
+        }
+    }
+
+    /** @brief Every validation step runs and the request is rejected as "slot already taken". */
+    @Benchmark
+    public ResponseEntity<Object> bookTakenSlot(SeededQueue queue, Requests requests) {
+        return queue.customerDashboard.book(requests.takenSlot);
+    }
+
+    /** @brief A successful booking followed by its cancellation, so the queue size stays fixed. */
+    @Benchmark
+    public ResponseEntity<String> bookAndCancel(SeededQueue queue, Requests requests) {
+        Appointment booked = (Appointment) queue.customerDashboard.book(requests.freeSlot).getBody();
+        requests.cancel.setId(booked.id);
+        return queue.customerDashboard.cancel(requests.cancel);
+    }
+}
@@ -0,0 +1,104 @@
+package smartqueue;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @brief Shared JMH state: a running SmartQueue context on an in-memory H2 database
+ * pre-filled with {@code queueSize} appointments.
+ * * Rows are bulk-inserted with JDBC (every hour of every day starting tomorrow) and the
+ * in-memory queue is rebuilt from them, exactly as it would be at application startup.
+ */
+@State(Scope.Benchmark)
+public class SeededQueue {
+
+    /** @brief Number of appointments in the queue while a benchmark runs. */
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int queueSize;
+
+    public ConfigurableApplicationContext context;
+    public AppointmentService appointmentService;
+    public CustomerDashboard customerDashboard;
+    public AppointmentDatabase database;
+
+    /** @brief Every seeded appointment, in queue order. */
+    public List<Appointment> seeded;
+
+    /** @brief First seeded date; wait reports cover the 30 days starting here. */
+    public LocalDate firstDate;
+
+    @Setup(Level.Trial)
+    public void start() {
+        // Passed as command-line arguments so they override application.properties
+        context = new SpringApplicationBuilder(SmartQueueApp.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create",
+                "--spring.h2.console.enabled=false",
+                "--logging.level.root=WARN");
+        appointmentService = context.getBean(AppointmentService.class);
+        customerDashboard = context.getBean(CustomerDashboard.class);
+        database = context.getBean(AppointmentDatabase.class);
+
+        seeded = new ArrayList<>(queueSize);
+        LocalDate date = LocalDate.now().plusDays(1);
+        firstDate = date;
+        while (seeded.size() < queueSize) {
+            for (int hour = 0; hour < 24 && seeded.size() < queueSize; hour++) {
+                // Letters only: booking validation rejects names containing digits
+                seeded.add(new Appointment("Customer " + (char) ('A' + hour), date, hour));
+            }
+            date = date.plusDays(1);
+        }
+
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        jdbc.batchUpdate(
+                "insert into appointment (id, queue_id, name, normalized_name, appointment_day, appointment_hour) values (?, ?, ?, ?, ?, ?)",
+                seeded, 1000, (ps, a) -> {
+                    ps.setString(1, a.id);
+                    ps.setString(2, a.queueId);
+                    ps.setString(3, a.name);
+                    ps.setString(4, SlotIndex.normalizeName(a.name));
+                    ps.setObject(5, a.date);
+                    ps.setInt(6, a.hour);
+                });
+        appointmentService.rebuildQueue();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    /**
+     * @brief Finds a seeded appointment that the booking endpoint would accept if it were free:
+     * a weekday within the next year, inside the default 9:00-17:00 business hours.
+     * @return The earliest such appointment.
+     */
+    public Appointment firstBookableSlot() {
+        LocalDate limit = LocalDate.now().plusYears(1);
+        for (Appointment a : seeded) {
+            QueueSettings settings = appointmentService.getSettings(a.queueId);
+            LocalDate d = a.date;
+            DayOfWeek dow = d.getDayOfWeek();
+            if (d.isAfter(limit)) break;
+            if (dow != DayOfWeek.SATURDAY && dow != DayOfWeek.SUNDAY
+                    && a.hour >= settings.getOpenHour() && a.hour < settings.getCloseHour()) {
+                return a;
+            }
+        }
+        throw new IllegalStateException("Queue too small to contain a bookable slot: " + queueSize);
+    }
+}
@@ -0,0 +1,424 @@
+package smartqueue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Measures the server memory each idle customer page costs: Server-Sent Events against SockJS/STOMP.
+ * * For each transport the application is started in a separate JVM on an in-memory H2 database,
+ * so the client's own buffers are not counted. After a full GC its heap in use, direct buffer
+ * memory and thread count are read over JMX; then the harness opens the given number of idle
+ * customer pages and reads them again. A warm-up round of pages, opened and closed before the
+ * first reading, keeps worker pools and lazily created objects out of the difference. Each page
+ * subscribes, as the booking page does, to its queue's updates and to its own notifications:
+ * - sse: GET /api/customer/events?queue=...&id=... on a plain socket, open until the end.
+ * - sockjs: the SockJS WebSocket transport (/ws/{server}/{session}/websocket, as a browser's
+ *   SockJS client uses it) carrying a STOMP CONNECT and two SUBSCRIBE frames.
+ * * Nothing is published while the pages are open, so the difference is the cost of holding
+ * them. Kernel socket buffers are outside the JVM and not included.
+ * * Run with: mvn -Ploadtest verify -Dloadtest.main=smartqueue.ConnectionMemoryLoadTest (options are
+ * the loadtest.* properties below, passed in -Dloadtest.args as described in pom.xml).
+ */
+public final class ConnectionMemoryLoadTest {
+
+    /** @brief Transports to measure, comma separated: sse, sockjs. */
+    private static final List<String> MODES = Arrays.asList(System.getProperty("loadtest.modes", "sse,sockjs").split(","));
+
+    /** @brief Idle pages opened per transport. */
+    private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 2000);
+
+    /** @brief Pages opened at the same time while connecting. */
+    private static final int CONNECT_CONCURRENCY = Integer.getInteger("loadtest.connectConcurrency", 100);
+
+    /** @brief Pages opened and closed again before the baseline is taken. */
+    private static final int WARMUP_CONNECTIONS = Integer.getInteger("loadtest.warmupConnections", 500);
+
+    /** @brief Wait after the last page connected, so subscriptions are processed before measuring. */
+    private static final int SETTLE_MILLIS = Integer.getInteger("loadtest.settleMillis", 3000);
+
+    /** @brief JVM options of the application, space separated. */
+    private static final String SERVER_JVM_ARGS = System.getProperty("loadtest.serverJvmArgs", "-Xmx1g");
+
+    /** @brief Extra arguments for the application, space separated (e.g. --spring.profiles.active=virtual-threads). */
+    private static final String APP_ARGS = System.getProperty("loadtest.appArgs", "");
+
+    /** @brief Queue the pages subscribe to. */
+    private static final String QUEUE = System.getProperty("loadtest.queue", Appointment.DEFAULT_QUEUE);
+
+    /** @brief Optional CSV file that receives one line per transport. */
+    private static final String OUT = System.getProperty("loadtest.out");
+
+    /** @brief Connects and requests still unanswered after this long count as failed. */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    /** @brief How long the application may take to start. */
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(120);
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /** @brief What the application's JVM holds at one point. */
+    private record Snapshot(long heapBytes, long directBytes, int threads) {}
+
+    /** @brief The outcome for one transport. */
+    private record Result(String mode, int opened, int failed, Snapshot before, Snapshot after) {
+        double perConnection(long before, long after) {
+            return opened == 0 ? 0 : (after - before) / (double) opened;
+        }
+
+        double heapPerConnection() {
+            return perConnection(before.heapBytes(), after.heapBytes());
+        }
+
+        double directPerConnection() {
+            return perConnection(before.directBytes(), after.directBytes());
+        }
+    }
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(REQUEST_TIMEOUT)
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        ConnectionMemoryLoadTest test = new ConnectionMemoryLoadTest();
+        List<Result> results = new ArrayList<>();
+        for (String mode : MODES) {
+            results.add(test.measure(mode.trim()));
+        }
+        report(results);
+        // The HttpClient's selector thread is not a daemon
+        System.exit(0);
+    }
+
+    /** @brief Starts a fresh application, opens the pages over one transport and compares its memory before and after. */
+    private Result measure(String mode) throws Exception {
+        if (!mode.equals("sse") && !mode.equals("sockjs")) {
+            throw new IllegalArgumentException("Unknown mode '" + mode + "', expected sse or sockjs");
+        }
+        int port = freePort();
+        int jmxPort = freePort();
+        Process server = startServer(port, jmxPort);
+        List<AutoCloseable> pages = new ArrayList<>();
+        try (JMXConnector jmx = awaitStartup(server, port, jmxPort)) {
+            MBeanServerConnection mbeans = jmx.getMBeanServerConnection();
+            String baseUrl = "http://localhost:" + port;
+            // Warms up: grows the worker pools and initializes what is created on first use, which are not per-page costs
+            open(mode, baseUrl, WARMUP_CONNECTIONS, pages);
+            closeAll(pages);
+            Thread.sleep(SETTLE_MILLIS);
+            Snapshot before = snapshot(mbeans);
+            int failed = open(mode, baseUrl, CONNECTIONS, pages);
+            Thread.sleep(SETTLE_MILLIS);
+            Snapshot after = snapshot(mbeans);
+            System.out.printf("%s: %d pages open, %d failed%n", mode, pages.size(), failed);
+            return new Result(mode, pages.size(), failed, before, after);
+        } finally {
+            closeAll(pages);
+            server.destroy();
+            if (!server.waitFor(30, TimeUnit.SECONDS)) server.destroyForcibly();
+        }
+    }
+
+    /** @return How many of the pages failed to open. */
+    private int open(String mode, String baseUrl, int count, List<AutoCloseable> pages) throws InterruptedException {
+        return mode.equals("sse") ? openEventStreams(baseUrl, count, pages) : openSockJsSessions(baseUrl, count, pages);
+    }
+
+    private static void closeAll(List<AutoCloseable> pages) {
+        for (AutoCloseable page : pages) {
+            try {
+                page.close();
+            } catch (Exception ex) {
+                // Going away anyway
+            }
+        }
+        pages.clear();
+    }
+
+    /** @brief Starts the application in its own JVM, with the test classpath and a local JMX port. */
+    private static Process startServer(int port, int jmxPort) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (!SERVER_JVM_ARGS.isBlank()) command.addAll(Arrays.asList(SERVER_JVM_ARGS.trim().split("\\s+")));
+        command.addAll(List.of(
+                "-Dcom.sun.management.jmxremote.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.host=127.0.0.1",
+                "-Dcom.sun.management.jmxremote.local.only=true",
+                "-Dcom.sun.management.jmxremote.authenticate=false",
+                "-Dcom.sun.management.jmxremote.ssl=false",
+                "-cp", System.getProperty("java.class.path"),
+                SmartQueueApp.class.getName(),
+                "--server.port=" + port,
+                "--spring.datasource.url=jdbc:h2:mem:loadtest-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create",
+                "--spring.h2.console.enabled=false",
+                // Every simulated page shares one address; measure the server, not the rate limits
+                "--smartqueue.admission.enabled=false",
+                "--logging.level.root=WARN"));
+        if (!APP_ARGS.isBlank()) command.addAll(Arrays.asList(APP_ARGS.trim().split("\\s+")));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /** @brief Waits until the application answers HTTP, then connects to its JMX port. */
+    private JMXConnector awaitStartup(Process server, int port, int jmxPort) throws Exception {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        HttpRequest probe = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/customer/hours?queue=" + QUEUE))
+                .timeout(REQUEST_TIMEOUT).GET().build();
+        while (true) {
+            if (!server.isAlive()) throw new IllegalStateException("The application exited with " + server.exitValue());
+            try {
+                if (http.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) break;
+            } catch (IOException ex) {
+                // Not listening yet
+            }
+            if (System.nanoTime() > deadline) throw new IllegalStateException("The application did not start in " + STARTUP_TIMEOUT);
+            Thread.sleep(500);
+        }
+        return JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + jmxPort + "/jmxrmi"));
+    }
+
+    /** @brief Reads the application's live heap (after a full GC), direct buffers and threads. */
+    private static Snapshot snapshot(MBeanServerConnection mbeans) throws IOException, InterruptedException {
+        MemoryMXBean memory = ManagementFactory.newPlatformMXBeanProxy(mbeans, ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+        ThreadMXBean threads = ManagementFactory.newPlatformMXBeanProxy(mbeans, ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+        // Twice, so objects waiting for finalization or reference processing are gone too
+        memory.gc();
+        Thread.sleep(200);
+        memory.gc();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(mbeans, BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) direct = pool.getMemoryUsed();
+        }
+        return new Snapshot(memory.getHeapMemoryUsage().getUsed(), direct, threads.getThreadCount());
+    }
+
+    /**
+     * @brief Opens the Server-Sent Events pages, CONNECT_CONCURRENCY at a time.
+     * A page counts once its first frame (the id to resume from) arrived.
+     * @return How many failed to open.
+     */
+    private int openEventStreams(String baseUrl, int count, List<AutoCloseable> pages) throws InterruptedException {
+        URI uri = URI.create(baseUrl);
+        Semaphore permits = new Semaphore(CONNECT_CONCURRENCY);
+        List<CompletableFuture<Socket>> opened = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            permits.acquire();
+            opened.add(CompletableFuture.supplyAsync(() -> openEventStream(uri))
+                    .whenComplete((socket, ex) -> permits.release()));
+        }
+        int failed = 0;
+        for (CompletableFuture<Socket> socket : opened) {
+            try {
+                pages.add(socket.join());
+            } catch (RuntimeException ex) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    private static Socket openEventStream(URI uri) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), (int) REQUEST_TIMEOUT.toMillis());
+            socket.setSoTimeout((int) REQUEST_TIMEOUT.toMillis());
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /api/customer/events?queue=" + QUEUE + "&id=" + UUID.randomUUID() + " HTTP/1.1\r\n"
+                    + "Host: " + uri.getHost() + "\r\nAccept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            StringBuilder received = new StringBuilder();
+            byte[] buffer = new byte[1024];
+            while (!received.toString().contains("id:")) {
+                int n = in.read(buffer);
+                if (n < 0) throw new IOException("Closed before the first event");
+                received.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+            }
+            if (!received.toString().startsWith("HTTP/1.1 200")) {
+                throw new IOException("Unexpected response: " + received.substring(0, received.indexOf("\r\n")));
+            }
+            return socket;
+        } catch (IOException ex) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Failed anyway
+            }
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @brief Opens the SockJS/STOMP pages, CONNECT_CONCURRENCY at a time.
+     * A page counts once both SUBSCRIBE frames were sent after the CONNECTED frame.
+     * @return How many failed to open.
+     */
+    private int openSockJsSessions(String baseUrl, int count, List<AutoCloseable> pages) throws InterruptedException {
+        Semaphore permits = new Semaphore(CONNECT_CONCURRENCY);
+        List<CompletableFuture<WebSocket>> opened = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            permits.acquire();
+            // Like a SockJS client: any three-digit server id and a random session id
+            URI uri = URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws/" + String.format("%03d", i % 1000)
+                    + "/" + UUID.randomUUID().toString().replace("-", "") + "/websocket");
+            SockJsPage page = new SockJsPage();
+            opened.add(http.newWebSocketBuilder()
+                    .connectTimeout(REQUEST_TIMEOUT)
+                    .buildAsync(uri, page)
+                    .thenCompose(ws -> page.subscribed.thenApply(v -> ws))
+                    .orTimeout(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                    .whenComplete((ws, ex) -> permits.release()));
+        }
+        int failed = 0;
+        for (CompletableFuture<WebSocket> ws : opened) {
+            try {
+                WebSocket socket = ws.join();
+                pages.add(() -> socket.sendClose(WebSocket.NORMAL_CLOSURE, "done"));
+            } catch (RuntimeException ex) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /** @brief One page's SockJS session: unwraps the SockJS frames and speaks STOMP inside them. */
+    private static final class SockJsPage implements WebSocket.Listener {
+
+        private final String id = UUID.randomUUID().toString();
+        private final StompDecoder decoder = new StompDecoder();
+        private final StringBuilder text = new StringBuilder();
+
+        /** @brief Completes once the CONNECTED frame arrived and both SUBSCRIBE frames were sent. */
+        final CompletableFuture<Void> subscribed = new CompletableFuture<>();
+
+        @Override
+        public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                String frame = text.toString();
+                text.setLength(0);
+                if (frame.equals("o")) {
+                    send(ws, "CONNECT\naccept-version:1.2\nhost:localhost\nheart-beat:0,0\n\n\0");
+                } else if (frame.startsWith("a")) {
+                    for (JsonNode message : readTree(frame.substring(1))) {
+                        for (Message<byte[]> stomp : decoder.decode(StandardCharsets.UTF_8.encode(message.asText()))) {
+                            handle(ws, StompHeaderAccessor.wrap(stomp));
+                        }
+                    }
+                } else if (frame.startsWith("c")) {
+                    subscribed.completeExceptionally(new IllegalStateException("SockJS close: " + frame));
+                }
+            }
+            ws.request(1);
+            return null;
+        }
+
+        private void handle(WebSocket ws, StompHeaderAccessor headers) {
+            if (headers.getCommand() == StompCommand.CONNECTED) {
+                send(ws, "SUBSCRIBE\nid:0\ndestination:" + QueueEventPublisher.topic(QUEUE) + "\n\n\0",
+                        "SUBSCRIBE\nid:1\ndestination:" + PositionNotifier.notifyTopic(QUEUE, id) + "\n\n\0")
+                        .whenComplete((w, ex) -> {
+                            if (ex == null) subscribed.complete(null);
+                            else subscribed.completeExceptionally(ex);
+                        });
+            } else if (headers.getCommand() == StompCommand.ERROR) {
+                subscribed.completeExceptionally(new IllegalStateException("STOMP ERROR: " + headers.getMessage()));
+            }
+        }
+
+        /** @brief Sends STOMP frames as one SockJS message (a JSON array of strings). */
+        private static CompletableFuture<WebSocket> send(WebSocket ws, String... frames) {
+            try {
+                return ws.sendText(JSON.writeValueAsString(frames), true);
+            } catch (IOException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+            subscribed.completeExceptionally(new IllegalStateException("Closed: " + statusCode + " " + reason));
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket ws, Throwable error) {
+            subscribed.completeExceptionally(error);
+        }
+    }
+
+    private static void report(List<Result> results) throws IOException {
+        System.out.println();
+        System.out.printf("Server memory per idle customer page (%d pages, after a full GC)%n", CONNECTIONS);
+        System.out.println("mode      opened  failed   heap B/page  direct B/page   total B/page  threads added");
+        for (Result r : results) {
+            System.out.printf("%-8s %7d %7d %13.0f %14.0f %14.0f %14d%n", r.mode(), r.opened(), r.failed(),
+                    r.heapPerConnection(), r.directPerConnection(), r.heapPerConnection() + r.directPerConnection(),
+                    r.after().threads() - r.before().threads());
+        }
+
+        if (OUT == null) return;
+        Path path = Path.of(OUT);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            out.println("mode,opened,failed,heap_bytes_per_page,direct_bytes_per_page,total_bytes_per_page,threads_added");
+            for (Result r : results) {
+                out.printf("%s,%d,%d,%.0f,%.0f,%.0f,%d%n", r.mode(), r.opened(), r.failed(), r.heapPerConnection(),
+                        r.directPerConnection(), r.heapPerConnection() + r.directPerConnection(),
+                        r.after().threads() - r.before().threads());
+            }
+        }
+        System.out.println("Results written to " + path);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static JsonNode readTree(String body) {
+        try {
+            return JSON.readTree(body);
+        } catch (IOException ex) {
+            return JSON.missingNode();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package smartqueue;
+
+import org.apache.activemq.artemis.core.config.Configuration;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @brief Embedded Artemis broker with a STOMP port, for trying smartqueue.broker.mode=relay locally.
+ * * Starts an Artemis server that keeps nothing on disk and checks no logins, with one STOMP
+ * acceptor. Destinations under /topic/ are multicast, so every instance and every browser
+ * subscribed to a topic gets each message, as with a production Artemis or ActiveMQ configured
+ * for Spring's relay. Point every instance at it with the default smartqueue.broker.relay.host
+ * and port, and stop it with Ctrl+C.
+ * * Run with: mvn -Ploadtest verify -Dloadtest.main=smartqueue.DevStompBroker (the address can be
+ * changed with -Dloadtest.args="-Dloadtest.brokerHost=0.0.0.0 -Dloadtest.brokerPort=61614").
+ */
+public final class DevStompBroker {
+
+    /** @brief Address the STOMP acceptor binds to. */
+    private static final String HOST = System.getProperty("loadtest.brokerHost", "127.0.0.1");
+
+    /** @brief STOMP port; the relay's default is 61613. */
+    private static final int PORT = Integer.getInteger("loadtest.brokerPort", 61613);
+
+    public static void main(String[] args) throws Exception {
+        Configuration config = new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .setJMXManagementEnabled(false)
+                .addAcceptorConfiguration("stomp", "tcp://" + HOST + ":" + PORT
+                        + "?protocols=STOMP;anycastPrefix=/queue/;multicastPrefix=/topic/");
+        EmbeddedActiveMQ broker = new EmbeddedActiveMQ().setConfiguration(config);
+        broker.start();
+        System.out.printf("STOMP broker listening on %s:%d; stop it with Ctrl+C%n", HOST, PORT);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                broker.stop();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+}
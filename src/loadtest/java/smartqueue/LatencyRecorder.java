@@ -0,0 +1,33 @@
+package smartqueue;
+
+import java.util.Arrays;
+
+/**
+ * @brief Collects latencies in nanoseconds for the load tests; percentiles are computed once a run is over.
+ */
+final class LatencyRecorder {
+
+    private long[] samples = new long[1 << 16];
+    private int count;
+
+    synchronized void add(long nanos) {
+        if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = nanos;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @param q The quantile, e.g. 0.99.
+     * @return The latency at that quantile in milliseconds, 0 if nothing was recorded.
+     */
+    synchronized double percentileMillis(double q) {
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(q * count) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,340 @@
+package smartqueue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @brief Poll-storm load test comparing the platform-thread and virtual-thread execution modes.
+ * * For each mode the application is started in-process on an in-memory H2 database seeded with
+ * appointments. Simulated customers then poll /position and /wait-time on a fixed schedule while
+ * a steady stream of bookings and cancellations keeps the database busy. The number of customers
+ * is ramped up step by step until the p99 poll latency exceeds the SLO, the error rate passes 1%,
+ * or the server falls behind the offered load. The last step that passed is the maximum
+ * sustainable number of concurrent customers for that mode.
+ * * The virtual-thread mode needs Java 21; on older JVMs it is reported as skipped.
+ * * Run with: mvn -Ploadtest verify (options are described in pom.xml).
+ */
+public final class PollStormLoadTest {
+
+    /** @brief Comma-separated execution modes to test: platform, virtual. */
+    private static final String MODES = System.getProperty("loadtest.modes", "platform,virtual");
+
+    /** @brief Comma-separated numbers of concurrent customers, one step each. */
+    private static final String STEPS = System.getProperty("loadtest.steps", "100,200,400,800,1600,3200,6400");
+
+    /** @brief Length of each step; the first second is warmup and is not recorded. */
+    private static final int STEP_SECONDS = Integer.getInteger("loadtest.stepSeconds", 10);
+
+    /** @brief Untimed run at the first step's load after startup, so the JIT has warmed up before the ramp. */
+    private static final int WARMUP_SECONDS = Integer.getInteger("loadtest.warmupSeconds", 15);
+
+    /** @brief How often each customer polls (both /position and /wait-time). */
+    private static final int POLL_MILLIS = Integer.getInteger("loadtest.pollMillis", 1000);
+
+    /** @brief Book-then-cancel pairs started per second, independent of the number of customers. */
+    private static final int BOOKINGS_PER_SECOND = Integer.getInteger("loadtest.bookingsPerSecond", 50);
+
+    /** @brief Highest acceptable p99 poll latency for a step to count as sustainable. */
+    private static final int P99_SLO_MILLIS = Integer.getInteger("loadtest.p99SloMillis", 250);
+
+    /** @brief Number of appointments in the queue the customers poll. */
+    private static final int QUEUE_SIZE = Integer.getInteger("loadtest.queueSize", 10000);
+
+    /** @brief Requests still unanswered after this long count as errors. */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /** @brief Optional CSV file that receives one line per step. */
+    private static final String OUT = System.getProperty("loadtest.out");
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /** @brief Outcome of one step of the ramp. */
+    private record StepResult(String mode, int customers, double offeredPerSecond, double achievedPerSecond,
+                              double p50Millis, double p99Millis, double writeP99Millis, double errorRate) {
+
+        boolean sustainable() {
+            return p99Millis <= P99_SLO_MILLIS && errorRate <= 0.01 && achievedPerSecond >= 0.95 * offeredPerSecond;
+        }
+    }
+
+    /** @brief A free bookable slot the booking stream cycles through. */
+    private record Slot(String date, int hour) {}
+
+    private PollStormLoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        List<StepResult> results = new ArrayList<>();
+        for (String mode : MODES.split(",")) {
+            mode = mode.trim();
+            if (mode.equals("virtual") && Runtime.version().feature() < 21) {
+                System.out.println("Skipping virtual mode: it needs Java 21, this JVM is " + Runtime.version());
+                continue;
+            }
+            results.addAll(runMode(mode));
+        }
+
+        System.out.println();
+        System.out.println("Max sustainable concurrent customers (p99 poll latency <= " + P99_SLO_MILLIS + " ms):");
+        for (String mode : MODES.split(",")) {
+            String m = mode.trim();
+            StepResult best = results.stream()
+                    .filter(r -> r.mode().equals(m) && r.sustainable())
+                    .reduce((a, b) -> b)
+                    .orElse(null);
+            if (best != null) {
+                System.out.printf("  %-8s %6d customers, p99 %.1f ms%n", m, best.customers(), best.p99Millis());
+            } else if (results.stream().anyMatch(r -> r.mode().equals(m))) {
+                System.out.printf("  %-8s none of the steps were sustainable%n", m);
+            }
+        }
+
+        if (OUT != null) writeCsv(results);
+    }
+
+    /**
+     * @brief Starts the application in one execution mode and ramps the load until it breaks.
+     * @param mode "platform" or "virtual".
+     * @return One result per step that was run.
+     */
+    private static List<StepResult> runMode(String mode) throws Exception {
+        List<String> appArgs = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create",
+                "--spring.h2.console.enabled=false",
+                // Every simulated customer shares one address; measure the server, not the rate limits
+                "--smartqueue.admission.enabled=false",
+                "--logging.level.root=WARN"));
+        if (mode.equals("virtual")) {
+            appArgs.add("--spring.profiles.active=virtual-threads");
+        }
+
+        List<StepResult> results = new ArrayList<>();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(SmartQueueApp.class)
+                .run(appArgs.toArray(String[]::new))) {
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            AppointmentService service = context.getBean(AppointmentService.class);
+            List<Appointment> seeded = seed(context.getBean(JdbcTemplate.class), service);
+            Queue<Slot> freeSlots = freeSlots(service);
+
+            System.out.println();
+            System.out.printf("Mode: %s (%d appointments, %d bookings/s, poll every %d ms)%n",
+                    mode, seeded.size(), BOOKINGS_PER_SECOND, POLL_MILLIS);
+            System.out.println("customers  offered/s  achieved/s   p50 ms   p99 ms  write p99 ms  errors");
+
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(REQUEST_TIMEOUT)
+                    .build();
+            String[] steps = STEPS.split(",");
+            runStep(mode, Integer.parseInt(steps[0].trim()), WARMUP_SECONDS, client, baseUrl, seeded, freeSlots);
+            for (String step : steps) {
+                StepResult r = runStep(mode, Integer.parseInt(step.trim()), STEP_SECONDS, client, baseUrl, seeded, freeSlots);
+                results.add(r);
+                System.out.printf("%9d %10.0f %11.0f %8.1f %8.1f %13.1f %6.2f%%%s%n",
+                        r.customers(), r.offeredPerSecond(), r.achievedPerSecond(), r.p50Millis(),
+                        r.p99Millis(), r.writeP99Millis(), r.errorRate() * 100, r.sustainable() ? "" : "  <- not sustainable");
+                if (!r.sustainable()) break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @brief Runs one step of the ramp.
+     * @param customers Number of concurrently polling customers.
+     * @param stepSeconds How long to run, including one unrecorded second.
+     * @return The latencies, throughput and error rate measured after the warmup second.
+     */
+    private static StepResult runStep(String mode, int customers, int stepSeconds, HttpClient client, String baseUrl,
+                                      List<Appointment> seeded, Queue<Slot> freeSlots) throws InterruptedException {
+        LatencyRecorder polls = new LatencyRecorder();
+        LatencyRecorder writes = new LatencyRecorder();
+        LongAdder errors = new LongAdder();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicBoolean recording = new AtomicBoolean();
+
+        // Requests are fired asynchronously on a fixed schedule (an open workload), so a slow
+        // server shows up as growing latency instead of silently lowering the offered load
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS);
+        for (int c = 0; c < customers; c++) {
+            Appointment a = seeded.get(c % seeded.size());
+            HttpRequest position = get(baseUrl + "/api/customer/position?id=" + a.id);
+            HttpRequest waitTime = get(baseUrl + "/api/customer/wait-time?date=" + a.date + "&hour=" + a.hour);
+            timer.scheduleAtFixedRate(() -> {
+                send(client, position, polls, errors, inFlight, recording);
+                send(client, waitTime, polls, errors, inFlight, recording);
+            }, periodNanos * c / customers, periodNanos, TimeUnit.NANOSECONDS);
+        }
+        if (BOOKINGS_PER_SECOND > 0) {
+            timer.scheduleAtFixedRate(() -> bookAndCancel(client, baseUrl, freeSlots, writes, errors, inFlight, recording),
+                    0, 1_000_000_000L / BOOKINGS_PER_SECOND, TimeUnit.NANOSECONDS);
+        }
+
+        TimeUnit.SECONDS.sleep(1);
+        recording.set(true);
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(stepSeconds - 1);
+        recording.set(false);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        timer.shutdownNow();
+
+        // Let the stragglers finish before the next step starts
+        long deadline = System.nanoTime() + REQUEST_TIMEOUT.toNanos() * 2;
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+
+        double offered = 2.0 * customers * 1000 / POLL_MILLIS;
+        double achieved = polls.count() / seconds;
+        long total = polls.count() + writes.count() + errors.sum();
+        return new StepResult(mode, customers, offered, achieved,
+                polls.percentileMillis(0.50), polls.percentileMillis(0.99), writes.percentileMillis(0.99),
+                total == 0 ? 0 : (double) errors.sum() / total);
+    }
+
+    /** @brief Books a free slot and cancels it again as soon as the booking succeeds. */
+    private static void bookAndCancel(HttpClient client, String baseUrl, Queue<Slot> freeSlots, LatencyRecorder writes,
+                                      LongAdder errors, AtomicInteger inFlight, AtomicBoolean recording) {
+        Slot slot = freeSlots.poll();
+        if (slot == null) return; // Every free slot is in use by an unfinished pair
+        String name = "Load Customer " + (char) ('A' + slot.hour());
+        HttpRequest book = HttpRequest.newBuilder(URI.create(baseUrl + "/api/customer/book"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"name\":\"" + name + "\",\"date\":\"" + slot.date() + "\",\"hour\":" + slot.hour() + "}"))
+                .build();
+        send(client, book, writes, errors, inFlight, recording).whenComplete((response, ex) -> {
+            String id = response != null && response.statusCode() == 200 ? idOf(response.body()) : null;
+            if (id == null) {
+                freeSlots.add(slot);
+                return;
+            }
+            HttpRequest cancel = HttpRequest.newBuilder(URI.create(baseUrl + "/api/customer/cancel"))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .method("DELETE", HttpRequest.BodyPublishers.ofString("{\"id\":\"" + id + "\"}"))
+                    .build();
+            send(client, cancel, writes, errors, inFlight, recording).whenComplete((r, e) -> freeSlots.add(slot));
+        });
+    }
+
+    /**
+     * @brief Sends a request asynchronously and records its latency, or an error for a failure,
+     * a timeout, or any non-2xx status, while recording is on.
+     * @return The response future (completes with null on failure).
+     */
+    private static CompletableFuture<HttpResponse<String>> send(HttpClient client, HttpRequest request,
+                                                               LatencyRecorder recorder, LongAdder errors,
+                                                               AtomicInteger inFlight, AtomicBoolean recording) {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, ex) -> {
+                    long nanos = System.nanoTime() - start;
+                    inFlight.decrementAndGet();
+                    boolean ok = ex == null && response.statusCode() / 100 == 2;
+                    if (recording.get()) {
+                        if (ok) recorder.add(nanos);
+                        else errors.increment();
+                    }
+                    return ex == null ? response : null;
+                });
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build();
+    }
+
+    private static String idOf(String body) {
+        try {
+            return JSON.readTree(body).path("id").asText(null);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @brief Inserts QUEUE_SIZE appointments outside business hours, so the bookable hours stay
+     * free for the booking stream, and rebuilds the in-memory queue from them.
+     * @return The seeded appointments, in queue order.
+     */
+    private static List<Appointment> seed(JdbcTemplate jdbc, AppointmentService service) {
+        List<Appointment> seeded = new ArrayList<>(QUEUE_SIZE);
+        QueueSettings settings = service.getSettings(Appointment.DEFAULT_QUEUE);
+        LocalDate date = LocalDate.now().plusDays(1);
+        while (seeded.size() < QUEUE_SIZE) {
+            for (int hour = 0; hour < 24 && seeded.size() < QUEUE_SIZE; hour++) {
+                if (hour >= settings.getOpenHour() && hour < settings.getCloseHour()) continue;
+                seeded.add(new Appointment("Seeded Customer " + (char) ('A' + hour), date, hour));
+            }
+            date = date.plusDays(1);
+        }
+        jdbc.batchUpdate(
+                "insert into appointment (id, queue_id, name, normalized_name, appointment_day, appointment_hour) values (?, ?, ?, ?, ?, ?)",
+                seeded, 1000, (ps, a) -> {
+                    ps.setString(1, a.id);
+                    ps.setString(2, a.queueId);
+                    ps.setString(3, a.name);
+                    ps.setString(4, SlotIndex.normalizeName(a.name));
+                    ps.setObject(5, a.date);
+                    ps.setInt(6, a.hour);
+                });
+        service.rebuildQueue();
+        return seeded;
+    }
+
+    /** @brief Every slot the booking endpoint accepts: weekdays within the next year, during business hours. */
+    private static Queue<Slot> freeSlots(AppointmentService service) {
+        Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+        QueueSettings settings = service.getSettings(Appointment.DEFAULT_QUEUE);
+        LocalDate limit = LocalDate.now().plusYears(1);
+        for (LocalDate d = LocalDate.now().plusDays(1); !d.isAfter(limit); d = d.plusDays(1)) {
+            if (d.getDayOfWeek() == DayOfWeek.SATURDAY || d.getDayOfWeek() == DayOfWeek.SUNDAY) continue;
+            for (int hour = settings.getOpenHour(); hour < settings.getCloseHour(); hour++) {
+                slots.add(new Slot(d.toString(), hour));
+            }
+        }
+        return slots;
+    }
+
+    private static void writeCsv(List<StepResult> results) throws IOException {
+        Path path = Path.of(OUT);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            out.println("mode,customers,offered_per_s,achieved_per_s,p50_ms,p99_ms,write_p99_ms,error_rate,sustainable");
+            for (StepResult r : results) {
+                out.printf("%s,%d,%.0f,%.0f,%.2f,%.2f,%.2f,%.4f,%b%n", r.mode(), r.customers(), r.offeredPerSecond(),
+                        r.achievedPerSecond(), r.p50Millis(), r.p99Millis(), r.writeP99Millis(), r.errorRate(), r.sustainable());
+            }
+        }
+        System.out.println("Results written to " + path);
+    }
+}
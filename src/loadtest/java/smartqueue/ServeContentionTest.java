@@ -0,0 +1,197 @@
+package smartqueue;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @brief Contention test for serve-next: many desks serving one queue at once never serve anyone twice.
+ * * The application is started in-process on an in-memory H2 database and the given number of
+ * appointments is booked through {@link AppointmentService}. Then all desks are released at the
+ * same moment and call {@link AppointmentService#removeNext(String)} until the queue is empty,
+ * while a few cancelling threads remove random appointments with
+ * {@link AppointmentService#removeSpecific(String, String)}, so desks also race cancels for the
+ * same rows, and a few more claim random rows straight in the database
+ * ({@link AppointmentDatabase#claim(String)}), as a second instance sharing it would.
+ * * The run asserts that no appointment id was handed to more than one desk, and that every booked
+ * appointment was served, cancelled or claimed elsewhere exactly once. A failed check prints the
+ * offending ids and the process exits with status 1, which fails the Maven build.
+ * * Run with: mvn -Ploadtest verify -Dloadtest.main=smartqueue.ServeContentionTest (options are
+ * the loadtest.* properties below, passed in -Dloadtest.args as described in pom.xml).
+ */
+public final class ServeContentionTest {
+
+    /** @brief Appointments booked per round. */
+    private static final int APPOINTMENTS = Integer.getInteger("loadtest.appointments", 5000);
+
+    /** @brief Threads calling serve-next at the same time. */
+    private static final int DESKS = Integer.getInteger("loadtest.desks", 32);
+
+    /** @brief Threads cancelling random appointments while the desks serve; 0 to only serve. */
+    private static final int CANCELLERS = Integer.getInteger("loadtest.cancellers", 4);
+
+    /** @brief Threads claiming random rows in the database behind the index's back; 0 for none. */
+    private static final int REMOTE_CLAIMERS = Integer.getInteger("loadtest.remoteClaimers", 2);
+
+    /** @brief Rounds to repeat, each on a freshly booked queue. */
+    private static final int ROUNDS = Integer.getInteger("loadtest.rounds", 5);
+
+    /** @brief Queue the appointments are booked in and served from. */
+    private static final String QUEUE = System.getProperty("loadtest.queue", Appointment.DEFAULT_QUEUE);
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(SmartQueueApp.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create",
+                "--spring.h2.console.enabled=false",
+                "--logging.level.root=WARN")) {
+            AppointmentService service = context.getBean(AppointmentService.class);
+            AppointmentDatabase database = context.getBean(AppointmentDatabase.class);
+            service.setHours(QUEUE, 0, 24);
+            // Stops at the first failed round, so its report is the last thing printed
+            for (int round = 0; round < ROUNDS && passed; round++) {
+                passed = runRound(service, database, round);
+            }
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /** @return True if no appointment of the round was served twice, and every one was removed exactly once. */
+    private static boolean runRound(AppointmentService service, AppointmentDatabase database, int round) throws Exception {
+        List<String> booked = book(service, round);
+        ConcurrentLinkedQueue<String> served = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<String> cancelled = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<String> claimedElsewhere = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(DESKS + CANCELLERS + REMOTE_CLAIMERS);
+        List<Future<?>> workers = new ArrayList<>();
+        long began = System.nanoTime();
+        try {
+            for (int i = 0; i < DESKS; i++) {
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    Appointment next;
+                    while ((next = service.removeNext(QUEUE)) != null) {
+                        served.add(next.id);
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < CANCELLERS; i++) {
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    // Cancels about one appointment in ten, racing the desks for them
+                    for (int n = 0; n < booked.size() / 10 / CANCELLERS; n++) {
+                        String id = booked.get(ThreadLocalRandom.current().nextInt(booked.size()));
+                        if (service.removeSpecific(QUEUE, id) != null) cancelled.add(id);
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < REMOTE_CLAIMERS; i++) {
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    // Deletes about one row in twenty without touching the index
+                    for (int n = 0; n < booked.size() / 20 / REMOTE_CLAIMERS; n++) {
+                        String id = booked.get(ThreadLocalRandom.current().nextInt(booked.size()));
+                        if (database.claim(id) == 1) claimedElsewhere.add(id);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) worker.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - began) / 1e9;
+
+        System.out.printf("Round %d: %d booked, %d served by %d desks, %d cancelled, %d claimed elsewhere in %.2f s (%.0f serves/s)%n",
+                round + 1, booked.size(), served.size(), DESKS, cancelled.size(), claimedElsewhere.size(),
+                seconds, served.size() / seconds);
+
+        // The property under test: no desk is ever handed an appointment another desk was handed
+        Map<String, Integer> serves = new HashMap<>();
+        served.forEach(id -> serves.merge(id, 1, Integer::sum));
+        List<String> servedTwice = serves.entrySet().stream()
+                .filter(e -> e.getValue() > 1).map(Map.Entry::getKey).sorted().toList();
+        boolean ok = check(servedTwice.isEmpty(), "appointments served more than once", servedTwice);
+
+        // Every appointment left the queue exactly once, by exactly one path
+        Set<String> cancelledIds = new HashSet<>(cancelled);
+        Set<String> elsewhereIds = new HashSet<>(claimedElsewhere);
+        List<String> removedTwice = new ArrayList<>();
+        serves.keySet().stream().filter(id -> cancelledIds.contains(id) || elsewhereIds.contains(id)).forEach(removedTwice::add);
+        cancelledIds.stream().filter(elsewhereIds::contains).forEach(removedTwice::add);
+        ok &= check(removedTwice.isEmpty() && cancelled.size() == cancelledIds.size()
+                        && claimedElsewhere.size() == elsewhereIds.size(),
+                "appointments removed by two paths", removedTwice);
+        Set<String> removed = new HashSet<>(serves.keySet());
+        removed.addAll(cancelledIds);
+        removed.addAll(elsewhereIds);
+        List<String> missed = booked.stream().filter(id -> !removed.contains(id)).toList();
+        ok &= check(missed.isEmpty(), "appointments never removed", missed);
+        removed.removeAll(new HashSet<>(booked));
+        ok &= check(removed.isEmpty(), "removed ids that were never booked", List.copyOf(removed));
+        return ok;
+    }
+
+    /** @brief Prints a failed check with up to ten of the offending ids. @return The condition. */
+    private static boolean check(boolean condition, String failure, List<String> ids) {
+        if (!condition) {
+            System.out.printf("  FAILED: %d %s, e.g. %s%n", ids.size(), failure, ids.subList(0, Math.min(10, ids.size())));
+        }
+        return condition;
+    }
+
+    /** @brief Books APPOINTMENTS appointments with distinct names on distinct weekday slots. */
+    private static List<String> book(AppointmentService service, int round) {
+        List<Appointment> batch = new ArrayList<>(APPOINTMENTS);
+        LocalDate date = LocalDate.now().plusDays(1);
+        while (batch.size() < APPOINTMENTS) {
+            if (date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY) {
+                for (int hour = 0; hour < 24 && batch.size() < APPOINTMENTS; hour++) {
+                    batch.add(new Appointment(QUEUE, "Desk " + letters(round) + " " + letters(batch.size()), date, hour));
+                }
+            }
+            date = date.plusDays(1);
+        }
+        List<SlotIndex.Result> results = service.addAll(batch);
+        List<String> ids = new ArrayList<>(APPOINTMENTS);
+        for (int i = 0; i < batch.size(); i++) {
+            if (results.get(i) == SlotIndex.Result.RESERVED) ids.add(batch.get(i).id);
+        }
+        if (ids.size() != APPOINTMENTS) {
+            throw new IllegalStateException("Booked only " + ids.size() + " of " + APPOINTMENTS + " appointments");
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    /** @brief Spells a number in letters (0 is A, 26 is BA), since names may not contain digits. */
+    private static String letters(int n) {
+        StringBuilder s = new StringBuilder();
+        do {
+            s.insert(0, (char) ('A' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        return s.toString();
+    }
+}
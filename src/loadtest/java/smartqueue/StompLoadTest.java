@@ -0,0 +1,602 @@
+package smartqueue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @brief Mixed-traffic load test: thousands of STOMP customer sessions, HTTP pollers, bookings and serves at once.
+ * * Every simulated customer has a booked appointment and a WebSocket session (the raw-WebSocket
+ * transport of the /ws SockJS endpoint) subscribed, like the booking page, to its queue's
+ * queue-update topic and to its own notify topic. Part of the customers also poll /position and
+ * /wait-time over HTTP. Meanwhile book-then-cancel pairs keep the write path busy, and one staff
+ * desk serves the head of the queue at a fixed rate.
+ * * Besides throughput and p50/p99/p99.9 latency of every HTTP operation, it measures the two
+ * end-to-end paths a serve drives: from the serve request to the served customer receiving
+ * "It is your turn" (notify), and from the serve request to every session receiving the
+ * APPOINTMENT_SERVED queue update (broadcast).
+ * * By default the application is started in-process on an in-memory H2 database. With
+ * -Dloadtest.url it drives a running deployment instead (a test one: the harness opens the
+ * queue around the clock while it runs and books up to sessions + a few hundred appointments,
+ * all of which it cancels again, and restores the hours, at the end).
+ * * Run with: mvn -Ploadtest verify -Dloadtest.main=smartqueue.StompLoadTest (options are
+ * the loadtest.* properties below, passed in -Dloadtest.args as described in pom.xml).
+ */
+public final class StompLoadTest {
+
+    /** @brief Deployment to test, e.g. http://localhost:8080; empty to start the application in-process. */
+    private static final String URL = System.getProperty("loadtest.url", "");
+
+    /** @brief Extra arguments for the in-process application, space separated (e.g. --spring.profiles.active=virtual-threads). */
+    private static final String APP_ARGS = System.getProperty("loadtest.appArgs", "");
+
+    /** @brief Queue the customers book in and the desk serves. */
+    private static final String QUEUE = System.getProperty("loadtest.queue", Appointment.DEFAULT_QUEUE);
+
+    /** @brief Customers with a STOMP session. */
+    private static final int SESSIONS = Integer.getInteger("loadtest.sessions", 2000);
+
+    /** @brief Of those, how many also poll over HTTP. They are taken from the back of the queue, so they are never served. */
+    private static final int POLLERS = Integer.getInteger("loadtest.pollers", 500);
+
+    /** @brief How often each poller polls (both /position and /wait-time). */
+    private static final int POLL_MILLIS = Integer.getInteger("loadtest.pollMillis", 1000);
+
+    /** @brief Book-then-cancel pairs started per second. */
+    private static final int BOOKINGS_PER_SECOND = Integer.getInteger("loadtest.bookingsPerSecond", 20);
+
+    /** @brief Serves per second at the single desk; a serve is skipped while the previous one is unanswered. */
+    private static final int SERVES_PER_SECOND = Integer.getInteger("loadtest.servesPerSecond", 10);
+
+    /** @brief Length of the measured run. */
+    private static final int SECONDS = Integer.getInteger("loadtest.seconds", 30);
+
+    /** @brief Unrecorded run at full load before the measured one. */
+    private static final int WARMUP_SECONDS = Integer.getInteger("loadtest.warmupSeconds", 5);
+
+    /** @brief Sessions opened at the same time while connecting. */
+    private static final int CONNECT_CONCURRENCY = Integer.getInteger("loadtest.connectConcurrency", 200);
+
+    /** @brief Staff credentials for serving and for the bulk booking used to set up the customers. */
+    private static final String USER = System.getProperty("loadtest.user", "staff");
+    private static final String PASSWORD = System.getProperty("loadtest.password", "pass");
+
+    /** @brief Optional CSV file that receives one line per measured operation. */
+    private static final String OUT = System.getProperty("loadtest.out");
+
+    /** @brief Requests still unanswered after this long count as errors. */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /** @brief Items per bulk booking or bulk cancel request (the server's default limit is 1000). */
+    private static final int BULK_SIZE = 500;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /** @brief Latencies and failures of one measured operation. */
+    private record Operation(String name, LatencyRecorder latencies, LongAdder errors) {
+        Operation(String name) {
+            this(name, new LatencyRecorder(), new LongAdder());
+        }
+    }
+
+    /** @brief A bookable date and hour. */
+    private record Slot(String date, int hour) {}
+
+    /** @brief One simulated customer: its appointment and, once connected, its STOMP session. */
+    private static final class Customer {
+        final String id;
+        final String name;
+        final Slot slot;
+
+        /** @brief System.nanoTime() when the desk asked to serve this customer, 0 until then. */
+        volatile long serveStartedAt;
+
+        Customer(String id, String name, Slot slot) {
+            this.id = id;
+            this.name = name;
+            this.slot = slot;
+        }
+    }
+
+    private final String baseUrl;
+    private final HttpClient http;
+    private final String authorization = "Basic " + Base64.getEncoder()
+            .encodeToString((USER + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+
+    private final Operation connect = new Operation("connect");
+    private final Operation poll = new Operation("poll");
+    private final Operation book = new Operation("book");
+    private final Operation cancel = new Operation("cancel");
+    private final Operation serve = new Operation("serve");
+    private final Operation notify = new Operation("notify");
+    private final Operation broadcast = new Operation("broadcast");
+
+    /** @brief True while the measured run is on; everything is recorded only then (except connects). */
+    private final AtomicBoolean recording = new AtomicBoolean();
+
+    /** @brief Requests sent and not answered yet. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** @brief Slot ("date|hour") of each customer served, to when its serve was requested. */
+    private final Map<String, Long> serveStartedBySlot = new ConcurrentHashMap<>();
+
+    private final List<WebSocket> sockets = new ArrayList<>();
+    private final AtomicBoolean closing = new AtomicBoolean();
+    private final LongAdder sessionsLost = new LongAdder();
+    private final LongAdder queueUpdates = new LongAdder();
+    private final LongAdder positionUpdates = new LongAdder();
+
+    /** @brief Index of the next customer the desk should get; the queue is served in booking order. */
+    private final AtomicInteger nextToServe = new AtomicInteger();
+    private final AtomicBoolean serveInFlight = new AtomicBoolean();
+    private final LongAdder servesSkipped = new LongAdder();
+    private final LongAdder servesOutOfOrder = new LongAdder();
+
+    private StompLoadTest(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(REQUEST_TIMEOUT)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (!URL.isEmpty()) {
+            new StompLoadTest(URL.replaceAll("/+$", "")).run();
+            return;
+        }
+        List<String> appArgs = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create",
+                "--spring.h2.console.enabled=false",
+                // Every simulated customer shares one address; measure the server, not the rate limits
+                "--smartqueue.admission.enabled=false",
+                "--logging.level.root=WARN"));
+        if (!APP_ARGS.isBlank()) appArgs.addAll(Arrays.asList(APP_ARGS.trim().split("\\s+")));
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(SmartQueueApp.class)
+                .run(appArgs.toArray(String[]::new))) {
+            new StompLoadTest("http://localhost:" + context.getEnvironment().getProperty("local.server.port")).run();
+        }
+    }
+
+    private void run() throws Exception {
+        JsonNode hours = JSON.readTree(http.send(get(baseUrl + "/api/customer/hours?queue=" + QUEUE),
+                HttpResponse.BodyHandlers.ofString()).body());
+        setHours(0, 24);
+        List<Customer> customers = List.of();
+        try {
+            customers = bookCustomers(slots(LocalDate.now().plusDays(1), SESSIONS), "Stomp Customer ");
+            System.out.printf("Booked %d customers in queue '%s' at %s%n", customers.size(), QUEUE, baseUrl);
+            connectAll(customers);
+            System.out.printf("Connected %d STOMP sessions (p99 %.1f ms, %d failed)%n",
+                    connect.latencies().count(), connect.latencies().percentileMillis(0.99), connect.errors().sum());
+            double seconds = drive(customers);
+            report(seconds);
+        } finally {
+            closing.set(true);
+            sockets.forEach(ws -> ws.sendClose(WebSocket.NORMAL_CLOSURE, "done"));
+            int served = nextToServe.get();
+            cancelAll(customers.subList(Math.min(served, customers.size()), customers.size()));
+            setHours(hours.path("openHour").asInt(QueueSettings.DEFAULT_OPEN_HOUR),
+                    hours.path("closeHour").asInt(QueueSettings.DEFAULT_CLOSE_HOUR));
+        }
+    }
+
+    /**
+     * @brief Runs the mixed workload: warmup first, then the measured run.
+     * @return The length of the measured run in seconds.
+     */
+    private double drive(List<Customer> customers) throws InterruptedException {
+        int pollers = Math.min(POLLERS, customers.size());
+        int servable = customers.size() - pollers;
+        Queue<Slot> bookingSlots = new ConcurrentLinkedQueue<>(slots(LocalDate.now().plusMonths(10), 500));
+
+        // Requests are fired on a fixed schedule (an open workload), so a slow server shows up
+        // as growing latency instead of silently lowering the offered load
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS);
+        for (int p = 0; p < pollers; p++) {
+            Customer c = customers.get(customers.size() - 1 - p);
+            HttpRequest position = get(baseUrl + "/api/customer/position?queue=" + QUEUE + "&id=" + c.id);
+            HttpRequest waitTime = get(baseUrl + "/api/customer/wait-time?queue=" + QUEUE
+                    + "&date=" + c.slot.date() + "&hour=" + c.slot.hour());
+            timer.scheduleAtFixedRate(() -> {
+                send(position, poll);
+                send(waitTime, poll);
+            }, periodNanos * p / pollers, periodNanos, TimeUnit.NANOSECONDS);
+        }
+        if (BOOKINGS_PER_SECOND > 0) {
+            timer.scheduleAtFixedRate(() -> bookAndCancel(bookingSlots),
+                    0, 1_000_000_000L / BOOKINGS_PER_SECOND, TimeUnit.NANOSECONDS);
+        }
+        if (SERVES_PER_SECOND > 0) {
+            timer.scheduleAtFixedRate(() -> serveNext(customers, servable),
+                    0, 1_000_000_000L / SERVES_PER_SECOND, TimeUnit.NANOSECONDS);
+        }
+
+        TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+        recording.set(true);
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(SECONDS);
+        recording.set(false);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        timer.shutdownNow();
+
+        // Let the stragglers finish, so their bookings are canceled
+        long deadline = System.nanoTime() + REQUEST_TIMEOUT.toNanos() * 2;
+        while ((inFlight.get() > 0 || serveInFlight.get()) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        return seconds;
+    }
+
+    /** @brief Asks the desk to serve the next customer, unless the previous serve is still unanswered. */
+    private void serveNext(List<Customer> customers, int servable) {
+        int k = nextToServe.get();
+        if (k >= servable) return; // Only the pollers are left
+        if (!serveInFlight.compareAndSet(false, true)) {
+            servesSkipped.increment();
+            return;
+        }
+        Customer expected = customers.get(k);
+        long start = System.nanoTime();
+        // Set before sending: the notification can arrive before the response does
+        expected.serveStartedAt = start;
+        serveStartedBySlot.put(slotKey(expected.slot.date(), expected.slot.hour()), start);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/employee/serve?queue=" + QUEUE))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Authorization", authorization)
+                .DELETE()
+                .build();
+        send(request, serve).whenComplete((response, ex) -> {
+            if (response != null && response.statusCode() == 200) {
+                nextToServe.incrementAndGet();
+                if (!response.body().equals("Now Serving: " + expected.name)) servesOutOfOrder.increment();
+            }
+            serveInFlight.set(false);
+        });
+    }
+
+    /** @brief Books a slot far behind the customers and cancels it again as soon as the booking succeeds. */
+    private void bookAndCancel(Queue<Slot> freeSlots) {
+        Slot slot = freeSlots.poll();
+        if (slot == null) return; // Every slot is in use by an unfinished pair
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/customer/book"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json(Map.of("queue", QUEUE,
+                        "name", "Stomp Booker " + letters(slot.hour()), "date", slot.date(), "hour", slot.hour()))))
+                .build();
+        send(request, book).whenComplete((response, ex) -> {
+            String id = response != null && response.statusCode() == 200 ? readTree(response.body()).path("id").asText(null) : null;
+            if (id == null) {
+                freeSlots.add(slot);
+                return;
+            }
+            HttpRequest undo = HttpRequest.newBuilder(URI.create(baseUrl + "/api/customer/cancel"))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .method("DELETE", HttpRequest.BodyPublishers.ofString(json(Map.of("queue", QUEUE, "id", id))))
+                    .build();
+            send(undo, cancel).whenComplete((r, e) -> freeSlots.add(slot));
+        });
+    }
+
+    /**
+     * @brief Sends a request asynchronously and records its latency, or an error for a failure,
+     * a timeout, or any non-2xx status, while recording is on.
+     * @return The response future (completes with null on failure).
+     */
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request, Operation operation) {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, ex) -> {
+                    long nanos = System.nanoTime() - start;
+                    inFlight.decrementAndGet();
+                    boolean ok = ex == null && response.statusCode() / 100 == 2;
+                    if (recording.get()) {
+                        if (ok) operation.latencies().add(nanos);
+                        else operation.errors().increment();
+                    }
+                    return ex == null ? response : null;
+                });
+    }
+
+    /** @brief Opens every customer's session, CONNECT_CONCURRENCY at a time, and waits until all are subscribed. */
+    private void connectAll(List<Customer> customers) throws InterruptedException {
+        Semaphore permits = new Semaphore(CONNECT_CONCURRENCY);
+        URI uri = URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws/websocket");
+        List<CompletableFuture<Void>> subscribed = new ArrayList<>(customers.size());
+        for (Customer c : customers) {
+            permits.acquire();
+            long start = System.nanoTime();
+            Session session = new Session(c);
+            CompletableFuture<Void> done = http.newWebSocketBuilder()
+                    .connectTimeout(REQUEST_TIMEOUT)
+                    .buildAsync(uri, session)
+                    .thenCompose(ws -> {
+                        synchronized (sockets) {
+                            sockets.add(ws);
+                        }
+                        return ws.sendText("CONNECT\naccept-version:1.2\nhost:localhost\nheart-beat:0,0\n\n\0", true)
+                                .thenCompose(w -> session.subscribed);
+                    })
+                    .orTimeout(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                    .whenComplete((v, ex) -> {
+                        permits.release();
+                        if (ex == null) connect.latencies().add(System.nanoTime() - start);
+                        else connect.errors().increment();
+                    });
+            subscribed.add(done);
+        }
+        CompletableFuture.allOf(subscribed.toArray(CompletableFuture[]::new)).exceptionally(ex -> null).join();
+    }
+
+    /** @brief One customer's STOMP session, as the booking page would hold it. */
+    private final class Session implements WebSocket.Listener {
+
+        private final Customer customer;
+        private final StompDecoder decoder = new StompDecoder();
+        private final StringBuilder text = new StringBuilder();
+
+        /** @brief Completes once the CONNECTED frame arrived and both SUBSCRIBE frames were sent. */
+        final CompletableFuture<Void> subscribed = new CompletableFuture<>();
+
+        Session(Customer customer) {
+            this.customer = customer;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                long received = System.nanoTime();
+                ByteBuffer frame = StandardCharsets.UTF_8.encode(text.toString());
+                text.setLength(0);
+                for (Message<byte[]> message : decoder.decode(frame)) {
+                    handle(ws, message, received);
+                }
+            }
+            ws.request(1);
+            return null;
+        }
+
+        private void handle(WebSocket ws, Message<byte[]> message, long received) {
+            StompHeaderAccessor headers = StompHeaderAccessor.wrap(message);
+            if (headers.getCommand() == StompCommand.CONNECTED) {
+                ws.sendText(subscribe(0, QueueEventPublisher.topic(QUEUE)), true)
+                        .thenCompose(w -> w.sendText(subscribe(1, PositionNotifier.notifyTopic(QUEUE, customer.id)), true))
+                        .whenComplete((w, ex) -> {
+                            if (ex == null) subscribed.complete(null);
+                            else subscribed.completeExceptionally(ex);
+                        });
+            } else if (headers.getCommand() == StompCommand.MESSAGE) {
+                String body = new String(message.getPayload(), StandardCharsets.UTF_8);
+                if ("1".equals(headers.getSubscriptionId())) {
+                    onNotify(body, received);
+                } else {
+                    onQueueUpdate(body, received);
+                }
+            } else if (headers.getCommand() == StompCommand.ERROR) {
+                subscribed.completeExceptionally(new IllegalStateException("STOMP ERROR: " + headers.getMessage()));
+            }
+        }
+
+        private void onNotify(String body, long received) {
+            if (!body.startsWith("It is your turn")) {
+                positionUpdates.increment();
+                return;
+            }
+            long started = customer.serveStartedAt;
+            if (recording.get() && started != 0) notify.latencies().add(received - started);
+        }
+
+        private void onQueueUpdate(String body, long received) {
+            queueUpdates.increment();
+            if (!recording.get() || !body.contains("APPOINTMENT_SERVED")) return;
+            for (JsonNode event : readTree(body)) {
+                if (!event.path("type").asText().equals("APPOINTMENT_SERVED")) continue;
+                Long started = serveStartedBySlot.get(slotKey(event.path("date").asText(), event.path("hour").asInt()));
+                if (started != null) broadcast.latencies().add(received - started);
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+            if (!closing.get()) sessionsLost.increment();
+            subscribed.completeExceptionally(new IllegalStateException("Closed: " + statusCode + " " + reason));
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket ws, Throwable error) {
+            if (!closing.get()) sessionsLost.increment();
+            subscribed.completeExceptionally(error);
+        }
+    }
+
+    private static String subscribe(int id, String destination) {
+        return "SUBSCRIBE\nid:" + id + "\ndestination:" + destination + "\n\n\0";
+    }
+
+    /**
+     * @brief Books one customer per slot through the staff bulk endpoint.
+     * @return The customers that were booked, in queue order; slots already taken are skipped.
+     */
+    private List<Customer> bookCustomers(List<Slot> slots, String namePrefix) throws IOException, InterruptedException {
+        List<Customer> customers = new ArrayList<>(slots.size());
+        for (int from = 0; from < slots.size(); from += BULK_SIZE) {
+            List<Map<String, Object>> items = new ArrayList<>();
+            List<Slot> chunk = slots.subList(from, Math.min(from + BULK_SIZE, slots.size()));
+            for (int i = 0; i < chunk.size(); i++) {
+                items.add(Map.of("queue", QUEUE, "name", namePrefix + letters(from + i),
+                        "date", chunk.get(i).date(), "hour", chunk.get(i).hour()));
+            }
+            HttpResponse<String> response = http.send(staff(URI.create(baseUrl + "/api/customer/book/bulk"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json(items)))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Bulk booking failed: " + response.statusCode() + " " + response.body());
+            }
+            for (JsonNode result : readTree(response.body())) {
+                if (!result.path("ok").asBoolean()) continue;
+                JsonNode a = result.path("appointment");
+                customers.add(new Customer(a.path("id").asText(), a.path("name").asText(), chunk.get(result.path("index").asInt())));
+            }
+        }
+        return customers;
+    }
+
+    /** @brief Cancels the customers that were not served, through the staff bulk endpoint. */
+    private void cancelAll(List<Customer> customers) throws IOException, InterruptedException {
+        for (int from = 0; from < customers.size(); from += BULK_SIZE) {
+            List<Map<String, Object>> items = customers.subList(from, Math.min(from + BULK_SIZE, customers.size())).stream()
+                    .map(c -> Map.<String, Object>of("queue", QUEUE, "id", c.id))
+                    .toList();
+            http.send(staff(URI.create(baseUrl + "/api/customer/cancel/bulk"))
+                    .header("Content-Type", "application/json")
+                    .method("DELETE", HttpRequest.BodyPublishers.ofString(json(items)))
+                    .build(), HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private void setHours(int openHour, int closeHour) throws IOException, InterruptedException {
+        HttpResponse<String> response = http.send(staff(URI.create(baseUrl + "/api/employee/hours?queue=" + QUEUE
+                + "&openHour=" + openHour + "&closeHour=" + closeHour))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Setting the hours failed: " + response.statusCode() + " " + response.body());
+        }
+    }
+
+    /**
+     * @brief Lists bookable slots (weekdays, any hour) in queue order.
+     * @param from The first date to use.
+     * @param count How many slots to return.
+     */
+    private static List<Slot> slots(LocalDate from, int count) {
+        List<Slot> slots = new ArrayList<>(count);
+        for (LocalDate d = from; slots.size() < count; d = d.plusDays(1)) {
+            if (d.getDayOfWeek() == DayOfWeek.SATURDAY || d.getDayOfWeek() == DayOfWeek.SUNDAY) continue;
+            for (int hour = 0; hour < 24 && slots.size() < count; hour++) {
+                slots.add(new Slot(d.toString(), hour));
+            }
+        }
+        return slots;
+    }
+
+    private void report(double seconds) throws IOException {
+        System.out.println();
+        System.out.printf("%d sessions (%d polling every %d ms), %d bookings/s, %d serves/s, %.0f s measured%n",
+                connect.latencies().count(), Math.min(POLLERS, connect.latencies().count()), POLL_MILLIS,
+                BOOKINGS_PER_SECOND, SERVES_PER_SECOND, seconds);
+        System.out.println("operation        count      per s    p50 ms    p99 ms  p99.9 ms  errors");
+        List<Operation> operations = List.of(poll, book, cancel, serve, notify, broadcast);
+        for (Operation o : operations) {
+            LatencyRecorder r = o.latencies();
+            System.out.printf("%-12s %9d %10.1f %9.1f %9.1f %9.1f %7d%n", o.name(), r.count(), r.count() / seconds,
+                    r.percentileMillis(0.50), r.percentileMillis(0.99), r.percentileMillis(0.999), o.errors().sum());
+        }
+        System.out.println("notify    = serve request sent -> served customer receives \"It is your turn\"");
+        System.out.println("broadcast = serve request sent -> each session receives the APPOINTMENT_SERVED update");
+        System.out.printf("Messages received: %.0f queue updates/s, %.0f position updates/s; sessions lost: %d%n",
+                queueUpdates.sum() / (seconds + WARMUP_SECONDS), positionUpdates.sum() / (seconds + WARMUP_SECONDS),
+                sessionsLost.sum());
+        if (servesSkipped.sum() > 0 || servesOutOfOrder.sum() > 0) {
+            System.out.printf("Serves skipped while the previous one was unanswered: %d; serves of an unexpected customer: %d%n",
+                    servesSkipped.sum(), servesOutOfOrder.sum());
+        }
+
+        if (OUT == null) return;
+        Path path = Path.of(OUT);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            out.println("operation,count,per_s,p50_ms,p99_ms,p999_ms,errors");
+            for (Operation o : operations) {
+                LatencyRecorder r = o.latencies();
+                out.printf("%s,%d,%.1f,%.2f,%.2f,%.2f,%d%n", o.name(), r.count(), r.count() / seconds,
+                        r.percentileMillis(0.50), r.percentileMillis(0.99), r.percentileMillis(0.999), o.errors().sum());
+            }
+        }
+        System.out.println("Results written to " + path);
+    }
+
+    private HttpRequest.Builder staff(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).header("Authorization", authorization);
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build();
+    }
+
+    /** @brief Spells a number in letters (0 is A, 26 is BA), since names may not contain digits. */
+    private static String letters(int n) {
+        StringBuilder s = new StringBuilder();
+        do {
+            s.insert(0, (char) ('A' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        return s.toString();
+    }
+
+    private static String slotKey(String date, int hour) {
+        return date + "|" + hour;
+    }
+
+    private static String json(Object value) {
+        try {
+            return JSON.writeValueAsString(value);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static JsonNode readTree(String body) {
+        try {
+            return JSON.readTree(body);
+        } catch (IOException ex) {
+            return JSON.missingNode();
+        }
+    }
+}
@@ -1,17 +1,41 @@
 package smartqueue;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import jakarta.persistence.UniqueConstraint;
+import org.springframework.data.domain.Persistable;
+import java.time.LocalDate;
 import java.util.UUID;
 
 /**
  * @brief Entity class representing a customer appointment.
  * * This class is mapped to a database table via JPA/Hibernate.
  * It stores customer identification, the requested date, and the hour slot.
+ * Every appointment belongs to one queue (one branch). The unique constraints back up
+ * {@link SlotIndex}: one booking per slot, and one booking per customer per day, in each
+ * queue. The (queue_id, appointment_day, appointment_hour) constraint is also the composite
+ * index behind every ordered scan, range filter and count query in {@link AppointmentDatabase},
+ * so none of them need a separate index or a sort.
  */
 @Entity // Tells Hibernate to create a database table for this class
-public class Appointment {
+@Table(uniqueConstraints = {
+    @UniqueConstraint(name = Appointment.SLOT_CONSTRAINT, columnNames = {"queue_id", "appointment_day", "appointment_hour"}),
+    @UniqueConstraint(name = Appointment.CUSTOMER_DAY_CONSTRAINT, columnNames = {"queue_id", "appointment_day", "normalized_name"})
+})
+public class Appointment implements Persistable<String> {
+
+    /** @brief Name of the one-booking-per-slot constraint. */
+    public static final String SLOT_CONSTRAINT = "uk_appointment_queue_slot";
+
+    /** @brief Name of the one-booking-per-customer-per-day constraint. */
+    public static final String CUSTOMER_DAY_CONSTRAINT = "uk_appointment_queue_customer";
+
+    /** @brief Queue used by requests that do not name one, and by appointments booked before queues existed. */
+    public static final String DEFAULT_QUEUE = "main";
 
     /** * @brief Unique identifier for the appointment.
      * Stored as a UUID string to prevent ID guessing and collisions.
@@ -19,15 +43,21 @@ public class Appointment {
     @Id
     public String id;
 
+    /** * @brief The queue (branch) the appointment was booked in.
+     * Databases created before queues existed get {@link #DEFAULT_QUEUE} from {@link AppointmentQueueMigration}.
+     */
+    @Column(name = "queue_id")
+    public String queueId;
+
     /** @brief The name of the customer booking the appointment. */
     public String name;
     
-    /** * @brief The scheduled date (YYYY-MM-DD).
-     * Mapped to 'appointment_date' because 'date' is a reserved SQL keyword.
-     * It is easier to make this change here than to rename variables everywhere else.
+    /** * @brief The scheduled date, stored as a SQL DATE and serialized as YYYY-MM-DD.
+     * Mapped to 'appointment_day' because 'date' is a reserved SQL keyword. Older databases kept
+     * the date as text in 'appointment_date'; {@link AppointmentDayMigration} moves it over.
      */
-    @Column(name = "appointment_date") 
-    public String date;
+    @Column(name = "appointment_day")
+    public LocalDate date;
 
     /** * @brief The scheduled hour (24-hour format).
      * Mapped to 'appointment_hour' because 'hour' is a reserved SQL keyword.
@@ -35,6 +65,19 @@ public class Appointment {
     @Column(name = "appointment_hour")
     public int hour;
 
+    /** * @brief Lower-cased copy of the name, used only by the per-day uniqueness constraint.
+     * Private so it is not serialized into API responses.
+     */
+    @Column(name = "normalized_name")
+    private String normalizedName;
+
+    /** * @brief True for a booking that has not been saved yet.
+     * Its UUID is assigned here rather than by the database, so without this flag save() would
+     * have to look the id up before every insert, and bulk inserts could not be batched.
+     */
+    @Transient
+    private boolean isNew;
+
     /**
      * @brief Default constructor.
      * REQUIRED for JPA to instantiate the entity from the database.
@@ -42,29 +85,52 @@ public class Appointment {
     public Appointment() {}
 
     /**
-     * @brief Constructs a new Appointment with a unique UUID.
+     * @brief Constructs a new Appointment in the default queue with a unique UUID.
      * * @param name The customer's name.
-     * @param date The date of the appointment (YYYY-MM-DD).
+     * @param date The date of the appointment.
      * @param hour The hour of the appointment (24-hour format).
      */
-    public Appointment(String name, String date, int hour) {
+    public Appointment(String name, LocalDate date, int hour) {
+        this(DEFAULT_QUEUE, name, date, hour);
+    }
+
+    /**
+     * @brief Constructs a new Appointment with a unique UUID.
+     * * @param queueId The queue the appointment is booked in.
+     * @param name The customer's name.
+     * @param date The date of the appointment.
+     * @param hour The hour of the appointment (24-hour format).
+     */
+    public Appointment(String queueId, String name, LocalDate date, int hour) {
+        this.queueId = queueId;
         this.name = name;
         this.date = date;
         this.hour = hour;
+        this.normalizedName = SlotIndex.normalizeName(name);
         this.id = UUID.randomUUID().toString(); // Generate unique ID on creation
+        this.isNew = true;
     }
 
     // --- Getters required for the web browser / JSON serialization to see the data ---
 
+    /** @return The queue the appointment is booked in. */
+    public String getQueueId() { return queueId; }
+
     /** @return The customer's name. */
     public String getName() { return name; }
     
-    /** @return The appointment date string. */
-    public String getDate() { return date; }
+    /** @return The appointment date. */
+    public LocalDate getDate() { return date; }
     
     /** @return The appointment hour. */
     public int getHour() { return hour; }
     
     /** @return The unique UUID of the appointment. */
+    @Override
     public String getId() { return id; }
+
+    /** @return True if this appointment has not been inserted yet. Not part of the JSON. */
+    @Override
+    @JsonIgnore
+    public boolean isNew() { return isNew; }
 }
\ No newline at end of file
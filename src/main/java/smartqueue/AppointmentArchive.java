@@ -0,0 +1,33 @@
+package smartqueue;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+/**
+ * @brief Repository interface for the append-only appointment archive.
+ * * Only ever inserted into (by the {@link QueueStore}, for {@link AppointmentArchiver}) and read by wait reports.
+ */
+public interface AppointmentArchive extends JpaRepository<ArchivedAppointment, String> {
+
+    /**
+     * @brief Streams the (date, hour) of every archived appointment of a queue in an inclusive date range, sorted chronologically.
+     * * Same shape as {@link AppointmentDatabase#streamSlotsBetween}, so the two can be merged into one report.
+     * The returned stream must be consumed inside a transaction and closed by the caller.
+     * * @param queueId The queue to read.
+     * @param startDate Lower bound (inclusive).
+     * @param endDate   Upper bound (inclusive).
+     * @return A stream of slots ordered by date, then hour.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select new smartqueue.AppointmentDatabase$Slot(a.date, a.hour) from ArchivedAppointment a "
+            + "where a.queueId = :queueId and a.date between :startDate and :endDate order by a.date, a.hour")
+    Stream<AppointmentDatabase.Slot> streamSlotsBetween(@Param("queueId") String queueId,
+                                                        @Param("startDate") LocalDate startDate,
+                                                        @Param("endDate") LocalDate endDate);
+}
@@ -0,0 +1,89 @@
+package smartqueue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * @brief Scheduled job that moves appointments from past days into the archive table.
+ * * Appointments nobody served would otherwise stay at the head of the queue forever. The job
+ * takes the earliest past-day appointments a bounded batch at a time and hands each batch to
+ * {@link AppointmentService#archive(List)}. The configured {@link QueueStore} claims the live rows
+ * and records the archive rows as one change (one short transaction, or one journal append), so
+ * a row is never lost between the two tables and bookings, which only touch today and later, are
+ * never held up; the in-memory queue only lets go of the appointments once that change is durable.
+ * The moved appointments are then announced in one removal event per batch, so dashboards stay
+ * in sync.
+ */
+@Component
+public class AppointmentArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentArchiver.class);
+
+    private final AppointmentDatabase database;
+    private final AppointmentService appointmentService;
+    private final QueueEventPublisher queueEvents;
+    private final Counter archivedCounter;
+
+    /** @brief Appointments moved per transaction. */
+    private final int batchSize;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param database The live appointment table.
+     * @param appointmentService Owner of the in-memory queue the moved appointments are dropped from.
+     * @param queueEvents Publisher that tells dashboards the appointments left the queue.
+     * @param meterRegistry Registry the archived-appointments counter is published to.
+     * @param batchSize Appointments moved per transaction (smartqueue.archive.batch-size).
+     */
+    public AppointmentArchiver(AppointmentDatabase database, AppointmentService appointmentService,
+                               QueueEventPublisher queueEvents, MeterRegistry meterRegistry,
+                               @Value("${smartqueue.archive.batch-size:500}") int batchSize) {
+        this.database = database;
+        this.appointmentService = appointmentService;
+        this.queueEvents = queueEvents;
+        this.batchSize = batchSize;
+        this.archivedCounter = Counter.builder("smartqueue.archive.moved")
+                .description("Past-day appointments moved from the live queue to the archive")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @brief Moves every appointment dated before today to the archive, batch by batch.
+     * Runs shortly after startup and then periodically (smartqueue.archive.*).
+     */
+    @Scheduled(initialDelayString = "${smartqueue.archive.initial-delay-ms:60000}",
+               fixedDelayString = "${smartqueue.archive.interval-ms:3600000}")
+    public void archivePastDays() {
+        LocalDate today = LocalDate.now();
+        for (String queueId : appointmentService.getQueueIds()) {
+            int total = 0;
+            Appointment last = null;
+            while (true) {
+                // Each queue is read through its own (queue, date, hour) index range, continuing after
+                // the previous batch, since the journal store may not have deleted its rows yet
+                List<Appointment> batch = last == null
+                        ? database.findByQueueIdAndDateBeforeOrderByDateAscHourAsc(queueId, today, Limit.of(batchSize))
+                        : database.findPastAfter(queueId, today, last.date, last.hour, Limit.of(batchSize));
+                if (batch.isEmpty()) break;
+                last = batch.get(batch.size() - 1);
+
+                // A serve or cancel that got there first keeps its appointment out of the archive
+                List<Appointment> moved = appointmentService.archive(batch);
+                queueEvents.appointmentsRemoved(moved);
+                archivedCounter.increment(moved.size());
+                total += moved.size();
+
+                if (batch.size() < batchSize) break;
+            }
+            if (total > 0) log.info("Archived {} appointments of queue '{}' from before {}", total, queueId, today);
+        }
+    }
+}
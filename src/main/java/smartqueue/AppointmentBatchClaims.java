@@ -0,0 +1,19 @@
+package smartqueue;
+
+import java.util.List;
+
+/**
+ * @brief Batched counterpart of {@link AppointmentDatabase#claim(String)}, mixed into that repository.
+ * * Spring Data picks up the implementation from {@link AppointmentBatchClaimsImpl}.
+ */
+public interface AppointmentBatchClaims {
+
+    /**
+     * @brief Atomically claims (deletes) several appointments in one JDBC batch.
+     * * Each id is its own conditional DELETE, so, exactly as with a single claim, the
+     * affected-row count for an id tells the caller whether it won that row.
+     * * @param ids The UUIDs of the appointments to claim.
+     * @return For each id, in order: 1 if this call removed the row, 0 if it was already gone.
+     */
+    int[] claimAll(List<String> ids);
+}
@@ -0,0 +1,30 @@
+package smartqueue;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import java.util.List;
+
+/**
+ * @brief JDBC implementation of {@link AppointmentBatchClaims}.
+ * * A JPQL bulk delete cannot be batched and reports only a total, so the deletes go through
+ * JdbcTemplate instead: one round trip for the whole list, with a row count per id.
+ */
+public class AppointmentBatchClaimsImpl implements AppointmentBatchClaims {
+
+    private final JdbcTemplate jdbc;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param jdbc Plain JDBC access to the appointment table.
+     */
+    public AppointmentBatchClaimsImpl(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @Override
+    @Transactional
+    public int[] claimAll(List<String> ids) {
+        return jdbc.batchUpdate("delete from appointment where id = ?",
+                ids.stream().map(id -> new Object[] {id}).toList());
+    }
+}
@@ -1,20 +1,121 @@
 package smartqueue;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * @brief Repository interface for Appointment persistence.
  * * Extends JpaRepository to provide standard CRUD operations.
  * Spring Data JPA automatically generates the implementation at runtime.
+ * Every query below is scoped to one queue and filters and orders on (date, hour), which the
+ * database answers from the composite unique index on (queue_id, appointment_day, appointment_hour).
  */
-public interface AppointmentDatabase extends JpaRepository<Appointment, String> {
-    
+public interface AppointmentDatabase extends JpaRepository<Appointment, String>, AppointmentBatchClaims {
+
+    /**
+     * @brief Read-only (date, hour) pair holding just the columns a wait report needs.
+     * * Built with a JPQL constructor expression, so streamed rows are plain objects: they are
+     * never managed entities and cost no per-row proxy.
+     */
+    record Slot(LocalDate date, int hour) {}
+
+    /**
+     * @brief Retrieves the earliest appointments of a queue scheduled before a given date.
+     * * Used by {@link AppointmentArchiver} to move past days out of the live table a bounded batch at a time.
+     * * @param queueId The queue to read.
+     * @param date Exclusive upper bound, normally today.
+     * @param limit Maximum number of appointments to return.
+     * @return Up to {@code limit} appointments ordered by date, then hour.
+     */
+    List<Appointment> findByQueueIdAndDateBeforeOrderByDateAscHourAsc(String queueId, LocalDate date, Limit limit);
+
+    /**
+     * @brief Continues {@link #findByQueueIdAndDateBeforeOrderByDateAscHourAsc} after the last slot of the previous batch.
+     * * Keyset pagination on the unique (date, hour) of a queue, so rows that are still in the table
+     * but were already claimed (the journal store deletes them later) are not read again.
+     * * @param queueId The queue to read.
+     * @param date Exclusive upper bound, normally today.
+     * @param afterDate Date of the last appointment of the previous batch.
+     * @param afterHour Hour of the last appointment of the previous batch.
+     * @param limit Maximum number of appointments to return.
+     * @return Up to {@code limit} appointments after that slot, ordered by date, then hour.
+     */
+    @Query("select a from Appointment a where a.queueId = :queueId and a.date < :date "
+            + "and (a.date > :afterDate or (a.date = :afterDate and a.hour > :afterHour)) order by a.date, a.hour")
+    List<Appointment> findPastAfter(@Param("queueId") String queueId, @Param("date") LocalDate date,
+                                    @Param("afterDate") LocalDate afterDate, @Param("afterHour") int afterHour,
+                                    Limit limit);
+
+    /**
+     * @brief Streams the (date, hour) of every appointment of a queue in an inclusive date range, sorted chronologically.
+     * * The range filter runs in the database rather than in Java. The returned stream must be
+     * consumed inside a transaction and closed by the caller.
+     * * @param queueId The queue to read.
+     * @param startDate Lower bound (inclusive).
+     * @param endDate   Upper bound (inclusive).
+     * @return A stream of slots ordered by date, then hour.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select new smartqueue.AppointmentDatabase$Slot(a.date, a.hour) from Appointment a "
+            + "where a.queueId = :queueId and a.date between :startDate and :endDate order by a.date, a.hour")
+    Stream<Slot> streamSlotsBetween(@Param("queueId") String queueId, @Param("startDate") LocalDate startDate,
+                                    @Param("endDate") LocalDate endDate);
+
+    /**
+     * @brief Counts the appointments of a queue in an inclusive date range.
+     * * Answered by a range scan of the composite index; no rows are read.
+     * * @param queueId The queue to count.
+     * @param startDate Lower bound (inclusive).
+     * @param endDate   Upper bound (inclusive).
+     * @return The number of appointments between the two dates.
+     */
+    long countByQueueIdAndDateBetween(String queueId, LocalDate startDate, LocalDate endDate);
+
+    /**
+     * @brief Counts the appointments of a queue on a date that are scheduled before a given hour.
+     * * Answered by a range scan of the composite index; no rows are read.
+     * * @param queueId The queue to count.
+     * @param date The date to check.
+     * @param hour Only appointments with an earlier hour are counted.
+     * @return The number of earlier appointments on that date.
+     */
+    long countByQueueIdAndDateAndHourLessThan(String queueId, LocalDate date, int hour);
+
+    /**
+     * @brief Counts the appointments scheduled before a given appointment in its queue.
+     * * One round trip: the appointment is found by primary key, and each subquery is a range
+     * scan of the composite index (every earlier day, then earlier hours on the same day).
+     * No appointment rows are returned.
+     * * @param queueId The queue the appointment must belong to.
+     * @param id The UUID of the appointment.
+     * @return Its 0-based position in the queue, or empty if there is no such appointment in that queue.
+     */
+    @Query("select (select count(a) from Appointment a where a.queueId = me.queueId and a.date < me.date)"
+            + " + (select count(b) from Appointment b where b.queueId = me.queueId and b.date = me.date and b.hour < me.hour)"
+            + " from Appointment me where me.id = :id and me.queueId = :queueId")
+    Optional<Long> countAhead(@Param("queueId") String queueId, @Param("id") String id);
+
     /**
-     * @brief Retrieves all appointments, sorted chronologically.
-     * * Spring generates the SQL for this automatically based on the method name format:
-     * "findAll" + "By" + "OrderBy[Property]Asc" + "[Property]Asc".
-     * * @return A list of all Appointments ordered first by date, then by hour.
+     * @brief Atomically claims (deletes) an appointment by its UUID.
+     * * Runs as a single conditional DELETE, so the affected-row count tells the caller
+     * whether it won the claim. When several serving desks (or nodes sharing the database)
+     * race for the same row, exactly one of them sees 1 and everyone else sees 0.
+     * * @param id The UUID of the appointment to claim.
+     * @return 1 if this call removed the row, 0 if it was already gone.
      */
-    List<Appointment> findAllByOrderByDateAscHourAsc();
+    @Modifying
+    @Transactional
+    @Query("delete from Appointment a where a.id = :id")
+    int claim(@Param("id") String id);
 }
\ No newline at end of file
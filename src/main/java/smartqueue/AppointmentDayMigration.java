@@ -0,0 +1,97 @@
+package smartqueue;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @brief Moves appointment dates from the old text column to the typed DATE column.
+ * * Databases created before the switch to {@link java.time.LocalDate} keep each date as a
+ * yyyy-MM-dd string in 'appointment_date'. Hibernate's schema update adds the new
+ * 'appointment_day' column next to it; this migration then copies the dates over in small
+ * batches, each committed on its own, so the table is never locked for long and an
+ * interrupted run simply resumes where it stopped on the next start. Once every row has been
+ * copied, the old column and the unique constraints built on it are dropped.
+ * * Runs at startup, after the schema update and before {@link AppointmentService} loads the
+ * queue. On a new database there is no old column and it does nothing.
+ */
+@Component
+@DependsOn("entityManagerFactory") // The schema update must have added appointment_day first
+public class AppointmentDayMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentDayMigration.class);
+
+    /** @brief Rows copied per batch (and per commit). */
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbc;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param jdbc Plain JDBC access to the appointment table, outside of JPA.
+     */
+    public AppointmentDayMigration(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /** @brief Copies every remaining text date, then drops the old column if nothing was left behind. */
+    @PostConstruct
+    public void migrate() {
+        if (!hasLegacyColumn()) return;
+
+        int copied = 0;
+        int skipped = 0;
+        String lastId = "";
+        while (true) {
+            // Keyset pagination by id, so rows that cannot be parsed are stepped over instead of re-read
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            List<String> ids = jdbc.query(
+                    "select id, appointment_date from appointment "
+                            + "where appointment_day is null and appointment_date is not null and id > ? "
+                            + "order by id fetch first ? rows only",
+                    (rs, n) -> {
+                        String id = rs.getString(1);
+                        try {
+                            batch.add(new Object[] {Date.valueOf(LocalDate.parse(rs.getString(2))), id});
+                        } catch (DateTimeParseException ex) {
+                            log.warn("Not migrating appointment {}: unreadable date '{}'", id, rs.getString(2));
+                        }
+                        return id;
+                    },
+                    lastId, BATCH_SIZE);
+            if (ids.isEmpty()) break;
+
+            jdbc.batchUpdate("update appointment set appointment_day = ? where id = ?", batch);
+            copied += batch.size();
+            skipped += ids.size() - batch.size();
+            lastId = ids.get(ids.size() - 1);
+        }
+        if (copied > 0) log.info("Copied {} appointment dates to appointment_day", copied);
+
+        if (skipped > 0) {
+            // Keep the old column so nothing is lost; those rows can be fixed by hand and migrated on the next start
+            log.warn("{} appointments could not be migrated; keeping the appointment_date column", skipped);
+            return;
+        }
+        jdbc.execute("alter table appointment drop constraint if exists uk_appointment_slot");
+        jdbc.execute("alter table appointment drop constraint if exists uk_appointment_customer_day");
+        jdbc.execute("alter table appointment drop column appointment_date");
+        log.info("Dropped the old appointment_date column");
+    }
+
+    private boolean hasLegacyColumn() {
+        Integer count = jdbc.queryForObject(
+                "select count(*) from information_schema.columns "
+                        + "where table_name = 'APPOINTMENT' and column_name = 'APPOINTMENT_DATE'",
+                Integer.class);
+        return count != null && count > 0;
+    }
+}
@@ -0,0 +1,83 @@
+package smartqueue;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @brief Fills in the normalized customer name of appointments booked before the column existed.
+ * * Hibernate's schema update adds the 'normalized_name' column, empty, together with the
+ * one-booking-per-customer-per-day constraint built on it. Since that constraint ignores rows
+ * whose name is null, older bookings would never block a second booking on the same day. This
+ * migration sets the column with {@link SlotIndex#normalizeName(String)} in small batches, each
+ * committed on its own. A row that would break the constraint (the same customer booked twice on
+ * one day under differently cased names) is logged and left as it is.
+ * * Runs at startup, after the queue migration has given every row its final queue and before
+ * {@link AppointmentService} loads the queues. On an up-to-date database it finds nothing to do.
+ */
+@Component
+@DependsOn("appointmentQueueMigration") // The constraint includes the queue, so rows must be in theirs first
+public class AppointmentNameMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentNameMigration.class);
+
+    /** @brief Rows updated per batch (and per commit). */
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String UPDATE = "update appointment set normalized_name = ? where id = ?";
+
+    private final JdbcTemplate jdbc;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param jdbc Plain JDBC access to the appointment table, outside of JPA.
+     */
+    public AppointmentNameMigration(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /** @brief Normalizes the name of every row that has none yet. */
+    @PostConstruct
+    public void migrate() {
+        int filled = 0;
+        int skipped = 0;
+        String lastId = "";
+        while (true) {
+            // Keyset pagination by id, so rows that are left out are stepped over instead of re-read
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            jdbc.query("select id, name from appointment "
+                            + "where normalized_name is null and name is not null and id > ? "
+                            + "order by id fetch first ? rows only",
+                    rs -> {
+                        batch.add(new Object[] {SlotIndex.normalizeName(rs.getString(2)), rs.getString(1)});
+                    },
+                    lastId, BATCH_SIZE);
+            if (batch.isEmpty()) break;
+
+            try {
+                jdbc.batchUpdate(UPDATE, batch);
+                filled += batch.size();
+            } catch (DataIntegrityViolationException ex) {
+                // Find the offending rows one by one; the others of the batch are still filled in
+                for (Object[] row : batch) {
+                    try {
+                        filled += jdbc.update(UPDATE, row);
+                    } catch (DataIntegrityViolationException duplicate) {
+                        log.warn("Not normalizing the name of appointment {}: the customer already has "
+                                + "a booking that day", row[1]);
+                        skipped++;
+                    }
+                }
+            }
+            lastId = (String) batch.get(batch.size() - 1)[1];
+        }
+        if (filled > 0) log.info("Normalized the names of {} appointments", filled);
+        if (skipped > 0) log.warn("{} appointments were left without a normalized name", skipped);
+    }
+}
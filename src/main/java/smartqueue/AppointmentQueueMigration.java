@@ -0,0 +1,95 @@
+package smartqueue;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @brief Moves appointments stored before queues existed into the default queue.
+ * * Hibernate's schema update adds the 'queue_id' column, empty, to the live and archive tables,
+ * together with the new per-queue unique constraints. This migration fills it in with
+ * {@link Appointment#DEFAULT_QUEUE} in small batches, each committed on its own, and then
+ * drops the old constraints and index that did not include the queue. Without that step, two
+ * branches could still not book the same day and hour.
+ * * The new constraints are added while every queue is still empty, so rows that share a slot or a
+ * customer/day (which older versions could store when two bookings raced) only clash once they
+ * are placed in the queue. Such a row is logged and left without a queue, and the queue does not
+ * load it; it can be fixed by hand and is migrated on the next start.
+ * * Runs at startup, after the date migration and before {@link AppointmentService} loads the
+ * queues. On an up-to-date database every statement finds nothing to do.
+ */
+@Component
+@DependsOn("appointmentDayMigration") // Rows must have their typed date before they are placed in a queue
+public class AppointmentQueueMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentQueueMigration.class);
+
+    /** @brief Rows updated per batch (and per commit). */
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbc;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param jdbc Plain JDBC access to the appointment tables, outside of JPA.
+     */
+    public AppointmentQueueMigration(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /** @brief Assigns the default queue to every row without one, then drops the queue-less constraints. */
+    @PostConstruct
+    public void migrate() {
+        int live = assignDefaultQueue("appointment");
+        int archived = assignDefaultQueue("appointment_archive");
+        if (live + archived > 0) {
+            log.info("Moved {} appointments and {} archived appointments to queue '{}'",
+                    live, archived, Appointment.DEFAULT_QUEUE);
+        }
+        jdbc.execute("alter table appointment drop constraint if exists uk_appointment_day_slot");
+        jdbc.execute("alter table appointment drop constraint if exists uk_appointment_day_customer");
+        jdbc.execute("drop index if exists idx_appointment_archive_day_hour");
+    }
+
+    private int assignDefaultQueue(String table) {
+        String update = "update " + table + " set queue_id = ? where id = ?";
+        int total = 0;
+        int skipped = 0;
+        String lastId = "";
+        while (true) {
+            // Keyset pagination by id, so rows that are left out are stepped over instead of re-read
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            jdbc.query("select id from " + table + " where queue_id is null and id > ? order by id fetch first ? rows only",
+                    rs -> {
+                        batch.add(new Object[] {Appointment.DEFAULT_QUEUE, rs.getString(1)});
+                    },
+                    lastId, BATCH_SIZE);
+            if (batch.isEmpty()) break;
+
+            try {
+                jdbc.batchUpdate(update, batch);
+                total += batch.size();
+            } catch (DataIntegrityViolationException ex) {
+                // Find the clashing rows one by one; the others of the batch are still moved
+                for (Object[] row : batch) {
+                    try {
+                        total += jdbc.update(update, row);
+                    } catch (DataIntegrityViolationException duplicate) {
+                        log.warn("Not moving appointment {} to queue '{}': its slot or customer/day is already "
+                                + "taken there", row[1], Appointment.DEFAULT_QUEUE);
+                        skipped++;
+                    }
+                }
+            }
+            lastId = (String) batch.get(batch.size() - 1)[1];
+        }
+        if (skipped > 0) log.warn("{} rows of {} were left without a queue", skipped, table);
+        return total;
+    }
+}
@@ -8,6 +8,9 @@ public class AppointmentRequest {
     
     /** @brief The UUID of the appointment (used for cancellation requests). */
     private String id;
+
+    /** @brief The queue (branch) to book in or cancel from; the default queue if omitted. */
+    private String queue = Appointment.DEFAULT_QUEUE;
     
     /** @brief The customer's name (used for booking requests). */
     private String name;
@@ -27,6 +30,12 @@ public class AppointmentRequest {
     /** @param id The appointment UUID to set. */
     public void setId(String id) { this.id = id; }
 
+    /** @return The queue id. */
+    public String getQueue() { return queue; }
+
+    /** @param queue The queue id to set. */
+    public void setQueue(String queue) { this.queue = queue; }
+
     /** @return The customer's name. */
     public String getName() { return name; }
     
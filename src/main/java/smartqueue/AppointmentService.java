@@ -1,124 +1,551 @@
 package smartqueue;
 
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @brief Service class containing the core business logic for the SmartQueue application.
  * * Acts as an intermediary between the REST controllers and the database layer.
+ * Each branch has its own queue, identified by a queue id; all in-memory state and settings
+ * are kept per queue in a {@link QueueShard}, so operations on one queue never touch another.
  */
 @Service
+// Old databases must have their dates and queues migrated before the queues are loaded
+@DependsOn({"appointmentDayMigration", "appointmentQueueMigration", "appointmentNameMigration"})
 public class AppointmentService {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentService.class);
+
+    /** @brief Queue ids are used in URLs and topic names, so they are kept to a safe alphabet. */
+    private static final Pattern QUEUE_ID = Pattern.compile("[a-z0-9-]{1,32}");
     
     /** @brief Dependency-injected database repository. */
     private final AppointmentDatabase database;
-    
-    /** @brief Expected duration of an appointment in minutes (kept in memory for the active session). */
-    private int appointmentDurationMinutes = 15; 
 
-    /** @brief The hour the service opens (24-hour format, kept in memory). */
-    private int openHour = 9; // Default 09:00
+    /** @brief Append-only store of appointments from past days, read by historical wait reports. */
+    private final AppointmentArchive archive;
+
+    /** @brief Durable copy of each queue's hours and duration. */
+    private final QueueSettingsDatabase settingsDatabase;
 
-    /** @brief The hour the service closes (24-hour format, kept in memory). */
-    private int closeHour = 17; // Default 17:00 (5:00 PM)
+    /** @brief Where changes are made durable: straight into the database, or through the journal. */
+    private final QueueStore store;
+
+    /** @brief Announces new settings snapshots, e.g. to other instances behind the broker relay. */
+    private final ApplicationEventPublisher applicationEvents;
+
+    /** @brief Queue id to that queue's in-memory state, in configuration order. Fixed at startup, so reads need no locking. */
+    private final Map<String, QueueShard> shards;
+
+    /**
+     * @brief True to answer wait-count and position polls with indexed count queries instead of the
+     * in-memory index. Needed when several instances share one database, because each instance's
+     * index only sees the bookings made through it. The answers are cached per queue in
+     * {@link QueueShard#waitCounts} and {@link QueueShard#positions} until the queue changes.
+     */
+    private final boolean countInDatabase;
 
     /**
      * @brief Constructor for dependency injection.
      * @param database The repository to interact with the database.
+     * @param archive The repository holding appointments from past days.
+     * @param settingsDatabase The repository holding each queue's settings.
+     * @param store Makes changes durable (smartqueue.persistence).
+     * @param applicationEvents Publishes each new settings snapshot.
+     * @param countInDatabase Where wait counts and positions come from (smartqueue.queue.count-in-database).
+     * @param queueIds The queues (branches) to serve (smartqueue.queues); the default queue is always included.
+     * @param cacheMaxEntries Size at which a queue's count cache is emptied (smartqueue.cache.max-entries).
+     * @param cacheTtlMillis Longest time a cached count is served (smartqueue.cache.ttl-ms).
+     * @param etaAlpha Weight of the newest serve in the service time averages (smartqueue.eta.alpha).
+     * @param etaMinSamples Serves an hour needs before its average is used (smartqueue.eta.min-samples).
+     * @param etaMaxGapMinutes Longest gap between serves that counts as service time (smartqueue.eta.max-gap-minutes).
      */
-    public AppointmentService(AppointmentDatabase database) {
+    public AppointmentService(AppointmentDatabase database, AppointmentArchive archive,
+                              QueueSettingsDatabase settingsDatabase, QueueStore store,
+                              ApplicationEventPublisher applicationEvents,
+                              @Value("${smartqueue.queue.count-in-database:false}") boolean countInDatabase,
+                              @Value("${smartqueue.queues:" + Appointment.DEFAULT_QUEUE + "}") List<String> queueIds,
+                              @Value("${smartqueue.cache.max-entries:10000}") int cacheMaxEntries,
+                              @Value("${smartqueue.cache.ttl-ms:1000}") long cacheTtlMillis,
+                              @Value("${smartqueue.eta.alpha:0.2}") double etaAlpha,
+                              @Value("${smartqueue.eta.min-samples:5}") int etaMinSamples,
+                              @Value("${smartqueue.eta.max-gap-minutes:60}") long etaMaxGapMinutes) {
         this.database = database;
+        this.archive = archive;
+        this.settingsDatabase = settingsDatabase;
+        this.store = store;
+        this.applicationEvents = applicationEvents;
+        this.countInDatabase = countInDatabase;
+        Function<String, QueueShard> newShard = id -> new QueueShard(id, cacheMaxEntries, cacheTtlMillis,
+                new ServiceTimeEstimator(etaAlpha, etaMinSamples, Duration.ofMinutes(etaMaxGapMinutes)));
+        Map<String, QueueShard> configured = new LinkedHashMap<>();
+        configured.put(Appointment.DEFAULT_QUEUE, newShard.apply(Appointment.DEFAULT_QUEUE));
+        for (String id : queueIds) {
+            String queueId = id.trim();
+            if (!QUEUE_ID.matcher(queueId).matches()) {
+                throw new IllegalArgumentException("Invalid queue id '" + queueId + "': use 1-32 of a-z, 0-9 and '-'");
+            }
+            configured.computeIfAbsent(queueId, newShard);
+        }
+        this.shards = Collections.unmodifiableMap(configured);
+    }
+
+    /**
+     * @brief Loads every queue's settings and stored appointments into memory at startup.
+     * The database stays the system of record; the indexes are only a read-optimized copy.
+     */
+    @PostConstruct
+    public void rebuildQueue() {
+        Map<String, QueueSettings> stored = settingsDatabase.findAllById(shards.keySet()).stream()
+                .collect(Collectors.toMap(QueueSettings::getQueueId, settings -> settings));
+        shards.forEach((id, shard) -> {
+            // Queues configured for the first time start with the defaults, saved so their version and date stay fixed
+            shard.settings = stored.containsKey(id) ? stored.get(id) : store.saveSettings(shard.settings);
+        });
+        reloadQueues();
+    }
+
+    /**
+     * @brief Replaces every queue's in-memory index with what the database holds.
+     * * Used at startup, and with the broker relay whenever the connection to the broker comes
+     * back, since changes other instances made in the meantime were never received. A booking
+     * racing the reload can be missing from the slot index for a moment; the database
+     * constraints still reject a second booking of its slot.
+     */
+    public void reloadQueues() {
+        Map<String, List<Appointment>> byQueue = database.findAll().stream()
+                // Rows the date migration could not read have no date and cannot be placed in a queue,
+                // and rows the queue migration could not place (their slot was taken twice) have none
+                .filter(a -> a.date != null && a.queueId != null)
+                .collect(Collectors.groupingBy(a -> a.queueId));
+        byQueue.keySet().stream()
+                .filter(id -> !shards.containsKey(id))
+                .forEach(id -> log.warn("Ignoring appointments of queue '{}', which is not in smartqueue.queues", id));
+        shards.forEach((id, shard) -> {
+            List<Appointment> appointments = byQueue.getOrDefault(id, List.of());
+            shard.queue.rebuild(appointments);
+            shard.slots.rebuild(appointments);
+            shard.invalidateReads();
+        });
+    }
+
+    /**
+     * @brief Applies a change another instance already saved to this instance's in-memory index.
+     * * Used with the broker relay. Applying the same change twice does nothing the second time,
+     * so a change that was also picked up by {@link #reloadQueues()} is harmless.
+     * @param event The event the other instance published for the change.
+     */
+    public void applyRemote(QueueEvent event) {
+        QueueShard shard = shards.get(event.queue());
+        if (shard == null) return; // Not served by this instance
+        switch (event.type()) {
+            case APPOINTMENT_ADDED -> holdRemote(shard, event.id(), event.name(), event.date(), event.hour());
+            case APPOINTMENTS_ADDED -> event.appointments().forEach(e -> holdRemote(shard, e.id(), e.name(), e.date(), e.hour()));
+            case APPOINTMENT_REMOVED -> dropRemote(shard, event.id());
+            case APPOINTMENT_SERVED -> {
+                // Serves at every desk, on any instance, feed the queue's service times
+                if (dropRemote(shard, event.id())) shard.serviceTimes.served(LocalDateTime.now());
+            }
+            case APPOINTMENTS_REMOVED -> event.appointments().forEach(e -> dropRemote(shard, e.id()));
+            case HOURS_CHANGED -> {
+                return; // The settings are reloaded from the database by reloadSettings
+            }
+        }
+        shard.invalidateReads();
+    }
+
+    private static void holdRemote(QueueShard shard, String id, String name, LocalDate date, int hour) {
+        if (shard.queue.get(id) != null) return;
+        Appointment a = new Appointment(shard.getId(), name, date, hour);
+        a.id = id;
+        shard.slots.hold(date, hour, name);
+        shard.queue.add(a);
+    }
+
+    /** @return True if the appointment was still in the index. */
+    private static boolean dropRemote(QueueShard shard, String id) {
+        Appointment removed = shard.queue.remove(id);
+        if (removed == null) return false;
+        shard.slots.release(removed.date, removed.hour, removed.name);
+        return true;
     }
 
     /**
-     * @brief Adds a new appointment to the database.
-     * @param a The Appointment object to save.
+     * @brief Drops a booking the database refused after it was acknowledged (journal mode).
+     * * Keeps the in-memory queue in line with the database, which is what the queue is rebuilt
+     * from on the next start.
+     * @param queueId The queue the appointment was booked in.
+     * @param id The UUID of the appointment.
+     * @return The dropped Appointment, or null if it had already left the queue.
+     */
+    public Appointment dropRejected(String queueId, String id) {
+        QueueShard shard = shards.get(queueId);
+        Appointment removed = shard == null ? null : shard.queue.remove(id);
+        if (removed == null) return null;
+        shard.slots.release(removed.date, removed.hour, removed.name);
+        shard.invalidateReads();
+        return removed;
+    }
+
+    /**
+     * @brief Gets the caches in front of a queue's database counts, for metrics.
+     * @param queueId The queue to check.
+     * @return The wait-count cache and the position cache, by name.
+     */
+    public Map<String, ReadCache<?, Integer>> getReadCaches(String queueId) {
+        QueueShard shard = shard(queueId);
+        return Map.of("wait-count", shard.waitCounts, "position", shard.positions);
+    }
+
+    /** @return The ids of every queue this instance serves. */
+    public Set<String> getQueueIds() {
+        return shards.keySet();
+    }
+
+    /**
+     * @brief Checks whether a queue exists.
+     * @param queueId The queue id, possibly null.
+     * @return True if the queue is configured.
+     */
+    public boolean hasQueue(String queueId) {
+        return queueId != null && shards.containsKey(queueId);
+    }
+
+    /** @throws UnknownQueueException if the queue is not configured. */
+    private QueueShard shard(String queueId) {
+        QueueShard shard = queueId == null ? null : shards.get(queueId);
+        if (shard == null) throw new UnknownQueueException(queueId);
+        return shard;
+    }
+
+    /**
+     * @brief Reserves the appointment's slot and, if successful, adds it to the database.
+     * * The slot check and the reservation happen in one atomic step, so two concurrent
+     * bookings for the same slot (or the same customer on the same day) cannot both pass.
+     * @param a The Appointment object to save, in the queue named by its queueId.
+     * @return {@link SlotIndex.Result#RESERVED} if saved, otherwise why it was rejected.
      */
-    public void add(Appointment a) {
-        // Saves to the underlying database (e.g., H2 file/memory database)
-        database.save(a); 
+    public SlotIndex.Result add(Appointment a) {
+        QueueShard shard = shard(a.queueId);
+        SlotIndex.Result result = shard.slots.reserve(a.date, a.hour, a.name);
+        if (result != SlotIndex.Result.RESERVED) return result;
+        return persistReserved(shard, a);
     }
 
     /**
-     * @brief Retrieves all scheduled appointments in chronological order.
+     * @brief Reserves and saves a batch of appointments, returning an outcome for each.
+     * * Every slot is reserved up front, so conflicts inside the batch are caught the same way as
+     * conflicts with existing bookings. The reserved appointments are then saved in a single
+     * transaction, which Hibernate sends as JDBC batch inserts. If the database rejects that
+     * transaction because another writer took one of the slots, the batch falls back to saving
+     * the appointments one at a time so only the conflicting ones are rejected.
+     * @param batch The appointments to save, each in the queue named by its queueId.
+     * @return One result per appointment, in the same order as the batch.
+     */
+    public List<SlotIndex.Result> addAll(List<Appointment> batch) {
+        List<SlotIndex.Result> results = new ArrayList<>(batch.size());
+        List<Appointment> reserved = new ArrayList<>(batch.size());
+        for (Appointment a : batch) {
+            SlotIndex.Result result = shard(a.queueId).slots.reserve(a.date, a.hour, a.name);
+            results.add(result);
+            if (result == SlotIndex.Result.RESERVED) reserved.add(a);
+        }
+        if (reserved.isEmpty()) return results;
+
+        try {
+            store.saveAll(reserved);
+        } catch (DataIntegrityViolationException ex) {
+            // The whole transaction was rolled back; retry each one to find the conflicts
+            for (int i = 0; i < batch.size(); i++) {
+                if (results.get(i) == SlotIndex.Result.RESERVED) {
+                    Appointment a = batch.get(i);
+                    results.set(i, persistReserved(shard(a.queueId), a));
+                }
+            }
+            return results;
+        } catch (RuntimeException ex) {
+            reserved.forEach(a -> shard(a.queueId).slots.release(a.date, a.hour, a.name));
+            throw ex;
+        }
+        reserved.forEach(a -> shard(a.queueId).queue.add(a));
+        reserved.stream().map(a -> a.queueId).distinct().forEach(id -> shard(id).invalidateReads());
+        return results;
+    }
+
+    /** @brief Saves an appointment whose slot is already reserved, releasing the slot if the save fails. */
+    private SlotIndex.Result persistReserved(QueueShard shard, Appointment a) {
+        try {
+            // Makes it durable first (the H2 database, or the journal in front of it), then updates the index
+            store.save(a);
+        } catch (DataIntegrityViolationException ex) {
+            // Another writer got there first; the unique constraints are the final word
+            shard.slots.release(a.date, a.hour, a.name);
+            String cause = String.valueOf(ex.getMostSpecificCause().getMessage()).toUpperCase();
+            return cause.contains(Appointment.CUSTOMER_DAY_CONSTRAINT.toUpperCase()) ? SlotIndex.Result.NAME_TAKEN : SlotIndex.Result.SLOT_TAKEN;
+        } catch (RuntimeException ex) {
+            shard.slots.release(a.date, a.hour, a.name);
+            throw ex;
+        }
+        shard.queue.add(a);
+        shard.invalidateReads();
+        return SlotIndex.Result.RESERVED;
+    }
+
+    /**
+     * @brief Retrieves all scheduled appointments of a queue in chronological order.
+     * @param queueId The queue to list.
      * @return A sorted List of Appointments.
      */
-    public List<Appointment> getAll() {
-        // Retrieves the sorted list directly using our custom JPA repository method
-        return database.findAllByOrderByDateAscHourAsc();
+    public List<Appointment> getAll(String queueId) {
+        // Served from the in-memory index, which is already kept in (date, hour) order
+        return shard(queueId).queue.snapshot();
+    }
+
+    /**
+     * @brief Retrieves one page of a queue's appointments in chronological order.
+     * @param queueId The queue to list.
+     * @param after Cursor returned with the previous page, or null for the first page.
+     * @param from First date to include, or null for no lower bound.
+     * @param to Last date to include, or null for no upper bound.
+     * @param limit Maximum number of appointments in the page.
+     * @return The page and the cursor of the next one, if any.
+     */
+    public QueueIndex.Page getPage(String queueId, QueueCursor after, LocalDate from, LocalDate to, int limit) {
+        // Served from the in-memory index, like getAll, but only the requested slice is copied
+        return shard(queueId).queue.page(after, from, to, limit);
+    }
+
+    /**
+     * @brief Looks up a waiting appointment by its UUID.
+     * @param queueId The queue the appointment was booked in.
+     * @param id The UUID of the appointment.
+     * @return The Appointment, or null if it was canceled, served, or never existed in that queue.
+     */
+    public Appointment getAppointment(String queueId, String id) {
+        return shard(queueId).queue.get(id);
     }
 
     /**
      * @brief Removes a specific appointment by its UUID.
+     * @param queueId The queue the appointment was booked in.
      * @param id The UUID of the appointment to cancel.
-     * @return True if the appointment was found and removed, false otherwise.
+     * @return The removed Appointment, or null if no matching appointment was found.
+     */
+    public Appointment removeSpecific(String queueId, String id) {
+        QueueShard shard = shard(queueId);
+        // The index only holds appointments that exist in the database, so it doubles as the existence check.
+        // Removing from the index first means a concurrent serve can no longer pop this appointment.
+        Appointment removed = shard.queue.remove(id);
+        if (removed == null) return null;
+        boolean claimed = store.claim(id) == 1;
+        shard.slots.release(removed.date, removed.hour, removed.name);
+        shard.invalidateReads();
+        return claimed ? removed : null;
+    }
+
+    /**
+     * @brief Removes several appointments by their UUIDs, claiming them in one database round trip.
+     * @param queueId The queue the appointments were booked in.
+     * @param ids The UUIDs of the appointments to cancel.
+     * @return For each id, in order, the removed Appointment, or null if no matching appointment was found.
+     */
+    public List<Appointment> removeAll(String queueId, List<String> ids) {
+        QueueShard shard = shard(queueId);
+        // Same order of steps as removeSpecific, with the claims sent as one batch
+        List<Appointment> removed = new ArrayList<>(ids.size());
+        List<String> claimIds = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Appointment a = id == null ? null : shard.queue.remove(id);
+            removed.add(a);
+            if (a != null) claimIds.add(id);
+        }
+        if (claimIds.isEmpty()) return removed;
+
+        int[] claimed = store.claimAll(claimIds);
+        shard.invalidateReads();
+        int c = 0;
+        for (int i = 0; i < removed.size(); i++) {
+            Appointment a = removed.get(i);
+            if (a == null) continue;
+            shard.slots.release(a.date, a.hour, a.name);
+            if (claimed[c++] == 0) removed.set(i, null);
+        }
+        return removed;
+    }
+
+    /**
+     * @brief Moves past-day appointments to the archive through the {@link QueueStore}.
+     * * An appointment leaves the queue index first, as in removeAll, so a concurrent serve or
+     * cancel either gets it or finds it gone. If the store then fails, nothing was moved and the
+     * appointments are put back; the slot index and cached counts only change once the store
+     * has made the move durable. With count-in-database the index only holds this instance's
+     * bookings, so for the others the store's claim alone decides.
+     * @param batch Appointments read from the live table, possibly from several queues.
+     * @return The appointments this call archived, in batch order.
      */
-    public boolean removeSpecific(String id) {
-        // Built-in JPA method to check if the ID exists to prevent errors
-        if (database.existsById(id)) {
-            database.deleteById(id); // Built-in JPA deletion
-            return true;
+    public List<Appointment> archive(List<Appointment> batch) {
+        List<Appointment> candidates = new ArrayList<>(batch.size());
+        Set<Appointment> unindexed = new HashSet<>();
+        for (Appointment a : batch) {
+            QueueShard shard = shards.get(a.queueId);
+            Appointment removed = shard == null ? null : shard.queue.remove(a.id);
+            if (removed != null) {
+                candidates.add(removed);
+            } else if (countInDatabase) {
+                candidates.add(a);
+                unindexed.add(a);
+            }
+            // Otherwise a serve or cancel got there first, even if the database has not seen it yet
         }
-        return false;
+        if (candidates.isEmpty()) return candidates;
+
+        int[] archived;
+        try {
+            archived = store.archiveAll(candidates, Instant.now());
+        } catch (RuntimeException ex) {
+            // Rolled back: the rows are still live, so the queue must keep them
+            candidates.stream().filter(a -> !unindexed.contains(a)).forEach(a -> shards.get(a.queueId).queue.add(a));
+            throw ex;
+        }
+        List<Appointment> moved = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            Appointment a = candidates.get(i);
+            if (!unindexed.contains(a)) shards.get(a.queueId).slots.release(a.date, a.hour, a.name);
+            if (archived[i] == 1) moved.add(a);
+        }
+        // The rows left the live table, which is what the cached counts were read from
+        candidates.stream().map(a -> a.queueId).distinct().map(shards::get)
+                .filter(shard -> shard != null).forEach(QueueShard::invalidateReads);
+        return moved;
     }
 
     /**
-     * @brief Removes the next appointment in the queue and returns it (used by employees).
+     * @brief Removes the next appointment in a queue and returns it (used by employees).
+     * * Safe to call from many serving desks at once: popping the head of the index is atomic,
+     * so each caller receives a different appointment, and the claim in
+     * {@link QueueStore#claim(String)} guarantees the row is only served once even
+     * if something else removed it from the database in the meantime.
+     * @param queueId The queue to serve.
      * @return The next Appointment to be served, or null if the queue is empty.
      */
-    public Appointment removeNext() {
-        List<Appointment> all = getAll();
-        if (all.isEmpty()) return null;
-        
-        // Grab the first person, delete them from the database, and return their data
-        Appointment next = all.get(0);
-        database.delete(next);
-        return next;
+    public Appointment removeNext(String queueId) {
+        QueueShard shard = shard(queueId);
+        while (true) {
+            // Grab the first person from the index, claim them in the database, and return their data
+            Appointment next = shard.queue.pollFirst();
+            if (next == null) return null;
+            boolean claimed = store.claim(next.id) == 1;
+            shard.slots.release(next.date, next.hour, next.name);
+            shard.invalidateReads();
+            if (claimed) {
+                shard.serviceTimes.served(LocalDateTime.now());
+                return next;
+            }
+            // The row was already deleted behind our back; skip it and try the new head
+        }
     }
 
     /**
      * @brief Calculates how many people are ahead of a specific time slot on a given date.
+     * @param queueId The queue to check.
      * @param date The date to check.
      * @param hour The hour to check.
-     * @return The number of appointments scheduled before the given hour on the given date.
-     */
-    public int getWaitCount(String date, int hour) {
-        int waitCount = 0;
-        List<Appointment> all = getAll();
-        
-        // Iterate through all appointments and count those on the same day but earlier in the day
-        for (Appointment a : all) {
-            if (a.date.equals(date) && a.hour < hour) {
-                waitCount++;
-            }
+     * @return The number of appointments in the queue scheduled before the given hour on the given date.
+     */
+    public int getWaitCount(String queueId, LocalDate date, int hour) {
+        QueueShard shard = shard(queueId);
+        if (countInDatabase) {
+            // A single index range count; no appointment rows leave the database. Repeat polls
+            // for the same slot are answered from the cache until the queue changes.
+            return shard.waitCounts.get(new QueueShard.Slot(date, hour),
+                    () -> (int) database.countByQueueIdAndDateAndHourLessThan(queueId, date, hour));
         }
-        return waitCount;
+        // Rank difference in the skip list: O(log n) instead of a scan of every appointment
+        return shard.queue.countEarlierSameDay(date, hour);
+    }
+
+    /**
+     * @brief Counts every appointment scheduled on a given date.
+     * @param queueId The queue to check.
+     * @param date The date to check.
+     * @return The number of appointments in the queue on that date.
+     */
+    public int getDayDepth(String queueId, LocalDate date) {
+        return shard(queueId).queue.countEarlierSameDay(date, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @brief Finds the bookable hours of a day that nobody holds yet.
+     * * Read from the slot index bookings are reserved in, which every booking, cancellation,
+     * serve and archive run keeps up to date, so this is one map lookup. Business hours come
+     * from the given snapshot, so changed hours apply from the next call without any rebuild.
+     * With count-in-database, bookings made through other instances are not in the index, so
+     * an hour shown as free can still turn out to be taken when booked.
+     * @param queueId The queue to check.
+     * @param settings The queue's settings snapshot, shared by every day of one request.
+     * @param date The date to check.
+     * @return A bitmap where bit n is set if hour n is within business hours and still free.
+     */
+    public int getFreeHours(String queueId, QueueSettings settings, LocalDate date) {
+        return settings.bookableHours() & ~shard(queueId).slots.occupiedHours(date);
     }
 
     /**
-     * @brief Finds the current position of a specific appointment in the global queue.
+     * @brief Finds the current position of a specific appointment in its queue.
+     * @param queueId The queue the appointment was booked in.
      * @param id The UUID of the appointment.
      * @return The 0-based index position in the queue, or -1 if not found.
      */
-    public int getPosition(String id) {
-        List<Appointment> all = getAll();
-        for (int i = 0; i < all.size(); i++) {
-            Appointment a = all.get(i);
-            // Look for the exact UUID match instead of checking name, date, and hour
-            // This is safer and guarantees we find the exact right person.
-            if (a.id.equals(id)) {
-                return i;
-            }
+    public int getPosition(String queueId, String id) {
+        QueueShard shard = shard(queueId);
+        if (countInDatabase) {
+            // Primary-key lookup plus two index range counts, in one round trip; cached like wait counts
+            return shard.positions.get(id, () -> database.countAhead(queueId, id).map(Long::intValue).orElse(-1));
         }
-        return -1; // Appointment was likely canceled or already served
+        // Looked up by exact UUID through the hash index, then ranked in the skip list.
+        // Returns -1 if the appointment was likely canceled or already served.
+        return shard.queue.positionOf(id);
     }
 
     /**
-     * @brief Gets the currently configured appointment duration.
-     * @return Duration in minutes.
+     * @brief Estimates how long the people ahead of a slot will take to serve.
+     * * Uses the service time observed at that hour of the day, or the configured duration
+     * while too few serves have been seen at that hour. O(1); no history is read.
+     * @param queueId The queue to estimate for.
+     * @param waitCount The number of people ahead.
+     * @param hour The hour of the slot (0-23).
+     * @return The estimated wait in whole minutes.
      */
-    public int getDuration() {
-        return appointmentDurationMinutes;
+    public int estimateWaitMinutes(String queueId, int waitCount, int hour) {
+        QueueShard shard = shard(queueId);
+        double perAppointment = shard.serviceTimes.minutesPerAppointment(hour, shard.settings.getDurationMinutes());
+        return (int) Math.round(waitCount * perAppointment);
     }
 
     /**
@@ -127,65 +554,166 @@ public class AppointmentService {
      *
      * The wait count is computed in the same way the customer-facing API does – by
      * counting how many slots occur earlier on the same day – and then multiplied by
-     * the current duration to give a minute-based estimate. The frontend will use this
+     * the service time estimated for that hour to give a minute-based estimate. The frontend will use this
      * to generate CSV reports or tables.
      *
-     * @param startDate Lower bound of the date filter (format yyyy-MM-dd).
-     * @param endDate   Upper bound of the date filter (format yyyy-MM-dd).
+     * @param queueId   The queue to report on.
+     * @param startDate Lower bound of the date filter (inclusive).
+     * @param endDate   Upper bound of the date filter (inclusive).
      * @return A list of {@link WaitReportEntry} objects sorted chronologically.
      */
-    public java.util.List<WaitReportEntry> getWaitReport(String startDate, String endDate) {
-        java.util.List<WaitReportEntry> report = new java.util.ArrayList<>();
-        for (Appointment a : getAll()) {
-            // String comparison works for ISO-8601 date format
-            if (a.date.compareTo(startDate) >= 0 && a.date.compareTo(endDate) <= 0) {
-                int waitCount = getWaitCount(a.date, a.hour);
-                int waitMinutes = waitCount * appointmentDurationMinutes;
-                report.add(new WaitReportEntry(a.date, a.hour, waitCount, waitMinutes));
-            }
-        }
+    @Transactional(readOnly = true)
+    public List<WaitReportEntry> getWaitReport(String queueId, LocalDate startDate, LocalDate endDate) {
+        List<WaitReportEntry> report = new ArrayList<>();
+        streamWaitReport(queueId, startDate, endDate, report::add);
         return report;
     }
 
     /**
-     * @brief Sets the expected appointment duration.
-     * @param duration The new duration in minutes.
+     * @brief Streams wait-time entries for an inclusive date range to a consumer, one row at a time.
+     *
+     * The date filter is pushed down to the database, which returns rows already sorted by
+     * (date, hour). Days that have passed are read from the archive table, merged in order with
+     * any live rows the archiver has not moved yet; ranges entirely in the future skip the
+     * archive. Wait counts then fall out of a single pass: a running count of rows seen
+     * so far on the current day, captured whenever the hour changes. Nothing but the current
+     * row is held in memory, so this is safe for month-long (or longer) ranges.
+     *
+     * @param queueId   The queue to report on.
+     * @param startDate Lower bound of the date filter (inclusive).
+     * @param endDate   Upper bound of the date filter (inclusive).
+     * @param sink      Receives each {@link WaitReportEntry} in chronological order.
      */
-    public void setDuration(int duration) {
-        this.appointmentDurationMinutes = duration;
+    @Transactional(readOnly = true)
+    public void streamWaitReport(String queueId, LocalDate startDate, LocalDate endDate, Consumer<WaitReportEntry> sink) {
+        QueueShard shard = shard(queueId);
+        // One estimate per hour of the day, read once, so every row of the report uses the same figures
+        int configured = shard.settings.getDurationMinutes();
+        double[] minutesPerAppointment = new double[24];
+        for (int h = 0; h < 24; h++) {
+            minutesPerAppointment[h] = shard.serviceTimes.minutesPerAppointment(h, configured);
+        }
+        boolean includesPast = startDate.isBefore(LocalDate.now());
+        try (Stream<AppointmentDatabase.Slot> live = database.streamSlotsBetween(queueId, startDate, endDate);
+             Stream<AppointmentDatabase.Slot> archived = includesPast
+                     ? archive.streamSlotsBetween(queueId, startDate, endDate)
+                     : Stream.empty()) {
+            Iterator<AppointmentDatabase.Slot> rows = mergeInOrder(archived.iterator(), live.iterator());
+            LocalDate currentDate = null;
+            int currentHour = Integer.MIN_VALUE;
+            int seenToday = 0;   // rows already emitted for currentDate
+            int waitCount = 0;   // rows on currentDate with an hour earlier than currentHour
+
+            while (rows.hasNext()) {
+                AppointmentDatabase.Slot row = rows.next();
+                if (!row.date().equals(currentDate)) {
+                    // New day: the running counts start over
+                    currentDate = row.date();
+                    currentHour = Integer.MIN_VALUE;
+                    seenToday = 0;
+                }
+                if (row.hour() != currentHour) {
+                    // Everyone seen so far today is strictly earlier than this hour
+                    currentHour = row.hour();
+                    waitCount = seenToday;
+                }
+                int waitMinutes = (int) Math.round(waitCount * minutesPerAppointment[currentHour]);
+                sink.accept(new WaitReportEntry(currentDate, currentHour, waitCount, waitMinutes));
+                seenToday++;
+            }
+        }
     }
 
-    // --- Dynamic Service Hours Getters and Setters ---
+    /** @brief Chronological order of report rows, matching the ORDER BY of both slot queries. */
+    private static final Comparator<AppointmentDatabase.Slot> SLOT_ORDER =
+            Comparator.comparing(AppointmentDatabase.Slot::date).thenComparingInt(AppointmentDatabase.Slot::hour);
 
     /**
-     * @brief Gets the currently configured opening hour.
-     * @return The opening hour in 24h format.
+     * @brief Merges two chronologically sorted row iterators into one, without buffering either.
+     * A day can be split between the tables while the archiver is part-way through it.
      */
-    public int getOpenHour() { 
-        return openHour; 
+    private static Iterator<AppointmentDatabase.Slot> mergeInOrder(Iterator<AppointmentDatabase.Slot> a,
+                                                                   Iterator<AppointmentDatabase.Slot> b) {
+        return new Iterator<>() {
+            private AppointmentDatabase.Slot nextA = a.hasNext() ? a.next() : null;
+            private AppointmentDatabase.Slot nextB = b.hasNext() ? b.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return nextA != null || nextB != null;
+            }
+
+            @Override
+            public AppointmentDatabase.Slot next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                AppointmentDatabase.Slot row;
+                if (nextB == null || (nextA != null && SLOT_ORDER.compare(nextA, nextB) <= 0)) {
+                    row = nextA;
+                    nextA = a.hasNext() ? a.next() : null;
+                } else {
+                    row = nextB;
+                    nextB = b.hasNext() ? b.next() : null;
+                }
+                return row;
+            }
+        };
     }
 
     /**
-     * @brief Sets the daily opening hour for the business.
-     * @param openHour The new opening hour to set (0-23).
+     * @brief Gets the current settings of a queue: its business hours and appointment duration.
+     * * Lock-free; the returned snapshot never changes, so its open and close hours always belong together.
+     * @param queueId The queue to check.
+     * @return The current settings snapshot.
      */
-    public void setOpenHour(int openHour) { 
-        this.openHour = openHour; 
+    public QueueSettings getSettings(String queueId) {
+        return shard(queueId).settings;
     }
 
     /**
-     * @brief Gets the currently configured closing hour.
-     * @return The closing hour in 24h format.
+     * @brief Sets the expected appointment duration of a queue.
+     * * The new settings are saved before they are used, so they survive a restart.
+     * @param queueId The queue to configure.
+     * @param duration The new duration in minutes.
      */
-    public int getCloseHour() { 
-        return closeHour; 
+    public void setDuration(String queueId, int duration) {
+        QueueShard shard = shard(queueId);
+        QueueSettings saved;
+        synchronized (shard) {
+            saved = store.saveSettings(shard.settings.withDuration(duration));
+            shard.settings = saved;
+        }
+        // The snapshot saved here, not shard.settings, which a later change may already have replaced
+        applicationEvents.publishEvent(saved);
     }
 
     /**
-     * @brief Sets the daily closing hour for the business.
+     * @brief Sets the daily business hours of a queue.
+     * * Both hours are swapped in together, so a concurrent booking sees either the old or the
+     * new pair. The new settings are saved before they are used, so they survive a restart.
+     * @param queueId The queue to configure.
+     * @param openHour The new opening hour to set (0-23).
      * @param closeHour The new closing hour to set (1-24).
      */
-    public void setCloseHour(int closeHour) { 
-        this.closeHour = closeHour; 
+    public void setHours(String queueId, int openHour, int closeHour) {
+        QueueShard shard = shard(queueId);
+        QueueSettings saved;
+        synchronized (shard) {
+            saved = store.saveSettings(shard.settings.withHours(openHour, closeHour));
+            shard.settings = saved;
+        }
+        // The snapshot saved here, not shard.settings, which a later change may already have replaced
+        applicationEvents.publishEvent(saved);
+    }
+
+    /**
+     * @brief Takes a queue's settings from the database, after another instance changed them.
+     * @param queueId The queue to reload.
+     */
+    public void reloadSettings(String queueId) {
+        QueueShard shard = shard(queueId);
+        synchronized (shard) {
+            // Read under the lock, so a change made here at the same time is not overwritten by an older row
+            settingsDatabase.findById(queueId).ifPresent(stored -> shard.settings = stored);
+        }
     }
-}
\ No newline at end of file
+}
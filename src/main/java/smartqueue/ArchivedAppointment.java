@@ -0,0 +1,80 @@
+package smartqueue;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * @brief Entity class for an appointment whose day has passed.
+ * * Rows are moved here from the live appointment table by {@link AppointmentArchiver} and are
+ * never updated afterwards. Keeping them apart keeps the live queue small, while historical
+ * wait reports read them through their own (queue, date, hour) index.
+ */
+@Entity
+@Table(name = "appointment_archive", indexes = {
+    @Index(name = "idx_appointment_archive_queue_day_hour", columnList = "queue_id, appointment_day, appointment_hour")
+})
+public class ArchivedAppointment implements Persistable<String> {
+
+    /** @brief The UUID the appointment had while it was live. */
+    @Id
+    public String id;
+
+    /** @brief The queue the appointment was booked in. */
+    @Column(name = "queue_id")
+    public String queueId;
+
+    /** @brief The name of the customer. */
+    public String name;
+
+    /** @brief The scheduled date. */
+    @Column(name = "appointment_day")
+    public LocalDate date;
+
+    /** @brief The scheduled hour (24-hour format). */
+    @Column(name = "appointment_hour")
+    public int hour;
+
+    /** @brief When the appointment was moved to the archive. */
+    @Column(name = "archived_at")
+    public Instant archivedAt;
+
+    /** @brief True until saved; lets save() insert directly instead of first looking the id up. */
+    @Transient
+    private boolean isNew;
+
+    /**
+     * @brief Default constructor.
+     * REQUIRED for JPA to instantiate the entity from the database.
+     */
+    public ArchivedAppointment() {}
+
+    /**
+     * @brief Creates the archive copy of a live appointment.
+     * @param a The appointment being archived.
+     * @param archivedAt The time of archival.
+     */
+    public ArchivedAppointment(Appointment a, Instant archivedAt) {
+        this.id = a.id;
+        this.queueId = a.queueId;
+        this.name = a.name;
+        this.date = a.date;
+        this.hour = a.hour;
+        this.archivedAt = archivedAt;
+        this.isNew = true;
+    }
+
+    /** @return The UUID of the appointment. */
+    @Override
+    public String getId() { return id; }
+
+    /** @return True for a copy that has not been inserted yet (archive rows are never updated). */
+    @Override
+    public boolean isNew() { return isNew; }
+}
@@ -0,0 +1,20 @@
+package smartqueue;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * The free hours of a queue over a range of dates, returned by /api/customer/availability.
+ *
+ * Each bookable day (a weekday between today and a year ahead) maps to a bitmap of its free
+ * hours: bit n is set if an appointment can still be booked at hour n. Days that cannot be
+ * booked at all are left out. The business hours the bitmaps were computed with are included
+ * so clients can draw the full day, with the taken hours greyed out.
+ */
+public record Availability(
+        String queue,
+        int openHour,
+        int closeHour,
+        Map<LocalDate, Integer> freeHours
+) {
+}
@@ -0,0 +1,29 @@
+package smartqueue;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The outcome of one item in a bulk booking or bulk cancel request.
+ *
+ * Results are returned in the same order as the request items; index is the item's
+ * position in the request. A successful item carries the booked or canceled appointment,
+ * a failed one the same error message the single-item endpoint would have returned.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkItemResult(
+        int index,
+        boolean ok,
+        Appointment appointment,
+        String error
+) {
+
+    /** Creates the result of an item that succeeded. */
+    public static BulkItemResult ok(int index, Appointment appointment) {
+        return new BulkItemResult(index, true, appointment, null);
+    }
+
+    /** Creates the result of an item that was rejected. */
+    public static BulkItemResult rejected(int index, String error) {
+        return new BulkItemResult(index, false, null, error);
+    }
+}
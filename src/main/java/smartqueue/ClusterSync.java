@@ -0,0 +1,291 @@
+package smartqueue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Keeps the in-memory queues of several instances in step through the broker relay.
+ * * Every instance answers reads from its own in-memory index, so a change saved by one instance
+ * must reach the others. Each change an instance makes is sent, with its sequence number and
+ * customer details, to /topic/cluster/{queue} on the external broker. Every other instance
+ * receives it on the relay's system connection, applies it to its index
+ * ({@link AppointmentService#applyRemote(QueueEvent)}) and adds it to its event history, which
+ * also wakes its {@link PositionNotifier}: a serve on one instance moves the customers watching
+ * from any instance within one broker hop and one broadcast window. Pages streaming from this
+ * instance over Server-Sent Events get the change from it too ({@link QueueEventStream#replayed(QueueEvent)}),
+ * since only STOMP sessions subscribe to the broker. Settings changes are sent as
+ * a bare notice, and the receivers read the new settings from the database.
+ * * The dashboards' own updates need no forwarding: they already travel through the broker to
+ * every instance's browsers. Changes made while the broker was unreachable are never received,
+ * so every (re)connection to the broker reloads the queues from the database.
+ * * Changes from different instances can arrive out of order: a booking made on one instance and
+ * its cancel made on another may reach a third instance cancel first. Every instance therefore
+ * remembers the appointments removed in the last {@link #REMOVAL_MEMORY_MILLIS} with the number
+ * of the removing event, and does not add back an appointment whose removal it has already seen
+ * with a later number. Such a booking still goes into the event history, which orders events by
+ * number, so dashboards see it followed by its removal.
+ */
+@Component
+@ConditionalOnProperty(name = "smartqueue.broker.mode", havingValue = "relay")
+public class ClusterSync implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterSync.class);
+
+    /** @brief Prefix of the topics instances exchange changes on; browsers may not subscribe to them. */
+    public static final String CLUSTER_TOPIC_PREFIX = "/topic/cluster/";
+
+    /** @brief Gives the relay time to subscribe to the cluster topics before a reload reads the database. */
+    private static final long RELOAD_DELAY_MILLIS = 200;
+
+    /** @brief How long a removal is remembered; far longer than a change takes to cross the broker. */
+    private static final long REMOVAL_MEMORY_MILLIS = 60_000;
+
+    /**
+     * @brief One change, as sent between instances.
+     * @param node The instance that made the change.
+     * @param queue The queue it changed.
+     * @param event The full (not redacted) event, or null if the queue's settings changed.
+     */
+    record Change(String node, String queue, QueueEvent event) {}
+
+    /**
+     * @brief A removal seen by this instance.
+     * @param seq Number of the event that removed the appointment.
+     * @param seenAt When it was seen, in System.currentTimeMillis() time.
+     */
+    private record Removal(long seq, long seenAt) {}
+
+    private final AppointmentService appointmentService;
+    private final QueueEventPublisher queueEvents;
+    private final PositionNotifier positionNotifier;
+    private final QueueBroadcaster broadcaster;
+    private final QueueEventStream eventStream;
+    private final ApplicationContext context;
+    private final ObjectMapper objectMapper;
+
+    /** @brief This instance's id, so it can ignore its own changes coming back from the broker. */
+    private final String nodeId;
+
+    /** @brief True on the thread applying a change from another instance, so it is not sent back out. */
+    private final ThreadLocal<Boolean> applyingRemote = ThreadLocal.withInitial(() -> false);
+
+    /** @brief Removed appointment ids, oldest first, pruned after {@link #REMOVAL_MEMORY_MILLIS}; guarded by itself. */
+    private final LinkedHashMap<String, Removal> removals = new LinkedHashMap<>();
+
+    /**
+     * @brief Applies the changes of other instances one at a time, in the order they arrive, and
+     * runs the reloads after a broker (re)connect. Keeps database reads off the relay's network threads.
+     */
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cluster-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param appointmentService Applies the changes of other instances.
+     * @param queueEvents Adds the events of other instances to this instance's history.
+     * @param positionNotifier Re-checks watchers after another instance changed a queue's settings.
+     * @param broadcaster Sends this instance's changes to the broker.
+     * @param eventStream Passes the changes of other instances on to this instance's Server-Sent Events pages.
+     * @param context Source of the relay handler, which is created after this component.
+     * @param objectMapper Reads the changes of other instances.
+     * @param nodeId This instance's id (smartqueue.cluster.node-id); random if empty.
+     * @param persistence Must not be 'journal': the database trails the journal, so other instances would read stale rows.
+     */
+    public ClusterSync(AppointmentService appointmentService, QueueEventPublisher queueEvents,
+                       PositionNotifier positionNotifier, QueueBroadcaster broadcaster,
+                       QueueEventStream eventStream, ApplicationContext context, ObjectMapper objectMapper,
+                       @Value("${smartqueue.cluster.node-id:}") String nodeId,
+                       @Value("${smartqueue.persistence:database}") String persistence) {
+        if (persistence.equals("journal")) {
+            throw new IllegalStateException("smartqueue.broker.mode=relay cannot be combined with smartqueue.persistence=journal");
+        }
+        this.appointmentService = appointmentService;
+        this.queueEvents = queueEvents;
+        this.positionNotifier = positionNotifier;
+        this.broadcaster = broadcaster;
+        this.eventStream = eventStream;
+        this.context = context;
+        this.objectMapper = objectMapper;
+        this.nodeId = nodeId.isEmpty() ? UUID.randomUUID().toString() : nodeId;
+    }
+
+    /**
+     * @param queueId The queue id.
+     * @return The topic the queue's changes are exchanged on, e.g. /topic/cluster/main.
+     */
+    public static String clusterTopic(String queueId) {
+        return CLUSTER_TOPIC_PREFIX + queueId;
+    }
+
+    /** @brief Subscribes the relay's system connection to every queue's cluster topic, before the relay starts. */
+    @Override
+    public void afterSingletonsInstantiated() {
+        StompBrokerRelayMessageHandler relay =
+                context.getBean("stompBrokerRelayMessageHandler", StompBrokerRelayMessageHandler.class);
+        MessageHandler receiver = this::receive;
+        Map<String, MessageHandler> subscriptions = new LinkedHashMap<>();
+        appointmentService.getQueueIds().forEach(id -> subscriptions.put(clusterTopic(id), receiver));
+        relay.setSystemSubscriptions(subscriptions);
+        // Each history starts at the shared number now, so every change that arrives from here on is kept
+        appointmentService.getQueueIds().forEach(queueEvents::currentSeq);
+        log.info("Cluster node {} exchanging changes for queues {}", nodeId, appointmentService.getQueueIds());
+    }
+
+    /**
+     * @brief Sends a change made on this instance to the others.
+     * @param event The queue event published for the change.
+     */
+    @EventListener
+    public void onQueueEvent(QueueEvent event) {
+        if (applyingRemote.get()) return;
+        remember(event);
+        broadcaster.send(clusterTopic(event.queue()), new Change(nodeId, event.queue(), event));
+    }
+
+    /**
+     * @brief Tells the other instances that a queue's settings changed.
+     * @param settings The new settings snapshot.
+     */
+    @EventListener
+    public void onSettingsChanged(QueueSettings settings) {
+        broadcaster.send(clusterTopic(settings.getQueueId()), new Change(nodeId, settings.getQueueId(), null));
+    }
+
+    /**
+     * @brief Reloads the queues whenever the relay's system connection to the broker comes up,
+     * since changes made while it was down were never received.
+     * @param event The availability event published by the relay.
+     */
+    @EventListener
+    public void onBrokerAvailability(BrokerAvailabilityEvent event) {
+        if (!event.isBrokerAvailable()) {
+            log.warn("Lost the connection to the message broker; changes of other nodes are not received until it is back");
+            return;
+        }
+        // The relay subscribes to the cluster topics right after this event, on the same thread
+        worker.schedule(() -> {
+            appointmentService.reloadQueues();
+            appointmentService.getQueueIds().forEach(id -> {
+                appointmentService.reloadSettings(id);
+                positionNotifier.refreshAll(id);
+            });
+            log.info("Reloaded the queues after connecting to the message broker");
+        }, RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** @brief Stops the worker thread. */
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    /** @brief Hands a message received on the relay's system connection to the worker thread. */
+    private void receive(Message<?> message) {
+        worker.execute(() -> apply(message));
+    }
+
+    /** @brief Applies a change received from the broker. Runs on the worker thread. */
+    private void apply(Message<?> message) {
+        Change change;
+        try {
+            change = objectMapper.readValue((byte[]) message.getPayload(), Change.class);
+        } catch (IOException | ClassCastException ex) {
+            log.warn("Ignoring an unreadable cluster message", ex);
+            return;
+        }
+        if (nodeId.equals(change.node()) || !appointmentService.hasQueue(change.queue())) return;
+
+        applyingRemote.set(true);
+        try {
+            if (change.event() == null) {
+                appointmentService.reloadSettings(change.queue());
+                // Estimates depend on the appointment duration
+                positionNotifier.refreshAll(change.queue());
+            } else {
+                remember(change.event());
+                QueueEvent current = withoutRemoved(change.event());
+                if (current != null) appointmentService.applyRemote(current);
+                queueEvents.replay(change.event());
+                eventStream.replayed(change.event());
+            }
+        } finally {
+            applyingRemote.set(false);
+        }
+    }
+
+    /** @brief Records the appointments an event removes, and forgets removals past their time. */
+    private void remember(QueueEvent event) {
+        List<String> ids = switch (event.type()) {
+            case APPOINTMENT_REMOVED, APPOINTMENT_SERVED -> List.of(event.id());
+            case APPOINTMENTS_REMOVED -> event.appointments().stream().map(QueueEvent.Entry::id).toList();
+            default -> List.of();
+        };
+        long now = System.currentTimeMillis();
+        synchronized (removals) {
+            ids.forEach(id -> removals.put(id, new Removal(event.seq(), now)));
+            Iterator<Removal> oldest = removals.values().iterator();
+            while (oldest.hasNext() && oldest.next().seenAt() < now - REMOVAL_MEMORY_MILLIS) {
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @param event A change received from another instance.
+     * @return The event without the bookings that a later-numbered event already removed, or null
+     * if nothing of it is left to apply.
+     */
+    private QueueEvent withoutRemoved(QueueEvent event) {
+        synchronized (removals) {
+            switch (event.type()) {
+                case APPOINTMENT_ADDED -> {
+                    return removedAfter(event.id(), event.seq()) ? null : event;
+                }
+                case APPOINTMENTS_ADDED -> {
+                    List<QueueEvent.Entry> current = event.appointments().stream()
+                            .filter(e -> !removedAfter(e.id(), event.seq()))
+                            .toList();
+                    if (current.isEmpty()) return null;
+                    if (current.size() == event.appointments().size()) return event;
+                    return new QueueEvent(event.seq(), event.queue(), event.type(), null, null, event.date(),
+                            event.hour(), null, null, current);
+                }
+                default -> {
+                    return event;
+                }
+            }
+        }
+    }
+
+    /** @return True if the appointment was removed by an event numbered after the given one. Caller holds removals. */
+    private boolean removedAfter(String id, long seq) {
+        Removal removal = removals.get(id);
+        if (removal == null || removal.seq() < seq) return false;
+        log.debug("Not adding appointment {} (event {}): event {} already removed it", id, seq, removal.seq());
+        return true;
+    }
+}
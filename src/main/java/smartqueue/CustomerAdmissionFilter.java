@@ -0,0 +1,199 @@
+package smartqueue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief Admission control for the public customer API: per-client rate limits and a global concurrency cap.
+ * * Every client (remote address) gets a {@link TokenBucket} per endpoint, so a kiosk polling
+ * /position in a tight loop only exhausts its own /position allowance. Requests that change the
+ * queue (POST and DELETE: booking and cancelling) have a separate, smaller allowance from the
+ * reads (GET: position, wait time, hours) and the SockJS handshake (/ws/info).
+ * * At most max-concurrent customer requests run at once, and reads may only use part of that,
+ * so under overload the polling is shed first and bookings still get through. Staff endpoints,
+ * including serving the next customer and the staff-only bulk booking and cancelling under
+ * /api/customer, never pass through this filter, and neither does the Server-Sent Events stream,
+ * which is one long-lived request per page rather than a poll.
+ * * A refused request is answered with 429 Too Many Requests and a Retry-After header, before
+ * security or the controllers do any work, and is counted in smartqueue.admission.shed.
+ */
+@Component
+@ConditionalOnProperty(name = "smartqueue.admission.enabled", havingValue = "true", matchIfMissing = true)
+// Before the security filters, so a shed request costs as little as possible
+@Order(SecurityProperties.DEFAULT_FILTER_ORDER - 10)
+public class CustomerAdmissionFilter extends OncePerRequestFilter {
+
+    /** @brief Request classes, each with its own allowance per client and endpoint. */
+    private enum Kind {
+        /** @brief Booking and cancelling; shed last. */
+        BOOKING,
+        /** @brief Position, wait time, hours and other reads; shed first. */
+        POLLING
+    }
+
+    /** @brief Customer API paths that are not admission-controlled: staff-only bulk requests and the event stream. */
+    private static final Set<String> EXEMPT_PATHS =
+            Set.of("/api/customer/book/bulk", "/api/customer/cancel/bulk", "/api/customer/events");
+
+    /** @brief One client's allowance for one endpoint. */
+    private record BucketKey(String client, Kind kind, String path) {}
+
+    /** @brief Client and endpoint to its token bucket; emptied of full buckets when it reaches maxBuckets. */
+    private final Map<BucketKey, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /** @brief Customer requests currently running. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final double bookingPerSecond;
+    private final int bookingBurst;
+    private final double pollingPerSecond;
+    private final int pollingBurst;
+
+    /** @brief Customer requests allowed to run at once. */
+    private final int maxConcurrent;
+
+    /** @brief Of those, how many may be reads. */
+    private final int maxConcurrentPolling;
+
+    /** @brief Buckets kept before idle ones are forgotten. */
+    private final int maxBuckets;
+
+    private final Counter bookingRateLimited;
+    private final Counter pollingRateLimited;
+    private final Counter bookingOverload;
+    private final Counter pollingOverload;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param registry Registry the shed counters and in-flight gauge are published to.
+     * @param bookingPerSecond Bookings and cancels per second per client and endpoint (smartqueue.admission.booking.per-second).
+     * @param bookingBurst Bookings and cancels a client may send at once (smartqueue.admission.booking.burst).
+     * @param pollingPerSecond Reads per second per client and endpoint (smartqueue.admission.polling.per-second).
+     * @param pollingBurst Reads a client may send at once (smartqueue.admission.polling.burst).
+     * @param maxConcurrent Customer requests allowed to run at once (smartqueue.admission.max-concurrent).
+     * @param maxConcurrentPolling Of those, how many may be reads (smartqueue.admission.max-concurrent-polling).
+     * @param maxBuckets Client/endpoint buckets kept in memory (smartqueue.admission.max-clients).
+     */
+    public CustomerAdmissionFilter(MeterRegistry registry,
+                                   @Value("${smartqueue.admission.booking.per-second:1}") double bookingPerSecond,
+                                   @Value("${smartqueue.admission.booking.burst:5}") int bookingBurst,
+                                   @Value("${smartqueue.admission.polling.per-second:2}") double pollingPerSecond,
+                                   @Value("${smartqueue.admission.polling.burst:10}") int pollingBurst,
+                                   @Value("${smartqueue.admission.max-concurrent:64}") int maxConcurrent,
+                                   @Value("${smartqueue.admission.max-concurrent-polling:48}") int maxConcurrentPolling,
+                                   @Value("${smartqueue.admission.max-clients:100000}") int maxBuckets) {
+        this.bookingPerSecond = bookingPerSecond;
+        this.bookingBurst = bookingBurst;
+        this.pollingPerSecond = pollingPerSecond;
+        this.pollingBurst = pollingBurst;
+        this.maxConcurrent = maxConcurrent;
+        this.maxConcurrentPolling = Math.min(maxConcurrentPolling, maxConcurrent);
+        this.maxBuckets = maxBuckets;
+        this.bookingRateLimited = shedCounter(registry, "rate-limit", Kind.BOOKING);
+        this.pollingRateLimited = shedCounter(registry, "rate-limit", Kind.POLLING);
+        this.bookingOverload = shedCounter(registry, "overload", Kind.BOOKING);
+        this.pollingOverload = shedCounter(registry, "overload", Kind.POLLING);
+        Gauge.builder("smartqueue.admission.in-flight", inFlight, AtomicInteger::get)
+                .description("Customer API requests currently running")
+                .register(registry);
+    }
+
+    /** @return True for everything except the customer API (less {@link #EXEMPT_PATHS}) and the SockJS handshake. */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getServletPath();
+        return !(path.startsWith("/api/customer/") && !EXEMPT_PATHS.contains(path)) && !path.equals("/ws/info");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Kind kind = HttpMethod.GET.matches(request.getMethod()) ? Kind.POLLING : Kind.BOOKING;
+
+        long now = System.nanoTime();
+        long wait = bucket(new BucketKey(request.getRemoteAddr(), kind, request.getServletPath()), now).tryAcquire(now);
+        if (wait > 0) {
+            (kind == Kind.POLLING ? pollingRateLimited : bookingRateLimited).increment();
+            tooManyRequests(response, TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1);
+            return;
+        }
+
+        if (!enter(kind == Kind.POLLING ? maxConcurrentPolling : maxConcurrent)) {
+            (kind == Kind.POLLING ? pollingOverload : bookingOverload).increment();
+            tooManyRequests(response, 1);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /** @brief Takes one of the concurrency slots below a limit, without locking. */
+    private boolean enter(int limit) {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private TokenBucket bucket(BucketKey key, long now) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxBuckets) {
+            // A full bucket holds no state worth keeping; only if every client is active are limits reset
+            buckets.values().removeIf(b -> b.isFull(now));
+            if (buckets.size() >= maxBuckets) {
+                buckets.clear();
+            }
+        }
+        return buckets.computeIfAbsent(key, k -> k.kind() == Kind.POLLING
+                ? new TokenBucket(pollingPerSecond, pollingBurst, now)
+                : new TokenBucket(bookingPerSecond, bookingBurst, now));
+    }
+
+    private static void tooManyRequests(HttpServletResponse response, long retryAfterSeconds) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write("Too many requests. Please try again in " + retryAfterSeconds
+                + (retryAfterSeconds == 1 ? " second." : " seconds."));
+    }
+
+    private static Counter shedCounter(MeterRegistry registry, String reason, Kind kind) {
+        return Counter.builder("smartqueue.admission.shed")
+                .description("Customer API requests refused with 429, by reason and request kind")
+                .tag("reason", reason)
+                .tag("kind", kind.name().toLowerCase())
+                .register(registry);
+    }
+}
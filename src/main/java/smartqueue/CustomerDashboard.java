@@ -1,159 +1,427 @@
 package smartqueue;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @brief REST Controller handling all customer-facing API endpoints.
  * * Manages booking, canceling, and checking wait times/positions.
- * Uses WebSockets to broadcast updates to connected clients.
+ * Publishes queue change events over WebSockets so connected clients stay in sync.
+ * Every request applies to one queue (branch), named by a 'queue' parameter or field;
+ * requests that do not name one use the default queue.
  */
 @RestController
 @RequestMapping("/api/customer")
 public class CustomerDashboard {
 
     private final AppointmentService appointmentService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final QueueEventPublisher queueEvents;
+    private final QueueEventStream eventStream;
+    private final QueueMetrics metrics;
+
+    /** @brief Largest batch accepted by the bulk endpoints. */
+    private final int maxBulkItems;
+
+    /** @brief Longest date range accepted by /availability. */
+    private final int maxAvailabilityDays;
+
+    /**
+     * @brief Either an appointment that passed validation, or the reason a request was rejected.
+     * @param appointment The appointment to reserve, or null if rejected.
+     * @param reason Short kebab-case reason recorded in the rejection counter.
+     * @param message Error message returned to the client.
+     */
+    private record Validation(Appointment appointment, String reason, String message) {
+        static Validation rejected(String reason, String message) {
+            return new Validation(null, reason, message);
+        }
+    }
 
     /**
      * @brief Constructor for dependency injection.
      * @param appointmentService The business logic service.
-     * @param messagingTemplate Template for sending WebSocket messages.
+     * @param queueEvents Publisher for sequence-numbered queue change events.
+     * @param eventStream Server-Sent Events channel the booking page receives its updates on.
+     * @param metrics Latency timers and rejection counters for the customer operations.
+     * @param maxBulkItems Largest batch accepted by the bulk endpoints (smartqueue.bulk.max-items).
+     * @param maxAvailabilityDays Longest date range accepted by /availability (smartqueue.availability.max-days).
      */
-    public CustomerDashboard(AppointmentService appointmentService, SimpMessagingTemplate messagingTemplate) {
+    public CustomerDashboard(AppointmentService appointmentService, QueueEventPublisher queueEvents,
+                             QueueEventStream eventStream, QueueMetrics metrics, @Value("${smartqueue.bulk.max-items:1000}") int maxBulkItems,
+                             @Value("${smartqueue.availability.max-days:92}") int maxAvailabilityDays) {
         this.appointmentService = appointmentService;
-        this.messagingTemplate = messagingTemplate;
+        this.queueEvents = queueEvents;
+        this.eventStream = eventStream;
+        this.metrics = metrics;
+        this.maxBulkItems = maxBulkItems;
+        this.maxAvailabilityDays = maxAvailabilityDays;
+    }
+
+    /**
+     * @brief Lists the queues (branches) customers can book in.
+     * @return The queue ids.
+     */
+    @GetMapping("/queues")
+    public ResponseEntity<Set<String>> getQueues() {
+        return ResponseEntity.ok(appointmentService.getQueueIds());
+    }
+
+    /**
+     * @brief Streams a queue's updates, and an appointment's notifications, as Server-Sent Events.
+     * * The one-way alternative to a SockJS/STOMP session for the booking page: 'queue-update' events
+     * carry the same JSON arrays as /topic/queues/{queue}/queue-update, with the last sequence
+     * number as the event id, and 'notify' events the messages of /topic/queues/{queue}/notify/{id}.
+     * A browser reconnecting with Last-Event-ID first receives what it missed, or a 'resync' event.
+     * @param queue The queue to stream.
+     * @param id The UUID of the appointment whose notifications to stream (optional).
+     * @param lastEventId The last event id the browser received, sent when it reconnects.
+     * @param request The request, kept open for the stream.
+     * @param response The response the events are written to.
+     */
+    @GetMapping("/events")
+    public void streamEvents(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+                             @RequestParam(required = false) String id,
+                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        eventStream.open(queue, id, lastEventId, request, response);
     }
 
     /**
      * @brief Retrieves the current dynamic business hours so the frontend can populate the dropdown.
-     * @return A map containing the openHour and closeHour.
+     * * The response carries the settings version as its ETag and their change time as Last-Modified,
+     * and must be revalidated before reuse. Browsers re-fetching after a queue update therefore get
+     * an empty 304 unless the hours actually changed.
+     * @param queue The queue whose hours to return.
+     * @return A map containing the openHour and closeHour, or 304 Not Modified.
      */
     @GetMapping("/hours")
-    public ResponseEntity<Map<String, Integer>> getHours() {
-        return ResponseEntity.ok(Map.of(
-            "openHour", appointmentService.getOpenHour(), 
-            "closeHour", appointmentService.getCloseHour()
-        ));
+    public ResponseEntity<Map<String, Integer>> getHours(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue) {
+        QueueSettings settings = appointmentService.getSettings(queue);
+        // Spring answers If-None-Match / If-Modified-Since from these headers and skips the body when they match
+        return ResponseEntity.ok()
+                .eTag(Long.toString(settings.getVersion()))
+                .lastModified(settings.getUpdatedAt())
+                .cacheControl(CacheControl.noCache())
+                .body(Map.of(
+                        "openHour", settings.getOpenHour(),
+                        "closeHour", settings.getCloseHour()
+                ));
+    }
+
+    /**
+     * @brief Lists the free hours of every bookable day in a date range, so customers can pick a slot that is still open.
+     * * Each day is a bitmap of its free hours (bit n = hour n), taken from the in-memory slot index
+     * that bookings are reserved in. One call thereby covers a month of the calendar, instead of
+     * customers guessing slots and being told they are taken. Weekends, past days and days more
+     * than a year ahead are left out, as they cannot be booked.
+     * @param queue The queue to check.
+     * @param from First date of the range (default today).
+     * @param to Last date of the range, inclusive (default one month after from).
+     * @return ResponseEntity with the {@link Availability}, or an error message for an invalid range.
+     */
+    @GetMapping("/availability")
+    public ResponseEntity<Object> getAvailability(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+                                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate today = LocalDate.now();
+        LocalDate first = from != null ? from : today;
+        LocalDate last = to != null ? to : first.plusMonths(1).minusDays(1);
+        if (last.isBefore(first)) {
+            return ResponseEntity.badRequest().body("'to' must not be before 'from'.");
+        }
+        if (first.plusDays(maxAvailabilityDays).isBefore(last.plusDays(1))) {
+            return ResponseEntity.badRequest().body("At most " + maxAvailabilityDays + " days per request.");
+        }
+        return metrics.availability.record(() -> {
+            // One snapshot, so every day is computed with the same business hours
+            QueueSettings settings = appointmentService.getSettings(queue);
+            Map<LocalDate, Integer> freeHours = new LinkedHashMap<>();
+            // Only the days /book would accept: from today up to a year ahead, weekdays only
+            LocalDate start = first.isBefore(today) ? today : first;
+            LocalDate end = last.isAfter(today.plusYears(1)) ? today.plusYears(1) : last;
+            for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+                DayOfWeek dow = date.getDayOfWeek();
+                if (dow != DayOfWeek.SATURDAY && dow != DayOfWeek.SUNDAY) {
+                    freeHours.put(date, appointmentService.getFreeHours(queue, settings, date));
+                }
+            }
+            return ResponseEntity.ok(new Availability(queue, settings.getOpenHour(), settings.getCloseHour(), freeHours));
+        });
     }
 
     /**
      * @brief Handles booking a new appointment. Runs through multiple validation checks.
-     * @param request The incoming JSON payload containing name, date, and hour.
+     * @param request The incoming JSON payload containing queue, name, date, and hour.
      * @return ResponseEntity with the created Appointment or an error message.
      */
     @PostMapping("/book")
     public ResponseEntity<Object> book(@RequestBody AppointmentRequest request) {
+        return metrics.book.record(() -> validateAndBook(request));
+    }
+
+    private ResponseEntity<Object> validateAndBook(AppointmentRequest request) {
+        // One snapshot, so the open and close hours always come from the same configuration
+        QueueSettings settings = appointmentService.getSettings(request.getQueue());
+        Validation validation = validate(request, LocalDate.now(), settings.getOpenHour(), settings.getCloseHour());
+        if (validation.appointment() == null) {
+            return reject(validation);
+        }
+
+        // Validation 6: Atomically reserve the slot to prevent double bookings.
+        // The service checks its slot index in constant time and only saves if both checks pass.
+        Appointment newAppointment = validation.appointment();
+        Validation reserved = reservation(appointmentService.add(newAppointment));
+        if (reserved != null) {
+            return reject(reserved);
+        }
+
+        // Broadcast to all connected WebSockets exactly what changed in the queue
+        queueEvents.appointmentAdded(newAppointment);
+
+        return ResponseEntity.ok(newAppointment);
+    }
+
+    /**
+     * @brief Books a batch of appointments, e.g. a day imported from a partner system (staff only).
+     * * Every item goes through the same checks as /book, against one reading of the clock and
+     * of each queue's business hours. The accepted items are saved in one transaction using JDBC
+     * batch inserts, and the whole batch is announced as a single event per queue.
+     * @param requests The bookings, each with queue, name, date, and hour.
+     * @return ResponseEntity with one {@link BulkItemResult} per request item, in order.
+     */
+    @PostMapping("/book/bulk")
+    public ResponseEntity<Object> bookBulk(@RequestBody List<AppointmentRequest> requests) {
+        if (requests.size() > maxBulkItems) {
+            return ResponseEntity.badRequest().body("At most " + maxBulkItems + " items per request.");
+        }
+        return metrics.bookBulk.record(() -> {
+            LocalDate now = LocalDate.now();
+            // Queue id to its settings, read once per batch
+            Map<String, QueueSettings> settings = new HashMap<>();
+
+            BulkItemResult[] results = new BulkItemResult[requests.size()];
+            List<Appointment> valid = new ArrayList<>(requests.size());
+            List<Integer> validIndexes = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                String queue = requests.get(i).getQueue();
+                if (!appointmentService.hasQueue(queue)) {
+                    results[i] = rejectItem(i, Validation.rejected("unknown-queue", "Unknown queue: " + queue));
+                    continue;
+                }
+                QueueSettings hours = settings.computeIfAbsent(queue, appointmentService::getSettings);
+                Validation validation = validate(requests.get(i), now, hours.getOpenHour(), hours.getCloseHour());
+                if (validation.appointment() == null) {
+                    results[i] = rejectItem(i, validation);
+                } else {
+                    valid.add(validation.appointment());
+                    validIndexes.add(i);
+                }
+            }
+
+            List<SlotIndex.Result> saved = appointmentService.addAll(valid);
+            List<Appointment> booked = new ArrayList<>(valid.size());
+            for (int v = 0; v < valid.size(); v++) {
+                int i = validIndexes.get(v);
+                Validation reserved = reservation(saved.get(v));
+                if (reserved != null) {
+                    results[i] = rejectItem(i, reserved);
+                } else {
+                    results[i] = BulkItemResult.ok(i, valid.get(v));
+                    booked.add(valid.get(v));
+                }
+            }
+
+            queueEvents.appointmentsAdded(booked);
+            return ResponseEntity.ok(List.of(results));
+        });
+    }
+
+    /**
+     * @brief Checks a booking request's fields against the calendar and business hours.
+     * @param request The incoming booking.
+     * @param now Today's date.
+     * @param openHour The first bookable hour.
+     * @param closeHour The hour after the last bookable one.
+     * @return A new Appointment ready to reserve, or the reason the request was rejected.
+     */
+    private Validation validate(AppointmentRequest request, LocalDate now, int openHour, int closeHour) {
         String name = request.getName();
         String date = request.getDate();
         int hour = request.getHour();
 
         // Validation 1: Name format (Cannot be null, empty, or contain numbers)
         if (name == null || name.isEmpty() || name.matches(".*\\d.*")) {
-            return ResponseEntity.badRequest().body("Name must not be empty or contain numbers.");
+            return Validation.rejected("invalid-name", "Name must not be empty or contain numbers.");
         }
 
         LocalDate dateObj;
         try {
-            // Attempt to parse the date string into a real Date object
-            dateObj = LocalDate.parse(date);
+            // Attempt to parse the date string into a real Date object (a missing date fails as "null")
+            dateObj = LocalDate.parse(String.valueOf(date));
         } catch (DateTimeParseException ex) {
-            return ResponseEntity.badRequest().body("Invalid date format.");
+            return Validation.rejected("invalid-date", "Invalid date format.");
         }
 
         // Validation 2: Prevent historical bookings
-        LocalDate now = LocalDate.now();
         if (dateObj.isBefore(now)) {
-            return ResponseEntity.badRequest().body("Past dates are not allowed.");
+            return Validation.rejected("past-date", "Past dates are not allowed.");
         }
 
         // Validation 3: Prevent bookings too far into the future (max 1 year)
         if (dateObj.isAfter(now.plusYears(1))) {
-            return ResponseEntity.badRequest().body("Choose a date within the next year.");
+            return Validation.rejected("too-far-ahead", "Choose a date within the next year.");
         }
 
         // Validation 4: Ensure booking is on a weekday
         DayOfWeek dow = dateObj.getDayOfWeek();
         if (dow == DayOfWeek.SATURDAY || dow == DayOfWeek.SUNDAY) {
-            return ResponseEntity.badRequest().body("Appointments cannot be scheduled on weekends.");
+            return Validation.rejected("weekend", "Appointments cannot be scheduled on weekends.");
         }
 
         // Validation 5: Dynamically checking within business hours
-        int openHour = appointmentService.getOpenHour();
-        int closeHour = appointmentService.getCloseHour();
         if (hour < openHour || hour >= closeHour) {
-            return ResponseEntity.badRequest().body("Choose a time between " + openHour + ":00 and " + (closeHour - 1) + ":00.");
+            return Validation.rejected("outside-hours", "Choose a time between " + openHour + ":00 and " + (closeHour - 1) + ":00.");
         }
 
-        // Validation 6: Check database to prevent double bookings
-        for (Appointment a : appointmentService.getAll()) {
-            if (a.date.equals(date) && a.name.equalsIgnoreCase(name)) {
-                return ResponseEntity.badRequest().body("You already have an appointment on this date.");
-            }
-            if (a.date.equals(date) && a.hour == hour) {
-                return ResponseEntity.badRequest().body("This time slot is already taken.");
-            }
-        }
+        return new Validation(new Appointment(request.getQueue(), name, dateObj, hour), null, null);
+    }
 
-        // If all validations pass, create and save the appointment
-        Appointment newAppointment = new Appointment(name, date, hour);
-        appointmentService.add(newAppointment);
+    /** @return Why the slot could not be reserved, or null if it was. */
+    private static Validation reservation(SlotIndex.Result result) {
+        if (result == SlotIndex.Result.NAME_TAKEN) {
+            return Validation.rejected("name-taken", "You already have an appointment on this date.");
+        }
+        if (result == SlotIndex.Result.SLOT_TAKEN) {
+            return Validation.rejected("slot-taken", "This time slot is already taken.");
+        }
+        return null;
+    }
 
-        // Broadcast to all connected WebSockets that the queue has changed
-        messagingTemplate.convertAndSend("/topic/queue-update", "Refresh");
+    private ResponseEntity<Object> reject(Validation validation) {
+        metrics.bookingRejected(validation.reason());
+        return ResponseEntity.badRequest().body(validation.message());
+    }
 
-        return ResponseEntity.ok(newAppointment);
+    private BulkItemResult rejectItem(int index, Validation validation) {
+        metrics.bookingRejected(validation.reason());
+        return BulkItemResult.rejected(index, validation.message());
     }
 
     /**
      * @brief Cancels an existing appointment using its UUID.
-     * @param request JSON payload containing the appointment 'id'.
+     * @param request JSON payload containing the appointment 'id' and its 'queue'.
      * @return ResponseEntity with success or error message.
      */
     @DeleteMapping("/cancel")
     public ResponseEntity<String> cancel(@RequestBody AppointmentRequest request) {
-        boolean removed = appointmentService.removeSpecific(request.getId());
-        if (removed) {
-            // Notify clients of the change so UI updates in real-time
-            messagingTemplate.convertAndSend("/topic/queue-update", "Refresh");
-            return ResponseEntity.ok("Appointment successfully canceled.");
+        return metrics.cancel.record(() -> {
+            Appointment removed = appointmentService.removeSpecific(request.getQueue(), request.getId());
+            if (removed != null) {
+                // Notify clients of the change so UI updates in real-time
+                queueEvents.appointmentRemoved(removed);
+                return ResponseEntity.ok("Appointment successfully canceled.");
+            }
+            return ResponseEntity.badRequest().body("No matching appointment found.");
+        });
+    }
+
+    /**
+     * @brief Cancels a batch of appointments by their UUIDs (staff only).
+     * * The cancellations of each queue are claimed in the database as one JDBC batch and
+     * announced as a single queue event.
+     * @param requests JSON array of payloads, each containing an appointment 'id' and its 'queue'.
+     * @return ResponseEntity with one {@link BulkItemResult} per request item, in order.
+     */
+    @DeleteMapping("/cancel/bulk")
+    public ResponseEntity<Object> cancelBulk(@RequestBody List<AppointmentRequest> requests) {
+        if (requests.size() > maxBulkItems) {
+            return ResponseEntity.badRequest().body("At most " + maxBulkItems + " items per request.");
         }
-        return ResponseEntity.badRequest().body("No matching appointment found.");
+        return metrics.cancelBulk.record(() -> {
+            BulkItemResult[] results = new BulkItemResult[requests.size()];
+            // Queue id to the indexes of the items that cancel from it
+            Map<String, List<Integer>> byQueue = new LinkedHashMap<>();
+            for (int i = 0; i < requests.size(); i++) {
+                String queue = requests.get(i).getQueue();
+                if (appointmentService.hasQueue(queue)) {
+                    byQueue.computeIfAbsent(queue, q -> new ArrayList<>()).add(i);
+                } else {
+                    results[i] = BulkItemResult.rejected(i, "Unknown queue: " + queue);
+                }
+            }
+
+            List<Appointment> canceled = new ArrayList<>(requests.size());
+            byQueue.forEach((queue, indexes) -> {
+                List<Appointment> removed = appointmentService.removeAll(queue,
+                        indexes.stream().map(i -> requests.get(i).getId()).toList());
+                for (int r = 0; r < removed.size(); r++) {
+                    int i = indexes.get(r);
+                    Appointment a = removed.get(r);
+                    if (a == null) {
+                        results[i] = BulkItemResult.rejected(i, "No matching appointment found.");
+                    } else {
+                        results[i] = BulkItemResult.ok(i, a);
+                        canceled.add(a);
+                    }
+                }
+            });
+            queueEvents.appointmentsRemoved(canceled);
+            return ResponseEntity.ok(List.of(results));
+        });
     }
 
     /**
      * @brief Calculates and returns the estimated wait time.
+     * @param queue The queue of the appointment.
      * @param date The date of the appointment.
      * @param hour The hour of the appointment.
      * @return ResponseEntity containing a string with wait time and queue depth.
      */
     @GetMapping("/wait-time")
-    public ResponseEntity<String> getWaitTime(@RequestParam String date, @RequestParam int hour) {
-        int waitCount = appointmentService.getWaitCount(date, hour);
-        int totalWait = waitCount * appointmentService.getDuration();
-        return ResponseEntity.ok("Estimated Wait: " + totalWait + " minutes. " + waitCount + " people ahead of you.");
+    public ResponseEntity<String> getWaitTime(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+                                              @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                              @RequestParam int hour) {
+        return metrics.waitTime.record(() -> {
+            int waitCount = appointmentService.getWaitCount(queue, date, hour);
+            // Based on how fast this queue has actually been serving at that hour of the day
+            int totalWait = appointmentService.estimateWaitMinutes(queue, waitCount, hour);
+            return ResponseEntity.ok("Estimated Wait: " + totalWait + " minutes. " + waitCount + " people ahead of you.");
+        });
     }
 
     /**
-     * @brief Checks the global queue position for a specific appointment.
+     * @brief Checks the queue position for a specific appointment.
+     * @param queue The queue the appointment was booked in.
      * @param id The UUID of the appointment.
      * @return ResponseEntity containing a status message regarding their turn.
      */
     @GetMapping("/position")
-    public ResponseEntity<String> getPosition(@RequestParam String id) {
-        int pos = appointmentService.getPosition(id);
-        if (pos == -1) {
-            return ResponseEntity.badRequest().body("Appointment not found. Did you cancel it?");
-        }
-        if (pos == 0) {
-            return ResponseEntity.ok("You are next!");
-        }
-        return ResponseEntity.ok("There are " + pos + " people ahead of you.");
+    public ResponseEntity<String> getPosition(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+                                              @RequestParam String id) {
+        return metrics.position.record(() -> {
+            int pos = appointmentService.getPosition(queue, id);
+            if (pos == -1) {
+                return ResponseEntity.badRequest().body("Appointment not found. Did you cancel it?");
+            }
+            if (pos == 0) {
+                return ResponseEntity.ok("You are next!");
+            }
+            return ResponseEntity.ok("There are " + pos + " people ahead of you.");
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package smartqueue;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.util.List;
+
+/**
+ * @brief {@link QueueSequence} shared by every instance through the database, used with the broker relay.
+ * * Each queue has a row in queue_event_seq. Taking a number increments it and reads it back in
+ * one transaction, so the row lock hands out every number once across all instances. That is a
+ * round trip per event, on the request that made the change, which is small next to the
+ * round trip that saved the change itself.
+ */
+@Component
+@ConditionalOnProperty(name = "smartqueue.broker.mode", havingValue = "relay")
+public class DatabaseQueueSequence implements QueueSequence {
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactions;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param jdbc Runs the increments.
+     * @param transactionManager Holds the row lock between the increment and the read.
+     */
+    public DatabaseQueueSequence(JdbcTemplate jdbc, PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.transactions = new TransactionTemplate(transactionManager);
+    }
+
+    /** @brief Creates the sequence table if this is the first instance to use it. */
+    @PostConstruct
+    public void createTable() {
+        jdbc.execute("create table if not exists queue_event_seq (queue_id varchar(32) primary key, seq bigint not null)");
+    }
+
+    @Override
+    public long current(String queueId) {
+        List<Long> seq = jdbc.queryForList("select seq from queue_event_seq where queue_id = ?", Long.class, queueId);
+        return seq.isEmpty() ? 0 : seq.get(0);
+    }
+
+    @Override
+    public long next(String queueId) {
+        while (true) {
+            Long seq = transactions.execute(tx -> {
+                if (jdbc.update("update queue_event_seq set seq = seq + 1 where queue_id = ?", queueId) == 0) {
+                    return null;
+                }
+                return jdbc.queryForObject("select seq from queue_event_seq where queue_id = ?", Long.class, queueId);
+            });
+            if (seq != null) return seq;
+            try {
+                jdbc.update("insert into queue_event_seq (queue_id, seq) values (?, 0)", queueId);
+            } catch (DuplicateKeyException ex) {
+                // Another instance created the row first; increment that one
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package smartqueue;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @brief Default {@link QueueStore}: every change is its own database transaction.
+ * * Nothing is buffered, so several instances can share one database, and the conditional
+ * deletes in {@link AppointmentDatabase} decide which instance wins a removal.
+ */
+@Component
+@ConditionalOnProperty(name = "smartqueue.persistence", havingValue = "database", matchIfMissing = true)
+public class DatabaseQueueStore implements QueueStore {
+
+    private final AppointmentDatabase database;
+    private final AppointmentArchive archive;
+    private final QueueSettingsDatabase settingsDatabase;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param database The repository to interact with the database.
+     * @param archive The archive table past appointments are moved to.
+     * @param settingsDatabase The repository holding each queue's settings.
+     */
+    public DatabaseQueueStore(AppointmentDatabase database, AppointmentArchive archive,
+                              QueueSettingsDatabase settingsDatabase) {
+        this.database = database;
+        this.archive = archive;
+        this.settingsDatabase = settingsDatabase;
+    }
+
+    @Override
+    public void save(Appointment a) {
+        database.save(a);
+    }
+
+    @Override
+    public void saveAll(List<Appointment> batch) {
+        // One transaction, sent by Hibernate as JDBC batch inserts
+        database.saveAll(batch);
+    }
+
+    @Override
+    public int claim(String id) {
+        return database.claim(id);
+    }
+
+    @Override
+    public int[] claimAll(List<String> ids) {
+        return database.claimAll(ids);
+    }
+
+    @Override
+    @Transactional
+    public int[] archiveAll(List<Appointment> batch, Instant archivedAt) {
+        // Claimed and inserted in one transaction, so a row is always in exactly one of the two tables
+        int[] claimed = database.claimAll(batch.stream().map(a -> a.id).toList());
+        List<ArchivedAppointment> rows = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            // Zero means a serve or cancel (possibly on another instance) got there first
+            if (claimed[i] == 1) rows.add(new ArchivedAppointment(batch.get(i), archivedAt));
+        }
+        archive.saveAll(rows);
+        return claimed;
+    }
+
+    @Override
+    public QueueSettings saveSettings(QueueSettings settings) {
+        return settingsDatabase.save(settings);
+    }
+}
@@ -1,89 +1,167 @@
 package smartqueue;
 
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.List;
 
 /**
  * @brief REST Controller handling employee-facing API endpoints.
  * * Provides features for staff to view the queue, serve customers, and adjust settings.
- * All routes here are protected by Spring Security.
+ * Every route works on one queue (branch), named by the 'queue' parameter and defaulting
+ * to the default queue. All routes here are protected by Spring Security.
  */
 @RestController
 @RequestMapping("/api/employee")
 public class EmployeeDashboard {
 
     private final AppointmentService appointmentService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final QueueBroadcaster broadcaster;
+    private final QueueEventPublisher queueEvents;
+    private final PositionNotifier positionNotifier;
+    private final QueueMetrics metrics;
+
+    /** @brief Largest page /full-queue returns. */
+    private final int maxPageSize;
 
     /**
      * @brief Constructor for dependency injection.
      */
-    public EmployeeDashboard(AppointmentService appointmentService, SimpMessagingTemplate messagingTemplate) {
+    public EmployeeDashboard(AppointmentService appointmentService, QueueBroadcaster broadcaster,
+                             QueueEventPublisher queueEvents, PositionNotifier positionNotifier,
+                             QueueMetrics metrics, @Value("${smartqueue.full-queue.max-page-size:1000}") int maxPageSize) {
         this.appointmentService = appointmentService;
-        this.messagingTemplate = messagingTemplate;
+        this.broadcaster = broadcaster;
+        this.queueEvents = queueEvents;
+        this.positionNotifier = positionNotifier;
+        this.metrics = metrics;
+        this.maxPageSize = maxPageSize;
     }
 
     /**
-     * @brief Retrieves the entire scheduled queue.
-     * @return A list of all appointments, visible to staff.
+     * @brief Retrieves the scheduled queue one page at a time, optionally within a date window.
+     * The X-Queue-Seq header carries the event sequence number the page is at least as
+     * new as, so the dashboard knows where to resume applying queue events. If more
+     * appointments follow, the X-Next-Cursor header holds the 'after' value for the next page.
+     * @param queue The queue to list.
+     * @param after Cursor from the previous page's X-Next-Cursor, or absent for the first page.
+     * @param from First date to include (yyyy-MM-dd), or absent for no lower bound.
+     * @param to Last date to include (yyyy-MM-dd), or absent for no upper bound.
+     * @param limit Maximum number of appointments in the page.
+     * @return Up to 'limit' appointments in queue order, visible to staff.
      */
     @GetMapping("/full-queue")
-    public List<Appointment> getFullQueue() {
+    public ResponseEntity<Object> getFullQueue(
+            @RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "100") int limit) {
+        requireQueue(queue);
+        if (limit < 1 || limit > maxPageSize) {
+            return ResponseEntity.badRequest().body("Page size must be between 1 and " + maxPageSize + ".");
+        }
+        QueueCursor cursor;
+        try {
+            cursor = after == null ? null : QueueCursor.decode(after);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body("Invalid cursor.");
+        }
+        // Read the sequence first: events published while we copy the page are replayed
+        // by the client, and applying an add or remove twice is harmless.
+        long seq = queueEvents.currentSeq(queue);
+        QueueIndex.Page page = appointmentService.getPage(queue, cursor, from, to, limit);
         // Staff see the full list with names, unlike customers
-        return appointmentService.getAll();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().header("X-Queue-Seq", Long.toString(seq));
+        if (page.next() != null) response.header("X-Next-Cursor", page.next().encode());
+        return response.body(page.appointments());
+    }
+
+    /**
+     * @brief Returns the queue events published after a given sequence number.
+     * Used by dashboards that notice a gap in the sequence numbers they received.
+     * @param queue The queue whose events to return.
+     * @param since The last sequence number the dashboard applied.
+     * @return The missing events with full appointment details, or 410 Gone if they are
+     * no longer retained and the dashboard should reload the full queue instead.
+     */
+    @GetMapping("/queue-events")
+    public ResponseEntity<List<QueueEvent>> getQueueEvents(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+                                                           @RequestParam long since) {
+        requireQueue(queue);
+        List<QueueEvent> events = queueEvents.since(queue, since);
+        if (events == null) return ResponseEntity.status(HttpStatus.GONE).build();
+        return ResponseEntity.ok(events);
     }
 
     /**
      * @brief "Serves" the next person in line by removing them from the queue and notifying them.
+     * @param queue The queue to serve; other queues are not touched.
      * @return ResponseEntity with the name of the person being served.
      */
     @DeleteMapping("/serve")
-    public ResponseEntity<String> serveNext() {
-        Appointment next = appointmentService.removeNext();
-        if (next == null) return ResponseEntity.badRequest().body("Queue is empty.");
-        
-        // Notify ONLY the specific client listening to their unique UUID topic
-        messagingTemplate.convertAndSend("/topic/notify/" + next.id, 
-        "It is your turn, " + next.name + "!");
+    public ResponseEntity<String> serveNext(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue) {
+        return metrics.serve.record(() -> {
+            Appointment next = appointmentService.removeNext(queue);
+            if (next == null) return ResponseEntity.badRequest().body("Queue is empty.");
 
-        // Broadcast to everyone else that the queue changed to update dashboards
-        messagingTemplate.convertAndSend("/topic/queue-update", "Refresh");
+            // Notify ONLY the specific client listening to their unique UUID topic (sent off the request thread)
+            broadcaster.send(PositionNotifier.notifyTopic(queue, next.id), PositionNotifier.turnMessage(next.name));
 
-        // Returns the name of the person being served back to the staff UI
-        return ResponseEntity.ok("Now Serving: " + next.name);
+            // Broadcast to everyone else that the queue changed to update dashboards
+            queueEvents.appointmentServed(next);
+
+            // Returns the name of the person being served back to the staff UI
+            return ResponseEntity.ok("Now Serving: " + next.name);
+        });
     }
 
     /**
-     * @brief Updates the global estimated duration per appointment.
+     * @brief Updates a queue's estimated duration per appointment.
+     * @param queue The queue to configure.
      * @param minutes The new expected duration in minutes.
      */
     @PostMapping("/duration")
-    public void setDuration(@RequestParam int minutes) {
+    public void setDuration(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue, @RequestParam int minutes) {
         // Replaces the JSpinner logic from the original Java Swing GUI
-        appointmentService.setDuration(minutes);
+        appointmentService.setDuration(queue, minutes);
+        // Every waiting customer's estimate in this queue just changed, so push fresh values
+        positionNotifier.refreshAll(queue);
     }
 
     /**
-     * @brief Updates the global operating hours for the service.
+     * @brief Updates a queue's operating hours.
+     * @param queue The queue to configure.
      * @param openHour The new opening hour (e.g., 9 for 9 AM).
      * @param closeHour The new closing hour (e.g., 17 for 5 PM).
      * @return ResponseEntity confirming the update or rejecting invalid parameters.
      */
     @PostMapping("/hours")
-    public ResponseEntity<String> setServiceHours(@RequestParam int openHour, @RequestParam int closeHour) {
+    public ResponseEntity<String> setServiceHours(@RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+                                                  @RequestParam int openHour, @RequestParam int closeHour) {
         // Simple validation to ensure times make chronological sense
         if (openHour >= closeHour || openHour < 0 || closeHour > 24) {
             return ResponseEntity.badRequest().body("Invalid hours configuration. Open must be before Close.");
         }
         
-        appointmentService.setOpenHour(openHour);
-        appointmentService.setCloseHour(closeHour);
+        appointmentService.setHours(queue, openHour, closeHour);
         
-        // Broadcasts to all connected frontend clients so they can immediately 
-        // redraw their dropdown menus and hide invalid time slots.
-        messagingTemplate.convertAndSend("/topic/queue-update", "Refresh");
+        // Broadcasts the new hours to all connected frontend clients so they can immediately 
+        // redraw their dropdown menus and hide invalid time slots without re-fetching.
+        queueEvents.hoursChanged(queue, openHour, closeHour);
         
         return ResponseEntity.ok("Hours updated: " + openHour + ":00 to " + closeHour + ":00");
     }
@@ -95,14 +173,64 @@ public class EmployeeDashboard {
      * supply start and end dates and receive an array of {@link WaitReportEntry}
      * objects to display or export.
      *
+     * @param queue The queue to report on
      * @param start Starting date in yyyy-MM-dd format
      * @param end   Ending date in yyyy-MM-dd format
      * @return List of wait-time report entries
      */
     @GetMapping("/wait-report")
-    public java.util.List<WaitReportEntry> getWaitReport(
-            @RequestParam String start,
-            @RequestParam String end) {
-        return appointmentService.getWaitReport(start, end);
+    public List<WaitReportEntry> getWaitReport(
+            @RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+        return metrics.report.record(() -> appointmentService.getWaitReport(queue, start, end));
+    }
+
+    /**
+     * @brief Streams a wait-time report for an inclusive date range as a CSV download.
+     *
+     * Rows are written to the response as they are read from the database, so large
+     * ranges never have to sit fully in server memory.
+     *
+     * @param queue The queue to report on
+     * @param start Starting date in yyyy-MM-dd format
+     * @param end   Ending date in yyyy-MM-dd format
+     * @return A streamed CSV body with a Date,Hour,WaitCount,WaitMinutes header
+     */
+    @GetMapping("/wait-report.csv")
+    public ResponseEntity<StreamingResponseBody> getWaitReportCsv(
+            @RequestParam(defaultValue = Appointment.DEFAULT_QUEUE) String queue,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+        requireQueue(queue); // Checked before the response is committed
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("Date,Hour,WaitCount,WaitMinutes\n");
+            // Timed here rather than around the handler, which returns before any row is written
+            Timer.Sample sample = Timer.start();
+            try {
+                appointmentService.streamWaitReport(queue, start, end, r -> {
+                    try {
+                        writer.write(r.date() + "," + r.hour() + "," + r.waitCount() + "," + r.waitMinutes() + "\n");
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause(); // Client went away; let Spring handle the broken stream
+            } finally {
+                sample.stop(metrics.reportCsv);
+            }
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"wait-report.csv\"")
+                .body(body);
+    }
+
+    /** @throws UnknownQueueException if the queue is not configured. */
+    private void requireQueue(String queue) {
+        if (!appointmentService.hasQueue(queue)) throw new UnknownQueueException(queue);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,435 @@
+package smartqueue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief {@link QueueStore} that makes changes durable in a {@link QueueJournal} and updates the database behind it.
+ * * A change returns as soon as its journal record is on disk, and concurrent changes share one
+ * disk flush, so write throughput is no longer bound by one database commit per change. A
+ * background thread then applies the journal to the database in batches. Each batch commits
+ * together with the journal position it reached (table journal_checkpoint), so every record is
+ * applied exactly once, even across crashes. On startup, whatever the database has not seen yet
+ * is replayed before {@link AppointmentService} loads the queue from it.
+ * * The in-memory indexes decide conflicts (who gets a slot, which desk serves whom), so this
+ * mode is for a single instance; it refuses to start with smartqueue.queue.count-in-database.
+ * Reports and archiving read the database, which trails the journal by up to one apply interval.
+ * Archiving writes through the journal as well, so the archive row and the removal of the live row
+ * are made durable together.
+ * * A batch the database rejects with a constraint violation is retried one record at a time. A
+ * record that still fails after smartqueue.journal.max-apply-attempts tries is moved to the
+ * journal_rejected table, together with the error, and skipped, so it cannot hold back every
+ * change after it. Other failures (e.g. the database being unreachable) are retried until they pass.
+ * Such a record was already acknowledged to its client, so the rejection is logged at ERROR and
+ * counted, and a rejected booking is dropped from the in-memory queue and announced as removed,
+ * so the queue agrees with the database instead of losing the booking silently at the next start.
+ */
+@Component
+@ConditionalOnProperty(name = "smartqueue.persistence", havingValue = "journal")
+// Replaying into the appointment table needs its current columns
+@DependsOn({"appointmentDayMigration", "appointmentQueueMigration", "appointmentNameMigration"})
+public class JournalQueueStore implements QueueStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalQueueStore.class);
+
+    /** @brief Record types; the first byte of every journal record. */
+    private static final byte BOOK = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SETTINGS = 3;
+    private static final byte ARCHIVE = 4;
+
+    private static final String INSERT_APPOINTMENT =
+            "insert into appointment (id, queue_id, name, normalized_name, appointment_day, appointment_hour) values (?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_APPOINTMENT = "delete from appointment where id = ?";
+    // A merge, so an archive record replayed after a crash that cut its batch short is harmless
+    private static final String MERGE_ARCHIVED =
+            "merge into appointment_archive (id, queue_id, name, appointment_day, appointment_hour, archived_at) "
+                    + "key (id) values (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_REJECTED =
+            "insert into journal_rejected (journal_position, record, error, rejected_at) values (?, ?, ?, ?)";
+    private static final String MERGE_SETTINGS =
+            "merge into queue_settings (queue_id, open_hour, close_hour, duration_minutes, settings_version, updated_at) "
+                    + "key (queue_id) values (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactions;
+    private final ObjectProvider<AppointmentService> appointmentService;
+    private final ObjectProvider<QueueEventPublisher> queueEvents;
+    private final MeterRegistry registry;
+    private final Path dir;
+    private final int segmentSize;
+    private final long applyIntervalMillis;
+    private final int applyBatchSize;
+    private final int maxApplyAttempts;
+
+    /** @brief Time a change waits for its record to reach the disk. */
+    private final Timer syncTimer;
+
+    /** @brief Records moved to journal_rejected instead of being applied. */
+    private final Counter rejectedCounter;
+
+    private QueueJournal journal;
+
+    /** @brief Journal position up to which the database is up to date. Only touched by the applying thread. */
+    private long applied;
+
+    /** @brief While applied is below this, records are applied one per transaction. Applying thread only. */
+    private long isolateUntil;
+
+    /** @brief Constraint violations of the record at applied so far. Applying thread only. */
+    private int failedAttempts;
+
+    /** @brief False while open() replays the journal; the queues are loaded from the database after that. */
+    private volatile boolean opened;
+
+    private final ScheduledExecutorService applier = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "journal-applier");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param jdbc Plain JDBC access used to apply the journal.
+     * @param transactionManager Runs each applied batch in its own transaction.
+     * @param appointmentService Queues a rejected booking is dropped from; looked up lazily, since it depends on this store.
+     * @param queueEvents Publisher that tells dashboards a rejected booking left the queue.
+     * @param registry Registry the journal meters are published to.
+     * @param dir Directory of the journal segment files (smartqueue.journal.dir).
+     * @param segmentSizeMb Size of each segment file in MiB, 1 to 2047 (smartqueue.journal.segment-size-mb).
+     * @param applyIntervalMillis Pause between applying batches to the database (smartqueue.journal.apply-interval-ms).
+     * @param applyBatchSize Records applied per database transaction (smartqueue.journal.apply-batch-size).
+     * @param maxApplyAttempts Constraint violations after which a record is rejected (smartqueue.journal.max-apply-attempts).
+     * @param countInDatabase Must be false: the database trails the journal, so it cannot answer counts.
+     */
+    public JournalQueueStore(JdbcTemplate jdbc, PlatformTransactionManager transactionManager,
+                             ObjectProvider<AppointmentService> appointmentService,
+                             ObjectProvider<QueueEventPublisher> queueEvents, MeterRegistry registry,
+                             @Value("${smartqueue.journal.dir:./smartqueue-journal}") String dir,
+                             @Value("${smartqueue.journal.segment-size-mb:64}") int segmentSizeMb,
+                             @Value("${smartqueue.journal.apply-interval-ms:200}") long applyIntervalMillis,
+                             @Value("${smartqueue.journal.apply-batch-size:1000}") int applyBatchSize,
+                             @Value("${smartqueue.journal.max-apply-attempts:3}") int maxApplyAttempts,
+                             @Value("${smartqueue.queue.count-in-database:false}") boolean countInDatabase) {
+        if (countInDatabase) {
+            throw new IllegalStateException("smartqueue.persistence=journal cannot be combined with smartqueue.queue.count-in-database=true");
+        }
+        this.jdbc = jdbc;
+        this.transactions = new TransactionTemplate(transactionManager);
+        this.appointmentService = appointmentService;
+        this.queueEvents = queueEvents;
+        this.registry = registry;
+        this.dir = Path.of(dir);
+        // A segment is mapped as one buffer, which cannot exceed Integer.MAX_VALUE bytes
+        long segmentBytes = segmentSizeMb * 1024L * 1024L;
+        if (segmentSizeMb < 1 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("smartqueue.journal.segment-size-mb must be between 1 and "
+                    + Integer.MAX_VALUE / (1024 * 1024) + ", was " + segmentSizeMb);
+        }
+        this.segmentSize = (int) segmentBytes;
+        this.applyIntervalMillis = applyIntervalMillis;
+        this.applyBatchSize = applyBatchSize;
+        this.maxApplyAttempts = maxApplyAttempts;
+        this.syncTimer = Timer.builder("smartqueue.journal.sync")
+                .description("Time a change waits for its journal record to reach the disk")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.rejectedCounter = Counter.builder("smartqueue.journal.rejected")
+                .description("Journal records the database refused, moved to journal_rejected")
+                .register(registry);
+    }
+
+    /** @brief Opens the journal, replays what the database has not seen yet, and starts applying new records. */
+    @PostConstruct
+    public void open() throws IOException {
+        journal = new QueueJournal(dir, segmentSize);
+        jdbc.execute("create table if not exists journal_checkpoint (id int primary key, applied_position bigint not null)");
+        jdbc.update("insert into journal_checkpoint select 1, 0 where not exists (select 1 from journal_checkpoint)");
+        jdbc.execute("create table if not exists journal_rejected (journal_position bigint primary key, "
+                + "record varbinary not null, error varchar(1000), rejected_at timestamp with time zone not null)");
+        applied = jdbc.queryForObject("select applied_position from journal_checkpoint where id = 1", Long.class);
+
+        int replayed = 0;
+        while (true) {
+            try {
+                int n = applyBatch();
+                if (n == 0) break;
+                replayed += n;
+            } catch (DataIntegrityViolationException ex) {
+                // Tried again right away until the record is rejected, so the queue loads with everything after it
+            }
+        }
+        if (replayed > 0) log.info("Replayed {} journal records into the database", replayed);
+        opened = true;
+
+        FunctionCounter.builder("smartqueue.journal.records", journal, QueueJournal::appended)
+                .description("Changes appended to the journal")
+                .register(registry);
+        FunctionCounter.builder("smartqueue.journal.forces", journal, QueueJournal::forces)
+                .description("Disk flushes of the journal; records per flush is the group commit size")
+                .register(registry);
+        applier.scheduleWithFixedDelay(this::applyPending, applyIntervalMillis, applyIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** @brief Stops the background thread after bringing the database up to date. */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        applier.shutdown();
+        applier.awaitTermination(10, TimeUnit.SECONDS);
+        // Not required for durability, but leaves nothing to replay on the next start
+        applyPending();
+    }
+
+    @Override
+    public void save(Appointment a) {
+        append(List.of(book(a)));
+    }
+
+    @Override
+    public void saveAll(List<Appointment> batch) {
+        append(batch.stream().map(JournalQueueStore::book).toList());
+    }
+
+    @Override
+    public int claim(String id) {
+        // The in-memory index already decided who removes an appointment; the journal only records it
+        append(List.of(remove(id)));
+        return 1;
+    }
+
+    @Override
+    public int[] claimAll(List<String> ids) {
+        append(ids.stream().map(JournalQueueStore::remove).toList());
+        int[] claimed = new int[ids.size()];
+        Arrays.fill(claimed, 1);
+        return claimed;
+    }
+
+    @Override
+    public int[] archiveAll(List<Appointment> batch, Instant archivedAt) {
+        // The in-memory index already decided which appointments are archived. The archive rows and
+        // the removals go into one append, archive rows first: the database never loses an appointment
+        // between the two tables, and consecutive records of one type still apply as one JDBC batch.
+        List<byte[]> records = new ArrayList<>(batch.size() * 2);
+        batch.forEach(a -> records.add(archive(a, archivedAt)));
+        batch.forEach(a -> records.add(remove(a.id)));
+        append(records);
+        int[] archived = new int[batch.size()];
+        Arrays.fill(archived, 1);
+        return archived;
+    }
+
+    @Override
+    public QueueSettings saveSettings(QueueSettings settings) {
+        append(List.of(encode(out -> {
+            out.writeByte(SETTINGS);
+            out.writeUTF(settings.getQueueId());
+            out.writeInt(settings.getOpenHour());
+            out.writeInt(settings.getCloseHour());
+            out.writeInt(settings.getDurationMinutes());
+            out.writeLong(settings.getVersion());
+            out.writeLong(settings.getUpdatedAt().getEpochSecond());
+        })));
+        return settings;
+    }
+
+    /** @brief Appends records and returns once they are on disk, usually sharing the flush with other changes. */
+    private void append(List<byte[]> records) {
+        long end = journal.append(records);
+        syncTimer.record(() -> journal.sync(end));
+    }
+
+    // --- Applying the journal to the database ---
+
+    /** @brief Applies every durable record not yet in the database. Runs on the applier thread. */
+    private void applyPending() {
+        try {
+            while (applyBatch() > 0) {
+                // Keep going until caught up
+            }
+        } catch (DataIntegrityViolationException ex) {
+            // Already logged; the isolated record is tried again on the next run, until it is rejected
+        } catch (RuntimeException ex) {
+            // Nothing is lost: the records stay in the journal and are retried on the next run
+            log.error("Could not apply the journal to the database; retrying in {} ms", applyIntervalMillis, ex);
+        }
+    }
+
+    /**
+     * @brief Applies the next batch of records in one transaction, together with the new checkpoint.
+     * @return The number of records applied or rejected.
+     * @throws DataIntegrityViolationException if a record isolated by an earlier violation failed again but may still be retried.
+     */
+    private int applyBatch() {
+        boolean isolating = applied < isolateUntil;
+        QueueJournal.Batch batch = journal.read(applied, isolating ? 1 : applyBatchSize);
+        if (batch.records().isEmpty()) return 0;
+        try {
+            transactions.executeWithoutResult(status -> {
+                // Consecutive records of one type go to the database as one JDBC batch, in journal order
+                String sql = null;
+                List<Object[]> rows = new ArrayList<>();
+                for (byte[] record : batch.records()) {
+                    Object[] row = decode(record);
+                    String rowSql = (String) row[0];
+                    if (!rowSql.equals(sql)) {
+                        if (sql != null) jdbc.batchUpdate(sql, rows);
+                        sql = rowSql;
+                        rows = new ArrayList<>();
+                    }
+                    rows.add(Arrays.copyOfRange(row, 1, row.length));
+                }
+                jdbc.batchUpdate(sql, rows);
+                jdbc.update("update journal_checkpoint set applied_position = ? where id = 1", batch.end());
+            });
+        } catch (DataIntegrityViolationException ex) {
+            if (!isolating) {
+                // Some record of the batch breaks a constraint; find it by applying them one at a time
+                log.warn("A batch of {} journal records broke a database constraint; applying them one at a time",
+                        batch.records().size());
+                isolateUntil = batch.end();
+                return applyBatch();
+            }
+            if (++failedAttempts < maxApplyAttempts) {
+                log.warn("Journal record at {} broke a database constraint (attempt {} of {}): {}",
+                        applied, failedAttempts, maxApplyAttempts, ex.getMostSpecificCause().getMessage());
+                throw ex;
+            }
+            reject(batch, ex);
+        }
+        failedAttempts = 0;
+        applied = batch.end();
+        journal.release(applied);
+        return batch.records().size();
+    }
+
+    /** @brief Moves a single record that keeps breaking a constraint to journal_rejected and steps over it. */
+    private void reject(QueueJournal.Batch batch, DataIntegrityViolationException ex) {
+        byte[] record = batch.records().get(0);
+        String error = String.valueOf(ex.getMostSpecificCause().getMessage());
+        transactions.executeWithoutResult(status -> {
+            jdbc.update(INSERT_REJECTED, applied, record,
+                    error.substring(0, Math.min(error.length(), 1000)), OffsetDateTime.now(ZoneOffset.UTC));
+            jdbc.update("update journal_checkpoint set applied_position = ? where id = 1", batch.end());
+        });
+        rejectedCounter.increment();
+        Object[] row = decode(record);
+        log.error("Moved acknowledged journal record at {} ({} for {}) to journal_rejected after {} attempts: {}",
+                applied, ((String) row[0]).split(" ")[0], row[1], failedAttempts, error);
+        if (INSERT_APPOINTMENT.equals(row[0]) && opened) {
+            // The customer was told the booking succeeded; take it out of the queue the way a cancel would
+            Appointment dropped = appointmentService.getObject().dropRejected((String) row[2], (String) row[1]);
+            if (dropped != null) queueEvents.getObject().appointmentRemoved(dropped);
+        }
+    }
+
+    // --- Record encoding ---
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // Cannot happen for an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] book(Appointment a) {
+        return encode(out -> {
+            out.writeByte(BOOK);
+            out.writeUTF(a.id);
+            out.writeUTF(a.queueId);
+            out.writeUTF(a.name);
+            out.writeLong(a.date.toEpochDay());
+            out.writeInt(a.hour);
+        });
+    }
+
+    private static byte[] archive(Appointment a, Instant archivedAt) {
+        return encode(out -> {
+            out.writeByte(ARCHIVE);
+            out.writeUTF(a.id);
+            out.writeUTF(a.queueId);
+            out.writeUTF(a.name);
+            out.writeLong(a.date.toEpochDay());
+            out.writeInt(a.hour);
+            out.writeLong(archivedAt.toEpochMilli());
+        });
+    }
+
+    private static byte[] remove(String id) {
+        return encode(out -> {
+            out.writeByte(REMOVE);
+            out.writeUTF(id);
+        });
+    }
+
+    /** @return The SQL statement that applies the record, followed by its parameters. */
+    private static Object[] decode(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            byte type = in.readByte();
+            switch (type) {
+                case BOOK -> {
+                    String id = in.readUTF();
+                    String queueId = in.readUTF();
+                    String name = in.readUTF();
+                    LocalDate date = LocalDate.ofEpochDay(in.readLong());
+                    int hour = in.readInt();
+                    return new Object[] {INSERT_APPOINTMENT, id, queueId, name, SlotIndex.normalizeName(name), date, hour};
+                }
+                case REMOVE -> {
+                    return new Object[] {DELETE_APPOINTMENT, in.readUTF()};
+                }
+                case ARCHIVE -> {
+                    return new Object[] {MERGE_ARCHIVED, in.readUTF(), in.readUTF(), in.readUTF(),
+                            LocalDate.ofEpochDay(in.readLong()), in.readInt(),
+                            OffsetDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()), ZoneOffset.UTC)};
+                }
+                case SETTINGS -> {
+                    return new Object[] {MERGE_SETTINGS, in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readLong(),
+                            OffsetDateTime.ofInstant(Instant.ofEpochSecond(in.readLong()), ZoneOffset.UTC)};
+                }
+                default -> throw new IllegalStateException("Unknown journal record type " + type);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unreadable journal record", ex);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package smartqueue;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief Default {@link QueueSequence}: one in-memory counter per queue, starting at 0 on every start.
+ * * Dashboards see the numbers go back after a restart and reload the queue, as they always have.
+ */
+@Component
+@ConditionalOnProperty(name = "smartqueue.broker.mode", havingValue = "simple", matchIfMissing = true)
+public class LocalQueueSequence implements QueueSequence {
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public long current(String queueId) {
+        return counter(queueId).get();
+    }
+
+    @Override
+    public long next(String queueId) {
+        return counter(queueId).incrementAndGet();
+    }
+
+    private AtomicLong counter(String queueId) {
+        return counters.computeIfAbsent(queueId, q -> new AtomicLong());
+    }
+}
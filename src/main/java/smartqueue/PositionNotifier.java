@@ -0,0 +1,237 @@
+package smartqueue;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief Pushes each waiting customer's position and wait estimate to their notify topic.
+ * * Customers who are subscribed to {@code /topic/queues/{queue}/notify/{id}}, over STOMP or
+ * {@link QueueEventStream}, no longer need to poll /position or /wait-time. Whenever a queue
+ * changes, the notifier remembers the earliest (date, hour) that was touched in that queue. Once
+ * per broadcast window it re-ranks only the watched appointments of changed queues scheduled
+ * after that point (the only ones whose numbers can have moved), each in O(log n) against the
+ * queue's in-memory index, and sends an update only if the values actually differ from the last
+ * ones that customer received.
+ */
+@Component
+public class PositionNotifier {
+
+    /** @brief Path segment between the queue id and the appointment id in a notification topic. */
+    private static final String NOTIFY_SEGMENT = "/notify/";
+
+    /** @brief Change point meaning "every appointment in the queue", e.g. after its duration changed. */
+    private static final AppointmentDatabase.Slot EVERYTHING = new AppointmentDatabase.Slot(LocalDate.MIN, Integer.MIN_VALUE);
+
+    /** @brief Last values pushed for one watched appointment. */
+    private static final class Watch {
+        final String queueId;
+        int subscribers;
+        volatile int position = -1;
+        volatile int waitMinutes = -1;
+        volatile boolean pushed = false;
+
+        Watch(String queueId) {
+            this.queueId = queueId;
+        }
+    }
+
+    private final AppointmentService appointmentService;
+    private final QueueBroadcaster broadcaster;
+
+    /** @brief Watched appointment id to the last values pushed for it. */
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+
+    /** @brief STOMP session id to (subscription id to appointment id), for unsubscribe and disconnect. */
+    private final Map<String, Map<String, String>> subscriptions = new ConcurrentHashMap<>();
+
+    /** @brief Queue id to the earliest (date, hour) touched there since the last refresh. Guarded by this. */
+    private Map<String, AppointmentDatabase.Slot> changes = new HashMap<>();
+
+    /** @brief True while a refresh is scheduled. Guarded by this. */
+    private boolean refreshScheduled;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param appointmentService Source of positions and wait counts.
+     * @param broadcaster Sends the updates and runs the refresh after each broadcast window.
+     */
+    public PositionNotifier(AppointmentService appointmentService, QueueBroadcaster broadcaster) {
+        this.appointmentService = appointmentService;
+        this.broadcaster = broadcaster;
+    }
+
+    /**
+     * @brief Returns the topic a waiting customer receives their own notifications on.
+     * @param queueId The queue the appointment was booked in.
+     * @param id The UUID of the appointment.
+     * @return The topic, e.g. /topic/queues/main/notify/{id}.
+     */
+    public static String notifyTopic(String queueId, String id) {
+        return QueueEventPublisher.QUEUE_TOPIC_PREFIX + queueId + NOTIFY_SEGMENT + id;
+    }
+
+    /**
+     * @param name The customer's name.
+     * @return The notification sent on their notify topic when they are served.
+     */
+    public static String turnMessage(String name) {
+        return "It is your turn, " + name + "!";
+    }
+
+    /**
+     * @param topic A destination.
+     * @return True if it is one of the per-appointment notification topics.
+     */
+    public static boolean isNotifyTopic(String topic) {
+        return topic.startsWith(QueueEventPublisher.QUEUE_TOPIC_PREFIX) && topic.contains(NOTIFY_SEGMENT);
+    }
+
+    /**
+     * @brief Starts watching an appointment when a customer page subscribes to its notify topic.
+     * @param event The STOMP SUBSCRIBE event.
+     */
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = headers.getDestination();
+        if (destination == null || !isNotifyTopic(destination)) return;
+
+        // /topic/queues/{queue}/notify/{id}
+        String path = destination.substring(QueueEventPublisher.QUEUE_TOPIC_PREFIX.length());
+        int split = path.indexOf(NOTIFY_SEGMENT);
+        String queueId = path.substring(0, split);
+        String id = path.substring(split + NOTIFY_SEGMENT.length());
+        if (!appointmentService.hasQueue(queueId)) return;
+
+        subscriptions.computeIfAbsent(headers.getSessionId(), s -> new ConcurrentHashMap<>())
+                .put(headers.getSubscriptionId(), id);
+        watch(queueId, id);
+    }
+
+    /**
+     * @brief Starts watching an appointment for a subscriber outside STOMP, such as a {@link QueueEventStream} page.
+     * Every call must be matched by one {@link #release(String)}.
+     * @param queueId The queue the appointment was booked in.
+     * @param id The UUID of the appointment.
+     */
+    public void watch(String queueId, String id) {
+        watches.compute(id, (key, watch) -> {
+            if (watch == null) watch = new Watch(queueId);
+            watch.subscribers++;
+            // A new subscriber has not seen anything yet, so the next refresh must push
+            watch.pushed = false;
+            return watch;
+        });
+        scheduleRefresh();
+    }
+
+    /**
+     * @brief Drops one subscriber of an appointment, and stops watching it once none are left.
+     * @param id The UUID of the appointment.
+     */
+    public void release(String id) {
+        watches.computeIfPresent(id, (key, watch) -> --watch.subscribers <= 0 ? null : watch);
+    }
+
+    /**
+     * @brief Stops watching when a customer page unsubscribes.
+     * @param event The STOMP UNSUBSCRIBE event.
+     */
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> session = subscriptions.get(headers.getSessionId());
+        if (session == null) return;
+        String id = session.remove(headers.getSubscriptionId());
+        if (id != null) release(id);
+    }
+
+    /**
+     * @brief Stops watching everything a closed session was subscribed to.
+     * @param event The session disconnect event.
+     */
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> session = subscriptions.remove(event.getSessionId());
+        if (session == null) return;
+        session.values().forEach(this::release);
+    }
+
+    /**
+     * @brief Records which part of which queue a change touched.
+     * @param event The queue event published for the change.
+     */
+    @EventListener
+    public void onQueueEvent(QueueEvent event) {
+        if (event.date() == null || event.hour() == null) return; // Hours changes do not move anyone
+        markChanged(event.queue(), new AppointmentDatabase.Slot(event.date(), event.hour()));
+    }
+
+    /**
+     * @brief Re-checks every watcher of a queue, e.g. after its appointment duration changed.
+     * @param queueId The queue whose estimates changed.
+     */
+    public void refreshAll(String queueId) {
+        markChanged(queueId, EVERYTHING);
+    }
+
+    private void markChanged(String queueId, AppointmentDatabase.Slot from) {
+        synchronized (this) {
+            changes.merge(queueId, from, (a, b) -> isBefore(b, a) ? b : a);
+        }
+        scheduleRefresh();
+    }
+
+    /** @return True if slot a comes strictly before slot b in queue order. */
+    private static boolean isBefore(AppointmentDatabase.Slot a, AppointmentDatabase.Slot b) {
+        int c = a.date().compareTo(b.date());
+        return c < 0 || (c == 0 && a.hour() < b.hour());
+    }
+
+    private void scheduleRefresh() {
+        synchronized (this) {
+            if (refreshScheduled) return;
+            refreshScheduled = true;
+        }
+        broadcaster.runAfterWindow(this::refresh);
+    }
+
+    /** @brief Runs on the broadcaster thread once per window in which something changed. */
+    private void refresh() {
+        Map<String, AppointmentDatabase.Slot> changed;
+        synchronized (this) {
+            changed = changes;
+            changes = new HashMap<>();
+            refreshScheduled = false;
+        }
+
+        watches.forEach((id, watch) -> {
+            // Only appointments after the earliest change in their own queue can have moved
+            AppointmentDatabase.Slot from = changed.get(watch.queueId);
+            if (from == null && watch.pushed) return;
+
+            Appointment a = appointmentService.getAppointment(watch.queueId, id);
+            if (a == null) return; // Canceled or served; the serve sends its own message
+            boolean affected = from != null && !isBefore(new AppointmentDatabase.Slot(a.date, a.hour), from);
+            if (!affected && watch.pushed) return;
+
+            int position = appointmentService.getPosition(watch.queueId, id);
+            int waitCount = appointmentService.getWaitCount(watch.queueId, a.date, a.hour);
+            int waitMinutes = appointmentService.estimateWaitMinutes(watch.queueId, waitCount, a.hour);
+            if (watch.pushed && position == watch.position && waitMinutes == watch.waitMinutes) return;
+
+            watch.position = position;
+            watch.waitMinutes = waitMinutes;
+            watch.pushed = true;
+            broadcaster.send(notifyTopic(watch.queueId, id), new PositionUpdate(position, waitCount, waitMinutes));
+        });
+    }
+}
@@ -0,0 +1,22 @@
+package smartqueue;
+
+/**
+ * A live position and wait estimate pushed to one customer on {@code /topic/queues/{q}/notify/{id}}.
+ *
+ * The type field lets the customer page tell these apart from the plain-text
+ * "It is your turn" notification sent on the same topic. Position is the 0-based place
+ * in the appointment's own queue (as returned by /position); waitCount and waitMinutes match
+ * the /wait-time estimate of that queue for the appointment's own date and hour.
+ */
+public record PositionUpdate(
+        String type,
+        int position,
+        int waitCount,
+        int waitMinutes
+) {
+
+    /** Creates a POSITION update. */
+    public PositionUpdate(int position, int waitCount, int waitMinutes) {
+        this("POSITION", position, waitCount, waitMinutes);
+    }
+}
@@ -0,0 +1,191 @@
+package smartqueue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Sends WebSocket messages off the request thread, coalescing bursts per topic.
+ * * Handing a message to the broker fans it out to every subscribed session, so sending it
+ * from the HTTP request thread ties book/serve latency to the number of connected clients.
+ * Instead, controllers hand messages to this component and return immediately. Coalesced
+ * topics collect everything published within a short window and go out as one JSON array,
+ * so a burst of bookings costs a single fan-out instead of one per booking.
+ * * Every message also goes to the customer pages subscribed to the same topic over
+ * Server-Sent Events ({@link QueueEventStream}).
+ */
+@Component
+public class QueueBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueBroadcaster.class);
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    /** @brief Looked up lazily: the stream depends on components that depend on this one. */
+    private final ObjectProvider<QueueEventStream> eventStream;
+
+    /** @brief Single sender thread, which also keeps messages on a topic in order. */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "queue-broadcaster");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** @brief How long to keep collecting messages for a topic before sending them. */
+    private final long windowMillis;
+
+    /** @brief Messages waiting for the current window to close, grouped by topic. */
+    private Map<String, List<Object>> pending = new LinkedHashMap<>();
+
+    /** @brief True while a flush is scheduled for the current window. */
+    private boolean flushScheduled = false;
+
+    private final Counter coalescedCounter;
+    private final Counter sentCounter;
+    private final Counter droppedSessionCounter;
+    private final MeterRegistry meterRegistry;
+
+    /** @brief Fan-out timer per destination, with every notify topic sharing one timer. Used by the sender thread only. */
+    private final Map<String, Timer> fanOutTimers = new HashMap<>();
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param messagingTemplate Template for sending WebSocket messages.
+     * @param eventStream Provider for the Server-Sent Events channel that receives the same messages.
+     * @param meterRegistry Registry the broadcast metrics are published to.
+     * @param windowMillis Coalescing window in milliseconds (smartqueue.broadcast.window-ms).
+     */
+    public QueueBroadcaster(SimpMessagingTemplate messagingTemplate, ObjectProvider<QueueEventStream> eventStream,
+                            MeterRegistry meterRegistry,
+                            @Value("${smartqueue.broadcast.window-ms:100}") long windowMillis) {
+        this.messagingTemplate = messagingTemplate;
+        this.eventStream = eventStream;
+        this.meterRegistry = meterRegistry;
+        this.windowMillis = windowMillis;
+        this.coalescedCounter = Counter.builder("smartqueue.broadcast.coalesced")
+                .description("Messages merged into an already pending broadcast instead of sent on their own")
+                .register(meterRegistry);
+        this.sentCounter = Counter.builder("smartqueue.broadcast.sent")
+                .description("Messages handed to the broker for fan-out")
+                .register(meterRegistry);
+        this.droppedSessionCounter = Counter.builder("smartqueue.broadcast.sessions.dropped")
+                .description("WebSocket sessions closed for exceeding the send time or buffer limit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @brief Queues a message that may be merged with others sent to the same topic.
+     * Subscribers receive a JSON array holding every message published during the window.
+     * @param topic The destination, e.g. /topic/queues/main/queue-update.
+     * @param payload The message to add to the next batch.
+     */
+    public void coalesce(String topic, Object payload) {
+        boolean schedule;
+        synchronized (this) {
+            List<Object> batch = pending.get(topic);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                pending.put(topic, batch);
+            } else {
+                coalescedCounter.increment();
+            }
+            batch.add(payload);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            executor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @brief Sends a single message off the request thread, without merging.
+     * Used for targeted messages such as the "It is your turn" notification.
+     * @param topic The destination, e.g. /topic/queues/main/notify/{id}.
+     * @param payload The message to send.
+     */
+    public void send(String topic, Object payload) {
+        executor.execute(() -> deliver(topic, payload));
+    }
+
+    /**
+     * @brief Runs a task on the sender thread once the current broadcast window has passed.
+     * Lets other components batch their own work (and sends) to the same cadence.
+     * @param task The work to run.
+     */
+    public void runAfterWindow(Runnable task) {
+        executor.schedule(task, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** @brief Records a WebSocket session the server closed because it could not keep up. */
+    public void sessionDropped() {
+        droppedSessionCounter.increment();
+    }
+
+    /** @brief Sends anything still pending before the application shuts down. */
+    @PreDestroy
+    public void shutdown() {
+        executor.execute(this::flush);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        Map<String, List<Object>> batches;
+        synchronized (this) {
+            batches = pending;
+            pending = new LinkedHashMap<>();
+            flushScheduled = false;
+        }
+        batches.forEach(this::deliver);
+    }
+
+    private void deliver(String topic, Object payload) {
+        // Caught per topic and per channel: one failed send must neither kill the sender thread nor
+        // drop the rest of a flush, and a failure on the event streams must not cost the STOMP pages theirs
+        try {
+            fanOutTimer(topic).record(() -> {
+                try {
+                    eventStream.getObject().publish(topic, payload);
+                } catch (RuntimeException ex) {
+                    log.warn("Failed to stream to {}", topic, ex);
+                }
+                messagingTemplate.convertAndSend(topic, payload);
+            });
+            sentCounter.increment();
+        } catch (RuntimeException ex) {
+            log.warn("Failed to broadcast to {}", topic, ex);
+        }
+    }
+
+    private Timer fanOutTimer(String topic) {
+        // One tag value per customer would grow without bound, so all notify topics share one
+        String destination = PositionNotifier.isNotifyTopic(topic)
+                ? PositionNotifier.notifyTopic("{queue}", "{id}")
+                : topic;
+        return fanOutTimers.computeIfAbsent(destination, d -> Timer.builder("smartqueue.broadcast.fanout")
+                .description("Time to hand one message to every subscribed session and event stream")
+                .tag("destination", d)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,50 @@
+package smartqueue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * @brief Position in a queue listing: the (date, hour, id) key of the last appointment returned.
+ * * The next page starts strictly after this key, so pages never overlap or skip anyone, even
+ * when appointments are booked or served between two requests. Clients receive it as an opaque
+ * URL-safe string and send it back unchanged.
+ * @param date The appointment date.
+ * @param hour The appointment hour.
+ * @param id The appointment UUID, which breaks ties within a slot.
+ */
+public record QueueCursor(LocalDate date, int hour, String id) {
+
+    /**
+     * @brief Creates the cursor that continues after an appointment.
+     * @param a The last appointment of a page.
+     * @return The cursor for the next page.
+     */
+    public static QueueCursor after(Appointment a) {
+        return new QueueCursor(a.date, a.hour, a.id);
+    }
+
+    /** @return The cursor as an opaque URL-safe string. */
+    public String encode() {
+        String key = date + "|" + hour + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @brief Reads a cursor produced by {@link #encode()}.
+     * @param cursor The opaque string sent by the client.
+     * @return The decoded cursor.
+     * @throws IllegalArgumentException if the string is not a valid cursor.
+     */
+    public static QueueCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 3);
+            if (parts.length != 3 || parts[2].isEmpty()) throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            return new QueueCursor(LocalDate.parse(parts[0]), Integer.parseInt(parts[1]), parts[2]);
+        } catch (DateTimeParseException ex) {
+            // NumberFormatException and Base64 errors are already IllegalArgumentExceptions
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, ex);
+        }
+    }
+}
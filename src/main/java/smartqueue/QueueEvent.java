@@ -0,0 +1,58 @@
+package smartqueue;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * A single, sequence-numbered change to one queue.
+ *
+ * Each queue numbers its own events and broadcasts them on its own topic
+ * ({@link QueueEventPublisher#topic(String)}) so connected dashboards can patch
+ * their local state instead of re-fetching everything. Because that topic is public, the
+ * broadcast copy is stripped of the appointment UUID and customer name (see
+ * {@link #publicView()}); staff fetch the full events through the resync endpoint.
+ * Fields that do not apply to an event type are left null and omitted from the JSON.
+ *
+ * Bulk requests publish one event for the whole batch, with every appointment listed in
+ * {@code appointments}. Its {@code date} and {@code hour} are those of the earliest appointment
+ * in the batch, the first point in the queue the batch can have moved.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record QueueEvent(
+        long seq,
+        String queue,
+        Type type,
+        String id,
+        String name,
+        LocalDate date,
+        Integer hour,
+        Integer openHour,
+        Integer closeHour,
+        List<Entry> appointments
+) {
+
+    /** One appointment of a bulk event. */
+    public record Entry(String id, String name, LocalDate date, int hour) {}
+
+    /** The kinds of change a client may need to apply. */
+    public enum Type {
+        APPOINTMENT_ADDED,
+        APPOINTMENT_REMOVED,
+        APPOINTMENT_SERVED,
+        HOURS_CHANGED,
+        APPOINTMENTS_ADDED,
+        APPOINTMENTS_REMOVED
+    }
+
+    /**
+     * @return A copy of this event without the appointment UUID or customer name,
+     * safe to send to every subscriber.
+     */
+    public QueueEvent publicView() {
+        List<Entry> slots = appointments == null ? null : appointments.stream()
+                .map(e -> new Entry(null, null, e.date(), e.hour()))
+                .toList();
+        return new QueueEvent(seq, queue, type, null, null, date, hour, openHour, closeHour, slots);
+    }
+}
@@ -0,0 +1,277 @@
+package smartqueue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * @brief Assigns sequence numbers to queue changes, keeps a short history, and broadcasts them.
+ * * Every queue has its own sequence, history and topic, so busy branches neither contend
+ * with nor push out the history of quiet ones. Clients remember the last sequence number they
+ * applied. If the next event they receive skips ahead, they ask {@link #since(String, long)}
+ * for the missing events and only fall back to a full reload when the gap is older than the
+ * retained history. Each event is also published as a Spring application event for
+ * in-process listeners such as {@link PositionNotifier}.
+ * * Numbers come from a {@link QueueSequence}. With the broker relay they are shared by every
+ * instance, and the events other instances publish are added to the history through
+ * {@link #replay(QueueEvent)}, so they can arrive out of order: the history only hands out
+ * events up to the first missing number, and gives up on a number that is still missing
+ * after the gap timeout.
+ */
+@Component
+public class QueueEventPublisher {
+
+    /** @brief Prefix of the per-queue topics that dashboards subscribe to for queue changes. */
+    public static final String QUEUE_TOPIC_PREFIX = "/topic/queues/";
+
+    /** @brief Number of recent events kept per queue for resync requests. */
+    private static final int HISTORY_SIZE = 1024;
+
+    /** @brief Queue order, used to find the earliest appointment of a batch. */
+    private static final Comparator<Appointment> BATCH_ORDER =
+            Comparator.comparing((Appointment a) -> a.date).thenComparingInt(a -> a.hour);
+
+    /** @brief Sequence numbers and recent events of one queue. Guarded by itself. */
+    private static final class History {
+        /** @brief Ring buffer of recent events, indexed by seq % HISTORY_SIZE. */
+        final QueueEvent[] events = new QueueEvent[HISTORY_SIZE];
+
+        /** @brief Sequence number up to which every event is known (0 means nothing published yet). */
+        long lastSeq;
+
+        /** @brief Highest sequence number recorded; above lastSeq while an earlier event is missing. */
+        long highestSeq;
+
+        /** @brief System.nanoTime() when an event was first found missing, 0 while none is. */
+        long gapSince;
+
+        History(long lastSeq) {
+            this.lastSeq = lastSeq;
+            this.highestSeq = lastSeq;
+        }
+    }
+
+    private final QueueBroadcaster broadcaster;
+    private final ApplicationEventPublisher applicationEvents;
+    private final QueueSequence sequence;
+
+    /** @brief How long a missing sequence number holds back the history before it is given up on. */
+    private final long gapTimeoutNanos;
+
+    /** @brief Queue id to that queue's history, created on first use. */
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param broadcaster Sends the events off the request thread, batched per window.
+     * @param applicationEvents Delivers the events to in-process listeners.
+     * @param sequence Numbers the events (smartqueue.broker.mode).
+     * @param gapTimeoutMillis Longest wait for a missing event of another instance (smartqueue.cluster.gap-timeout-ms).
+     */
+    public QueueEventPublisher(QueueBroadcaster broadcaster, ApplicationEventPublisher applicationEvents,
+                               QueueSequence sequence,
+                               @Value("${smartqueue.cluster.gap-timeout-ms:2000}") long gapTimeoutMillis) {
+        this.broadcaster = broadcaster;
+        this.applicationEvents = applicationEvents;
+        this.sequence = sequence;
+        this.gapTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(gapTimeoutMillis);
+    }
+
+    /**
+     * @brief Returns the topic a queue's events are broadcast on.
+     * @param queueId The queue id.
+     * @return The topic, e.g. /topic/queues/main/queue-update.
+     */
+    public static String topic(String queueId) {
+        return QUEUE_TOPIC_PREFIX + queueId + "/queue-update";
+    }
+
+    /** @brief Publishes that a customer booked an appointment. */
+    public void appointmentAdded(Appointment a) {
+        publish(QueueEvent.Type.APPOINTMENT_ADDED, a);
+    }
+
+    /** @brief Publishes that a customer canceled their appointment. */
+    public void appointmentRemoved(Appointment a) {
+        publish(QueueEvent.Type.APPOINTMENT_REMOVED, a);
+    }
+
+    /** @brief Publishes that staff served an appointment. */
+    public void appointmentServed(Appointment a) {
+        publish(QueueEvent.Type.APPOINTMENT_SERVED, a);
+    }
+
+    /**
+     * @brief Publishes a batch of bookings as a single event per queue.
+     * @param added The appointments booked together; nothing is published if empty.
+     */
+    public void appointmentsAdded(List<Appointment> added) {
+        publishBatch(QueueEvent.Type.APPOINTMENTS_ADDED, added);
+    }
+
+    /**
+     * @brief Publishes a batch of cancellations (or archived appointments) as a single event per queue.
+     * @param removed The appointments removed together; nothing is published if empty.
+     */
+    public void appointmentsRemoved(List<Appointment> removed) {
+        publishBatch(QueueEvent.Type.APPOINTMENTS_REMOVED, removed);
+    }
+
+    /**
+     * @brief Publishes new business hours; the payload carries them so clients need not re-fetch.
+     * @param queueId The queue whose hours changed.
+     * @param openHour The new opening hour.
+     * @param closeHour The new closing hour.
+     */
+    public void hoursChanged(String queueId, int openHour, int closeHour) {
+        History history = history(queueId);
+        QueueEvent event;
+        synchronized (history) {
+            event = record(history, new QueueEvent(sequence.next(queueId), queueId, QueueEvent.Type.HOURS_CHANGED,
+                    null, null, null, null, openHour, closeHour, null));
+            broadcast(event);
+        }
+        applicationEvents.publishEvent(event);
+    }
+
+    /**
+     * @brief Adds an event another instance published to the history and to in-process listeners.
+     * * It is not broadcast again: that instance already sent it to the shared topic.
+     * @param event The event, as received from the other instance.
+     */
+    public void replay(QueueEvent event) {
+        History history = history(event.queue());
+        synchronized (history) {
+            record(history, event);
+        }
+        applicationEvents.publishEvent(event);
+    }
+
+    /**
+     * @param queueId The queue to check.
+     * @return The sequence number up to which every event of the queue is known.
+     */
+    public long currentSeq(String queueId) {
+        History history = history(queueId);
+        synchronized (history) {
+            advance(history);
+            return history.lastSeq;
+        }
+    }
+
+    /**
+     * @brief Returns every event of a queue after the given sequence number, oldest first.
+     * @param queueId The queue to read.
+     * @param seq The last sequence number the caller applied.
+     * @return The missing events (possibly empty), or null if some of them are no longer
+     * retained and the caller must do a full reload.
+     */
+    public List<QueueEvent> since(String queueId, long seq) {
+        History history = history(queueId);
+        synchronized (history) {
+            advance(history);
+            long lastSeq = history.lastSeq;
+            if (seq < 0 || seq > lastSeq || seq < lastSeq - HISTORY_SIZE) {
+                return null;
+            }
+            List<QueueEvent> events = new ArrayList<>((int) (lastSeq - seq));
+            for (long s = seq + 1; s <= lastSeq; s++) {
+                QueueEvent event = history.events[(int) (s % HISTORY_SIZE)];
+                // Numbers given up on are simply left out
+                if (event != null && event.seq() == s) events.add(event);
+            }
+            return events;
+        }
+    }
+
+    private void publish(QueueEvent.Type type, Appointment a) {
+        History history = history(a.queueId);
+        QueueEvent event;
+        synchronized (history) {
+            event = record(history, new QueueEvent(sequence.next(a.queueId), a.queueId, type,
+                    a.id, a.name, a.date, a.hour, null, null, null));
+            broadcast(event);
+        }
+        applicationEvents.publishEvent(event);
+    }
+
+    private void publishBatch(QueueEvent.Type type, List<Appointment> batch) {
+        // A batch may span queues (e.g. the archiver); each queue gets one event for its share
+        Map<String, List<Appointment>> byQueue = batch.stream()
+                .collect(Collectors.groupingBy(a -> a.queueId, LinkedHashMap::new, Collectors.toList()));
+        byQueue.forEach((queueId, appointments) -> {
+            // One sequence number for the whole batch, so a large import cannot push the
+            // rest of the history out of the ring buffer
+            Appointment earliest = appointments.stream().min(BATCH_ORDER).get();
+            List<QueueEvent.Entry> entries = appointments.stream()
+                    .map(a -> new QueueEvent.Entry(a.id, a.name, a.date, a.hour))
+                    .toList();
+            History history = history(queueId);
+            QueueEvent event;
+            synchronized (history) {
+                event = record(history, new QueueEvent(sequence.next(queueId), queueId, type,
+                        null, null, earliest.date, earliest.hour, null, null, entries));
+                broadcast(event);
+            }
+            applicationEvents.publishEvent(event);
+        });
+    }
+
+    private History history(String queueId) {
+        return histories.computeIfAbsent(queueId, q -> new History(sequence.current(q)));
+    }
+
+    private QueueEvent record(History history, QueueEvent event) {
+        long seq = event.seq();
+        // Already known, or from before this instance started
+        if (seq <= history.lastSeq) return event;
+        history.events[(int) (seq % HISTORY_SIZE)] = event;
+        history.highestSeq = Math.max(history.highestSeq, seq);
+        if (history.highestSeq - history.lastSeq > HISTORY_SIZE) {
+            // Waiting any longer would overwrite events that are already known
+            history.lastSeq = history.highestSeq - HISTORY_SIZE;
+        }
+        advance(history);
+        return event;
+    }
+
+    /** @brief Moves lastSeq over every event that has arrived, and past missing ones once they time out. */
+    private void advance(History history) {
+        while (history.lastSeq < history.highestSeq) {
+            long next = history.lastSeq + 1;
+            QueueEvent event = history.events[(int) (next % HISTORY_SIZE)];
+            if (event != null && event.seq() == next) {
+                history.lastSeq = next;
+                history.gapSince = 0;
+                continue;
+            }
+            long now = System.nanoTime();
+            if (history.gapSince == 0) {
+                history.gapSince = now;
+                return;
+            }
+            if (now - history.gapSince < gapTimeoutNanos) return;
+            // The instance that took the number never published it (or it was lost); stop waiting for anything up to now
+            history.lastSeq = history.highestSeq;
+        }
+        history.gapSince = 0;
+    }
+
+    /**
+     * @brief Hands an event to the broadcaster. Called while holding the queue's history lock,
+     * so events reach the topic in the order their sequence numbers were assigned.
+     */
+    private void broadcast(QueueEvent event) {
+        // Only the redacted copy goes out on the public topic; subscribers receive
+        // a JSON array of every event published during the broadcast window
+        broadcaster.coalesce(topic(event.queue()), event.publicView());
+    }
+}
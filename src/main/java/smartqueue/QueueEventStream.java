@@ -0,0 +1,445 @@
+package smartqueue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @brief Server-Sent Events channel for customer pages, an opt-in alternative to a SockJS/STOMP session.
+ * * A customer page only receives: its queue's updates and its own notifications. Here a page is
+ * one open response, registered under the same topics as its STOMP subscriptions in one shared
+ * registry, and {@link QueueBroadcaster} hands every message it sends to the broker to
+ * {@link #publish(String, Object)} as well. A message is encoded once and the same bytes are queued
+ * for every subscriber, then written with non-blocking servlet I/O, so a slow reader never holds
+ * up the sender thread. One that falls send-buffer-size-limit bytes behind is closed, and its
+ * browser reconnects.
+ * * Queue updates carry their sequence number as the event id. A reconnecting browser sends the
+ * last one back in Last-Event-ID and first receives what it missed from the
+ * {@link QueueEventPublisher} history, including its own "It is your turn", or a resync event if
+ * that is no longer retained.
+ * * An idle stream holds more heap than an idle SockJS session (ConnectionMemoryLoadTest): Tomcat
+ * keeps an open response's request and response buffers, but releases them once a connection is
+ * upgraded to a WebSocket. So the booking page only streams when opened with ?transport=sse.
+ */
+@Component
+public class QueueEventStream {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueEventStream.class);
+
+    /** @brief SSE event name of the queue updates (a JSON array of public events, like the STOMP topic). */
+    public static final String QUEUE_UPDATE_EVENT = "queue-update";
+
+    /** @brief SSE event name of the notify messages (position updates and "It is your turn"). */
+    public static final String NOTIFY_EVENT = "notify";
+
+    /** @brief SSE event name telling the page that missed events are gone and it must reload; the data is the current seq. */
+    public static final String RESYNC_EVENT = "resync";
+
+    /** @brief Comment line sent to every connection each heartbeat period; keeps proxies from timing out idle streams and exposes dead ones. */
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final QueueEventPublisher queueEvents;
+    private final PositionNotifier positionNotifier;
+    private final AppointmentService appointmentService;
+    private final ObjectMapper objectMapper;
+
+    /** @brief Most unsent data a slow connection may have queued before it is closed. */
+    private final long sendBufferSizeLimitBytes;
+
+    /** @brief Topic to its subscribed connections. */
+    private final Map<String, Set<Connection>> subscribers = new ConcurrentHashMap<>();
+
+    /** @brief Every open connection, for the heartbeat and shutdown. */
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter droppedCounter;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param queueEvents History replayed to reconnecting pages.
+     * @param positionNotifier Pushes position updates to the pages that stream an appointment's notifications.
+     * @param appointmentService Checks that a requested queue exists.
+     * @param objectMapper Encodes the messages that are not plain text.
+     * @param meterRegistry Registry the connection gauge and drop counter are published to.
+     * @param heartbeatMillis How often every connection gets a heartbeat comment (smartqueue.sse.heartbeat-ms).
+     * @param sendBufferSizeLimitBytes Per-connection backlog limit (smartqueue.sse.send-buffer-size-limit-bytes).
+     */
+    public QueueEventStream(QueueEventPublisher queueEvents, PositionNotifier positionNotifier,
+                            AppointmentService appointmentService, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                            @Value("${smartqueue.sse.heartbeat-ms:25000}") long heartbeatMillis,
+                            @Value("${smartqueue.sse.send-buffer-size-limit-bytes:524288}") long sendBufferSizeLimitBytes) {
+        this.queueEvents = queueEvents;
+        this.positionNotifier = positionNotifier;
+        this.appointmentService = appointmentService;
+        this.objectMapper = objectMapper;
+        this.sendBufferSizeLimitBytes = sendBufferSizeLimitBytes;
+        this.droppedCounter = Counter.builder("smartqueue.sse.dropped")
+                .description("Server-Sent Events connections closed for exceeding the buffer limit")
+                .register(meterRegistry);
+        Gauge.builder("smartqueue.sse.connections", connections, Set::size)
+                .description("Open Server-Sent Events connections")
+                .register(meterRegistry);
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @brief Starts streaming a queue's updates, and an appointment's notifications if one is given, to a page.
+     * * Returns at once; the response stays open until the page goes away.
+     * @param queueId The queue to stream.
+     * @param id The appointment whose notifications to stream, or null for queue updates only.
+     * @param lastEventId The Last-Event-ID the browser sent when reconnecting, or null.
+     * @param request The request, which is put into asynchronous mode.
+     * @param response The response to stream to.
+     * @throws UnknownQueueException if the queue is not configured.
+     */
+    public void open(String queueId, String id, String lastEventId,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!appointmentService.hasQueue(queueId)) throw new UnknownQueueException(queueId);
+
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        // Keeps nginx from buffering the stream
+        response.setHeader("X-Accel-Buffering", "no");
+        // Commits the headers here, through the filters that add their own (e.g. security headers)
+        response.flushBuffer();
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0); // Open until either side closes it; heartbeats detect dead peers
+        Connection connection = new Connection(queueId, id, async, async.getResponse().getOutputStream());
+        async.addListener(connection);
+        // Switches the stream to non-blocking writes
+        connection.out.setWriteListener(connection);
+
+        // Registered before the history is read, so nothing falls between the two; anything
+        // published meanwhile is held back until the replay is queued (duplicates are skipped by seq)
+        connections.add(connection);
+        for (String topic : connection.topics()) {
+            subscribers.computeIfAbsent(topic, t -> ConcurrentHashMap.newKeySet()).add(connection);
+        }
+        if (id != null) positionNotifier.watch(queueId, id);
+        connection.start(replay(queueId, id, lastEventId));
+    }
+
+    /**
+     * @brief Sends a message to the connections subscribed to its topic.
+     * Called with everything {@link QueueBroadcaster} sends, on its sender thread.
+     * @param topic The STOMP destination the message is sent to.
+     * @param payload The message: text, an object, or (for queue updates) a list of events.
+     */
+    public void publish(String topic, Object payload) {
+        Set<Connection> targets = subscribers.get(topic);
+        if (targets == null || targets.isEmpty()) return;
+        byte[] frame;
+        try {
+            frame = PositionNotifier.isNotifyTopic(topic)
+                    ? frame(NOTIFY_EVENT, null, payload instanceof String s ? s : objectMapper.writeValueAsString(payload))
+                    : frame(QUEUE_UPDATE_EVENT, lastSeq(payload), objectMapper.writeValueAsString(payload));
+        } catch (JsonProcessingException ex) {
+            log.warn("Failed to encode a message for {}", topic, ex);
+            return;
+        }
+        for (Connection connection : targets) {
+            connection.send(frame);
+        }
+    }
+
+    /**
+     * @brief Streams an event of another instance to this instance's pages (broker relay mode).
+     * * That instance sent its messages to the broker, which only reaches STOMP sessions, so the
+     * update and, for a serve, the served customer's notification are sent here again.
+     * @param event The full event, as received from the other instance.
+     */
+    public void replayed(QueueEvent event) {
+        publish(QueueEventPublisher.topic(event.queue()), List.of(event.publicView()));
+        if (event.type() == QueueEvent.Type.APPOINTMENT_SERVED && event.id() != null) {
+            publish(PositionNotifier.notifyTopic(event.queue(), event.id()), PositionNotifier.turnMessage(event.name()));
+        }
+    }
+
+    /** @brief Sends the heartbeat comment to every connection; an exception must not cancel the schedule. */
+    private void sendHeartbeats() {
+        try {
+            connections.forEach(c -> c.send(HEARTBEAT));
+        } catch (RuntimeException ex) {
+            log.warn("Failed to send the Server-Sent Events heartbeats", ex);
+        }
+    }
+
+    /** @brief Closes every connection; browsers reconnect to another instance or once this one is back. */
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        connections.forEach(Connection::close);
+    }
+
+    /**
+     * @brief Builds the first frames of a new connection.
+     * @return What the page missed since lastEventId, a resync event if that is no longer known,
+     * or, for a fresh page, just the current seq as the id to resume from.
+     */
+    private List<byte[]> replay(String queueId, String id, String lastEventId) throws JsonProcessingException {
+        long seq;
+        try {
+            seq = lastEventId == null ? -1 : Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException ex) {
+            seq = -1;
+        }
+        if (seq < 0) {
+            // An id without data sets the browser's Last-Event-ID without dispatching an event
+            return List.of(frame(null, queueEvents.currentSeq(queueId), null));
+        }
+        List<QueueEvent> missed = queueEvents.since(queueId, seq);
+        if (missed == null) {
+            long current = queueEvents.currentSeq(queueId);
+            return List.of(frame(RESYNC_EVENT, current, Long.toString(current)));
+        }
+        if (missed.isEmpty()) return List.of();
+
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(frame(QUEUE_UPDATE_EVENT, missed.get(missed.size() - 1).seq(),
+                objectMapper.writeValueAsString(missed.stream().map(QueueEvent::publicView).toList())));
+        for (QueueEvent event : missed) {
+            if (event.type() == QueueEvent.Type.APPOINTMENT_SERVED && id != null && id.equals(event.id())) {
+                frames.add(frame(NOTIFY_EVENT, null, PositionNotifier.turnMessage(event.name())));
+            }
+        }
+        return frames;
+    }
+
+    /** @return The highest sequence number in a batch of queue events, or null if there is none. */
+    private static Long lastSeq(Object payload) {
+        Long seq = null;
+        if (payload instanceof List<?> batch) {
+            for (Object item : batch) {
+                if (item instanceof QueueEvent event && (seq == null || event.seq() > seq)) seq = event.seq();
+            }
+        }
+        return seq;
+    }
+
+    /** @brief Encodes one SSE message; null fields are left out. */
+    private static byte[] frame(String event, Long id, String data) {
+        StringBuilder frame = new StringBuilder();
+        if (id != null) frame.append("id: ").append(id).append('\n');
+        if (event != null) frame.append("event: ").append(event).append('\n');
+        if (data != null) {
+            for (String line : data.split("\n", -1)) {
+                frame.append("data: ").append(line).append('\n');
+            }
+        }
+        return frame.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** @brief One page's open response and the frames waiting to be written to it. */
+    private final class Connection implements WriteListener, AsyncListener {
+
+        final String queueId;
+        final String id;
+        final AsyncContext async;
+        final ServletOutputStream out;
+
+        /** @brief Frames not written yet; shared with the other subscribers, never modified. */
+        private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+
+        /**
+         * @brief Held by the one thread using the stream; the others only queue (the servlet stream is
+         * not thread-safe). Completing takes it too: once the container recycles the response, its
+         * stream belongs to the next request on the connection pool, so nothing may touch it after.
+         */
+        private final ReentrantLock streamLock = new ReentrantLock();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /** @brief Frames published before the replay was queued; null once it was. Guarded by this. */
+        private List<byte[]> held = new ArrayList<>();
+
+        /** @brief Whether written frames may still sit in the response buffer. Only used by the writing thread. */
+        private boolean flushNeeded;
+
+        Connection(String queueId, String id, AsyncContext async, ServletOutputStream out) {
+            this.queueId = queueId;
+            this.id = id;
+            this.async = async;
+            this.out = out;
+        }
+
+        List<String> topics() {
+            return id == null
+                    ? List.of(QueueEventPublisher.topic(queueId))
+                    : List.of(QueueEventPublisher.topic(queueId), PositionNotifier.notifyTopic(queueId, id));
+        }
+
+        /** @brief Queues the replay, then everything published while it was built, and opens the connection for live frames. */
+        void start(List<byte[]> replay) {
+            synchronized (this) {
+                replay.forEach(this::queue);
+                held.forEach(this::queue);
+                held = null;
+            }
+            drain();
+        }
+
+        /** @brief Queues a frame and writes as much as the connection takes right now; never blocks. */
+        void send(byte[] frame) {
+            synchronized (this) {
+                if (held != null) {
+                    held.add(frame);
+                    return;
+                }
+            }
+            queue(frame);
+            drain();
+        }
+
+        private void queue(byte[] frame) {
+            pending.add(frame);
+            long backlog = pendingBytes.addAndGet(frame.length);
+            // Only a backlog counts: a single large frame (e.g. a bulk booking's update) is always accepted
+            if (backlog > frame.length && backlog > sendBufferSizeLimitBytes && !closed.get()) {
+                droppedCounter.increment();
+                close();
+            }
+        }
+
+        /** @brief Writes queued frames until none are left or the connection cannot take more. */
+        private void drain() {
+            while (!closed.get() && streamLock.tryLock()) {
+                boolean blocked;
+                try {
+                    // Checked again under the lock: a completed response must not be written to
+                    if (closed.get()) return;
+                    blocked = writePending();
+                } catch (IOException | RuntimeException ex) {
+                    log.debug("Closing a Server-Sent Events connection after a write failed", ex);
+                    close();
+                    return;
+                } finally {
+                    streamLock.unlock();
+                }
+                // Once blocked, the container calls onWritePossible when the connection drains.
+                // Otherwise re-check: a frame queued while this thread was writing has to be sent by it.
+                if (blocked || pending.isEmpty()) return;
+            }
+        }
+
+        /** @return True if the connection cannot take more for now. */
+        private boolean writePending() throws IOException {
+            while (out.isReady()) {
+                byte[] frame = pending.poll();
+                if (frame == null) {
+                    if (!flushNeeded) return false;
+                    flushNeeded = false;
+                    out.flush();
+                    continue;
+                }
+                pendingBytes.addAndGet(-frame.length);
+                out.write(frame);
+                flushNeeded = true;
+            }
+            return true;
+        }
+
+        /** @brief Closes the connection from this side and completes the response. */
+        void close() {
+            close(true);
+        }
+
+        /**
+         * @brief Unregisters the connection.
+         * @param complete False if the container already ended the response (its callbacks), true to complete it here.
+         */
+        private void close(boolean complete) {
+            if (closed.compareAndSet(false, true)) {
+                connections.remove(this);
+                for (String topic : topics()) {
+                    subscribers.computeIfPresent(topic, (t, set) -> {
+                        set.remove(this);
+                        return set.isEmpty() ? null : set;
+                    });
+                }
+                if (id != null) positionNotifier.release(id);
+                pending.clear();
+            } else if (complete) {
+                return;
+            }
+            // Waits for a write in progress on another thread (writes never block, so this is short).
+            // The container recycles the response once its callback returns, so it waits even if
+            // this side closed first.
+            streamLock.lock();
+            try {
+                if (complete) async.complete();
+            } catch (IllegalStateException ex) {
+                // Already completed by the container
+            } finally {
+                streamLock.unlock();
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            close(false);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close(false);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close(false);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close(false);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
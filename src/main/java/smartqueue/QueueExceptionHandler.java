@@ -0,0 +1,25 @@
+package smartqueue;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * @brief Maps queue errors thrown by the service layer to HTTP responses for every controller.
+ * * Answered directly rather than through Spring's error page, which the security rules would
+ * turn into a 401 for customers who are not logged in.
+ */
+@RestControllerAdvice
+public class QueueExceptionHandler {
+
+    /**
+     * @brief Answers requests for a queue that does not exist.
+     * @param ex The exception naming the queue.
+     * @return 404 Not Found with the error message.
+     */
+    @ExceptionHandler(UnknownQueueException.class)
+    public ResponseEntity<String> unknownQueue(UnknownQueueException ex) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
+    }
+}
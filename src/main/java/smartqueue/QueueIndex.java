@@ -0,0 +1,349 @@
+package smartqueue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @brief In-memory, ordered view of the appointment queue.
+ * * Appointments are kept in an indexable skip list ordered by (date, hour, id), so the
+ * head of the queue, the rank of any appointment and the number of appointments before
+ * a given slot can all be answered in O(log n) without touching the database.
+ * A hash index from appointment UUID to its skip list node makes lookups by id O(1).
+ *
+ * The database remains the system of record: {@link AppointmentService} writes through
+ * to H2 first and only then updates this index, and the index is rebuilt from the
+ * database on startup.
+ */
+public class QueueIndex {
+
+    /** @brief Upper bound on tower height; 2^32 entries is far beyond any realistic queue. */
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * @brief A single skip list entry.
+     * * span[i] is the number of level-0 steps taken when following next[i], which is
+     * what lets us compute ranks while walking down the towers.
+     */
+    private static final class Node {
+        final Appointment appointment;
+        final Node[] next;
+        final int[] span;
+
+        Node(Appointment appointment, int levels) {
+            this.appointment = appointment;
+            this.next = new Node[levels];
+            this.span = new int[levels];
+        }
+    }
+
+    /** @brief Sentinel head node; it never holds an appointment. */
+    private final Node head = new Node(null, MAX_LEVEL);
+
+    /** @brief Hash index from appointment UUID to its node. */
+    private final Map<String, Node> byId = new HashMap<>();
+
+    /** @brief Readers (position/wait-count polls) can run in parallel; writers are exclusive. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** @brief Number of levels currently in use. */
+    private int level = 1;
+
+    /** @brief Number of appointments in the index. */
+    private int size = 0;
+
+    /**
+     * @brief Replaces the contents of the index with the given appointments.
+     * @param appointments The appointments to load (any order).
+     */
+    public void rebuild(List<Appointment> appointments) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < MAX_LEVEL; i++) {
+                head.next[i] = null;
+                head.span[i] = 0;
+            }
+            byId.clear();
+            level = 1;
+            size = 0;
+            for (Appointment a : appointments) {
+                insert(a);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Adds an appointment to the index.
+     * @param a The appointment to add.
+     * @return False if an appointment with the same id is already indexed.
+     */
+    public boolean add(Appointment a) {
+        lock.writeLock().lock();
+        try {
+            if (byId.containsKey(a.id)) return false;
+            insert(a);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Removes an appointment from the index by its UUID.
+     * @param id The UUID of the appointment.
+     * @return The removed appointment, or null if it was not indexed.
+     */
+    public Appointment remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Node node = byId.get(id);
+            if (node == null) return null;
+            delete(node);
+            return node.appointment;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Atomically removes and returns the head of the queue.
+     * @return The earliest appointment, or null if the queue is empty.
+     */
+    public Appointment pollFirst() {
+        lock.writeLock().lock();
+        try {
+            Node first = head.next[0];
+            if (first == null) return null;
+            delete(first);
+            return first.appointment;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Looks up an indexed appointment by its UUID.
+     * @param id The UUID of the appointment.
+     * @return The appointment, or null if it is not indexed.
+     */
+    public Appointment get(String id) {
+        lock.readLock().lock();
+        try {
+            Node node = byId.get(id);
+            return node == null ? null : node.appointment;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Finds the 0-based position of an appointment in the queue.
+     * @param id The UUID of the appointment.
+     * @return The position, or -1 if the appointment is not indexed.
+     */
+    public int positionOf(String id) {
+        lock.readLock().lock();
+        try {
+            Node node = byId.get(id);
+            if (node == null) return -1;
+            Appointment a = node.appointment;
+            return countBefore(a.date, a.hour, a.id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Counts appointments on the given date that are scheduled before the given hour.
+     * @param date The date to check.
+     * @param hour The hour to check.
+     * @return The number of earlier appointments on that date.
+     */
+    public int countEarlierSameDay(LocalDate date, int hour) {
+        lock.readLock().lock();
+        try {
+            // Both bounds use a null id, which sorts before every real id at that (date, hour)
+            return countBefore(date, hour, null) - countBefore(date, Integer.MIN_VALUE, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Returns a chronological copy of every indexed appointment.
+     * @return A new list ordered by date, hour and id.
+     */
+    public List<Appointment> snapshot() {
+        lock.readLock().lock();
+        try {
+            List<Appointment> all = new ArrayList<>(size);
+            for (Node x = head.next[0]; x != null; x = x.next[0]) {
+                all.add(x.appointment);
+            }
+            return all;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @brief One page of a queue listing and the cursor for the page after it (null on the last page). */
+    public record Page(List<Appointment> appointments, QueueCursor next) {}
+
+    /**
+     * @brief Returns one page of the queue in chronological order, optionally limited to a date window.
+     * * The start of the page is found by walking down the skip list towers rather than along
+     * the queue, so a page costs O(log n + limit) however far into the queue it starts.
+     * @param after Cursor of the previous page's last appointment, or null to start at the beginning.
+     * @param from First date to include, or null for no lower bound.
+     * @param to Last date to include, or null for no upper bound.
+     * @param limit Maximum number of appointments in the page.
+     * @return The page, with a cursor if more appointments follow inside the window.
+     */
+    public Page page(QueueCursor after, LocalDate from, LocalDate to, int limit) {
+        lock.readLock().lock();
+        try {
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.next[i] != null && beforePage(x.next[i].appointment, after, from)) {
+                    x = x.next[i];
+                }
+            }
+            List<Appointment> appointments = new ArrayList<>(Math.min(limit, size));
+            for (x = x.next[0]; x != null && (to == null || !x.appointment.date.isAfter(to)); x = x.next[0]) {
+                if (appointments.size() == limit) {
+                    // Something is left in the window, so the caller can ask for another page
+                    return new Page(appointments, QueueCursor.after(appointments.get(limit - 1)));
+                }
+                appointments.add(x.appointment);
+            }
+            return new Page(appointments, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return The number of indexed appointments. */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Skip list internals (callers must hold the appropriate lock) ---
+
+    /**
+     * @brief Orders a node relative to a (date, hour, id) key.
+     * A null id sorts before every real id, which makes it usable as a lower bound.
+     */
+    private static int compare(Appointment a, LocalDate date, int hour, String id) {
+        int c = a.date.compareTo(date);
+        if (c != 0) return c;
+        c = Integer.compare(a.hour, hour);
+        if (c != 0) return c;
+        if (id == null) return 1;
+        return a.id.compareTo(id);
+    }
+
+    /** @brief True for appointments that sort before a page: up to and including the cursor, or before the window. */
+    private static boolean beforePage(Appointment a, QueueCursor after, LocalDate from) {
+        if (from != null && a.date.isBefore(from)) return true;
+        return after != null && compare(a, after.date(), after.hour(), after.id()) <= 0;
+    }
+
+    /** @brief Number of nodes strictly before the given key. */
+    private int countBefore(LocalDate date, int hour, String id) {
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i].appointment, date, hour, id) < 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+        }
+        return rank;
+    }
+
+    private static int randomLevel() {
+        int lvl = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (lvl < MAX_LEVEL && random.nextBoolean()) {
+            lvl++;
+        }
+        return lvl;
+    }
+
+    private void insert(Appointment a) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = (i == level - 1) ? 0 : rank[i + 1];
+            while (x.next[i] != null && compare(x.next[i].appointment, a.date, a.hour, a.id) < 0) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int lvl = randomLevel();
+        if (lvl > level) {
+            for (int i = level; i < lvl; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            level = lvl;
+        }
+
+        Node node = new Node(a, lvl);
+        for (int i = 0; i < lvl; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = (rank[0] - rank[i]) + 1;
+        }
+        // Towers that pass over the new node now skip one more entry
+        for (int i = lvl; i < level; i++) {
+            update[i].span[i]++;
+        }
+
+        byId.put(a.id, node);
+        size++;
+    }
+
+    private void delete(Node node) {
+        Appointment a = node.appointment;
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i].appointment, a.date, a.hour, a.id) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == node) {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+
+        byId.remove(a.id);
+        size--;
+    }
+}
@@ -0,0 +1,347 @@
+package smartqueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * @brief Append-only, memory-mapped journal of queue changes with group commit.
+ * * Records are appended to fixed-size segment files (journal-0000000001.log, ...) mapped into
+ * memory, so an append is a memory copy rather than a system call. A change is durable once
+ * {@link #sync(long)} has forced its pages to disk. When many threads append at once, one of
+ * them forces everything written so far while the others wait; their records are covered by
+ * that force and they return without forcing again. One disk flush is thereby shared by every
+ * change made while the previous flush was running.
+ * * Each record is framed as [length][CRC-32][payload]. On open, the tail of the last segment is
+ * scanned and everything from the first incomplete or corrupt record onwards is cleared. Such
+ * records were never acknowledged, because acknowledging a change waits for its sync.
+ * * A position is (segment number &lt;&lt; 32 | offset), so positions grow across segments.
+ * * Released segments are unmapped before their files are deleted, so the disk space is given
+ * back right away (and deleting a mapped file, which some platforms refuse, never happens).
+ */
+public class QueueJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueJournal.class);
+
+    /**
+     * @brief Unmaps a buffer right away (sun.misc.Unsafe.invokeCleaner), or null if the JDK does not offer it.
+     * * Looked up reflectively, since Java 17 has no public API for it and the class is otherwise
+     * only referenced with a compiler warning.
+     */
+    private static final MethodHandle UNMAP = unmapHandle();
+
+    /** @brief Bytes in a record header: payload length, then CRC-32 of the payload. */
+    private static final int HEADER = 8;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d{10})\\.log");
+
+    /** @brief Records read by {@link #read} and the position just after the last of them. */
+    public record Batch(List<byte[]> records, long end) {}
+
+    private final Path dir;
+
+    /** @brief Size of newly created segment files. */
+    private final int segmentSize;
+
+    /** @brief Every segment not yet released, by number. Read by the applier without the lock. */
+    private final NavigableMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+    /** @brief Number of the segment being appended to. */
+    private long segment;
+
+    /** @brief Segment being appended to. */
+    private MappedByteBuffer current;
+
+    /** @brief Next write offset in the current segment. */
+    private int offset;
+
+    /** @brief Everything before this position is on disk. */
+    private long durable;
+
+    /** @brief True while a thread is forcing pages to disk outside the lock. */
+    private boolean syncing;
+
+    /** @brief Number of the segment being forced while syncing; it must stay mapped until then. */
+    private long syncingSegment;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+
+    /**
+     * @brief Opens the journal in a directory, creating it if needed and recovering the tail of the last segment.
+     * @param dir Directory holding the segment files.
+     * @param segmentSize Size of each new segment file in bytes.
+     * @throws IOException if the files cannot be created, read or mapped.
+     */
+    public QueueJournal(Path dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Matcher m = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (m.matches()) segments.put(Long.parseLong(m.group(1)), map(file, 0));
+            }
+        }
+        if (segments.isEmpty()) {
+            segment = 1;
+            current = map(segmentFile(segment), segmentSize);
+            segments.put(segment, current);
+        } else {
+            segment = segments.lastKey();
+            current = segments.get(segment);
+            offset = recoverEnd(current);
+        }
+        durable = position(segment, offset);
+    }
+
+    /**
+     * @brief Appends records to the journal. They are not durable until {@link #sync(long)} returns.
+     * @param payloads The records, in order.
+     * @return The position just after the last record, to pass to {@link #sync(long)}.
+     */
+    public synchronized long append(List<byte[]> payloads) {
+        CRC32 crc = new CRC32();
+        for (byte[] payload : payloads) {
+            if (payload.length == 0 || payload.length > segmentSize - HEADER) {
+                throw new IllegalArgumentException("Journal record of " + payload.length + " bytes does not fit a segment");
+            }
+            if (offset + HEADER + payload.length > current.capacity()) roll();
+            crc.reset();
+            crc.update(payload);
+            // The payload and CRC go first and the length last, so a reader never sees a length without its record
+            current.putInt(offset + 4, (int) crc.getValue());
+            current.put(offset + HEADER, payload);
+            current.putInt(offset, payload.length);
+            offset += HEADER + payload.length;
+        }
+        appended.add(payloads.size());
+        return position(segment, offset);
+    }
+
+    /**
+     * @brief Waits until everything before a position is on disk, forcing it there if no other thread is.
+     * @param position A position returned by {@link #append(List)}.
+     */
+    public void sync(long position) {
+        while (true) {
+            MappedByteBuffer buffer;
+            long target;
+            int from;
+            synchronized (this) {
+                while (syncing && durable < position) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for the journal", ex);
+                    }
+                }
+                if (durable >= position) return;
+                // Become the leader: force everything appended so far, including other threads' records
+                syncing = true;
+                syncingSegment = segment;
+                buffer = current;
+                target = position(segment, offset);
+                // Earlier segments were forced in full when they filled up
+                from = segmentOf(durable) == segment ? offsetOf(durable) : 0;
+            }
+            boolean forced = false;
+            try {
+                buffer.force(from, offsetOf(target) - from);
+                forces.increment();
+                forced = true;
+            } finally {
+                synchronized (this) {
+                    syncing = false;
+                    if (forced && target > durable) durable = target;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /** @return The position up to which records are on disk and may be read. */
+    public synchronized long durablePosition() {
+        return durable;
+    }
+
+    /**
+     * @brief Reads durable records in order, starting at a position.
+     * @param from Position of the first record to read, e.g. the end of the previous batch.
+     * @param max Maximum number of records to return.
+     * @return The records and the position to continue from.
+     */
+    public Batch read(long from, int max) {
+        long to = durablePosition(); // Establishes visibility of everything written before it
+        List<byte[]> records = new ArrayList<>();
+        long seg = segmentOf(from);
+        int off = offsetOf(from);
+        if (seg < segments.firstKey()) {
+            // Everything before the oldest segment was released; start at its beginning
+            seg = segments.firstKey();
+            off = 0;
+        }
+        while (records.size() < max && position(seg, off) < to) {
+            MappedByteBuffer buffer = segments.get(seg);
+            int length = off + HEADER <= buffer.capacity() ? buffer.getInt(off) : 0;
+            if (length == 0) {
+                // Nothing more in this segment; the next record is at the start of the next one
+                seg++;
+                off = 0;
+                continue;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(off + HEADER, payload);
+            records.add(payload);
+            off += HEADER + length;
+        }
+        return new Batch(records, position(seg, off));
+    }
+
+    /**
+     * @brief Unmaps and deletes the segment files that lie entirely before a position.
+     * * Must be called by the thread that calls {@link #read}, since a segment being read
+     * must not be unmapped. A segment another thread is still forcing is kept until a later call.
+     * @param position Position up to which every record has been applied elsewhere.
+     */
+    public void release(long position) {
+        List<Map.Entry<Long, MappedByteBuffer>> released = new ArrayList<>();
+        synchronized (this) {
+            long keepFrom = segmentOf(position);
+            if (syncing) keepFrom = Math.min(keepFrom, syncingSegment);
+            for (Long old : List.copyOf(segments.headMap(keepFrom).keySet())) {
+                released.add(Map.entry(old, segments.remove(old)));
+            }
+        }
+        for (Map.Entry<Long, MappedByteBuffer> old : released) {
+            if (!unmap(old.getValue())) {
+                // Deleting a mapped file would not give back its space (or fail outright); it is left behind
+                log.warn("Cannot unmap journal segment {} on this JDK; keeping its file", segmentFile(old.getKey()));
+                continue;
+            }
+            try {
+                Files.deleteIfExists(segmentFile(old.getKey()));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /** @return Records appended since the journal was opened. */
+    public long appended() { return appended.sum(); }
+
+    /** @return Times pages were forced to disk since the journal was opened. */
+    public long forces() { return forces.sum(); }
+
+    // --- Internals ---
+
+    /** @brief Forces the full segment and starts a new one. Called with the lock held. */
+    private void roll() {
+        current.force();
+        segment++;
+        try {
+            current = map(segmentFile(segment), segmentSize);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        segments.put(segment, current);
+        offset = 0;
+        durable = Math.max(durable, position(segment, 0));
+    }
+
+    /** @brief Finds the end of the valid records in a segment and clears everything after it. */
+    private static int recoverEnd(MappedByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        int off = 0;
+        while (off + HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(off);
+            if (length <= 0 || off + HEADER + length > buffer.capacity()) break;
+            byte[] payload = new byte[length];
+            buffer.get(off + HEADER, payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(off + 4)) break;
+            off += HEADER + length;
+        }
+        // Pages may reach the disk out of order, so an intact record could follow a torn one.
+        // Clearing the rest keeps a later, shorter append from making it readable again.
+        byte[] zeros = new byte[Math.min(64 * 1024, buffer.capacity())];
+        for (int i = off; i < buffer.capacity(); i += zeros.length) {
+            buffer.put(i, zeros, 0, Math.min(zeros.length, buffer.capacity() - i));
+        }
+        buffer.force();
+        return off;
+    }
+
+    /** @return True if the buffer was unmapped; it must not be touched afterwards. */
+    private static boolean unmap(MappedByteBuffer buffer) {
+        if (UNMAP == null) return false;
+        try {
+            UNMAP.invokeExact((ByteBuffer) buffer);
+            return true;
+        } catch (Throwable ex) {
+            log.warn("Could not unmap a journal segment", ex);
+            return false;
+        }
+    }
+
+    private static MethodHandle unmapHandle() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private Path segmentFile(long number) {
+        return dir.resolve(String.format("journal-%010d.log", number));
+    }
+
+    /** @brief Maps a segment file, creating it with the given size if it does not exist (size 0 keeps the file's size). */
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = size > 0 ? size : channel.size();
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    private static long position(long segment, int offset) {
+        return (segment << 32) | offset;
+    }
+
+    private static long segmentOf(long position) {
+        return position >>> 32;
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+}
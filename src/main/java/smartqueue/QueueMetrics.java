@@ -0,0 +1,148 @@
+package smartqueue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief Micrometer meters for the queue hot paths, published on /actuator/prometheus.
+ * * Every customer and staff operation records its latency in the smartqueue.operation timer,
+ * tagged by operation, with a percentile histogram so p50/p99 can be computed from the scrape.
+ * Rejected bookings are counted by validation reason, and the number of appointments on each
+ * day in each queue is exposed as a gauge, as are the hits, misses and size of each queue's
+ * database count caches. Broadcast fan-out timing lives in QueueBroadcaster.
+ */
+@Component
+public class QueueMetrics {
+
+    private final MeterRegistry registry;
+    private final AppointmentService appointmentService;
+
+    public final Timer book;
+    public final Timer cancel;
+    public final Timer bookBulk;
+    public final Timer cancelBulk;
+    public final Timer serve;
+    public final Timer position;
+    public final Timer waitTime;
+    public final Timer availability;
+    public final Timer report;
+    public final Timer reportCsv;
+
+    /** @brief One day of one queue. */
+    private record QueueDay(String queueId, LocalDate date) {}
+
+    /** @brief Queue day to the depth gauge for that day; only days with appointments have one. */
+    private final Map<QueueDay, Gauge> dayDepthGauges = new ConcurrentHashMap<>();
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param registry Registry the meters are published to.
+     * @param appointmentService Source of the per-day queue depths.
+     */
+    public QueueMetrics(MeterRegistry registry, AppointmentService appointmentService) {
+        this.registry = registry;
+        this.appointmentService = appointmentService;
+        this.book = operationTimer("book");
+        this.cancel = operationTimer("cancel");
+        this.bookBulk = operationTimer("book-bulk");
+        this.cancelBulk = operationTimer("cancel-bulk");
+        this.serve = operationTimer("serve");
+        this.position = operationTimer("position");
+        this.waitTime = operationTimer("wait-time");
+        this.availability = operationTimer("availability");
+        this.report = operationTimer("report");
+        this.reportCsv = operationTimer("report-csv");
+        for (String queueId : appointmentService.getQueueIds()) {
+            appointmentService.getReadCaches(queueId).forEach((name, cache) -> registerCache(queueId, name, cache));
+        }
+    }
+
+    /** @brief Registers a depth gauge for every day already in each queue at startup. */
+    @PostConstruct
+    public void registerDayDepths() {
+        for (String queueId : appointmentService.getQueueIds()) {
+            appointmentService.getAll(queueId).stream()
+                    .map(a -> new QueueDay(queueId, a.date))
+                    .distinct()
+                    .forEach(this::updateDayDepth);
+        }
+    }
+
+    /**
+     * @brief Counts a booking rejected by one of the validation checks.
+     * @param reason Short kebab-case reason, e.g. "slot-taken" or "weekend".
+     */
+    public void bookingRejected(String reason) {
+        // The registry returns the existing counter for a known reason
+        Counter.builder("smartqueue.booking.rejected")
+                .description("Bookings rejected by validation, by reason")
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @brief Adds, keeps or removes the depth gauge of each day a queue change touched.
+     * @param event The queue event published for the change.
+     */
+    @EventListener
+    public void onQueueEvent(QueueEvent event) {
+        if (event.appointments() != null) {
+            event.appointments().stream()
+                    .map(e -> new QueueDay(event.queue(), e.date()))
+                    .distinct()
+                    .forEach(this::updateDayDepth);
+        } else if (event.date() != null) {
+            updateDayDepth(new QueueDay(event.queue(), event.date()));
+        }
+    }
+
+    private void updateDayDepth(QueueDay day) {
+        // Decided under the map's per-key lock, so concurrent changes to one day cannot
+        // leave a gauge behind for an empty day or drop one for a busy day
+        dayDepthGauges.compute(day, (d, gauge) -> {
+            if (appointmentService.getDayDepth(d.queueId(), d.date()) > 0) {
+                return gauge != null ? gauge : Gauge.builder("smartqueue.queue.depth",
+                                () -> appointmentService.getDayDepth(d.queueId(), d.date()))
+                        .description("Appointments in a queue on a given date")
+                        .tag("queue", d.queueId())
+                        .tag("date", d.date().toString())
+                        .register(registry);
+            }
+            if (gauge != null) registry.remove(gauge);
+            return null;
+        });
+    }
+
+    private void registerCache(String queueId, String name, ReadCache<?, Integer> cache) {
+        FunctionCounter.builder("smartqueue.cache.gets", cache, ReadCache::hits)
+                .description("Count reads answered from the cache (hit) or the database (miss)")
+                .tags("queue", queueId, "cache", name, "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("smartqueue.cache.gets", cache, ReadCache::misses)
+                .description("Count reads answered from the cache (hit) or the database (miss)")
+                .tags("queue", queueId, "cache", name, "result", "miss")
+                .register(registry);
+        Gauge.builder("smartqueue.cache.size", cache, ReadCache::size)
+                .description("Entries held by a count cache")
+                .tags("queue", queueId, "cache", name)
+                .register(registry);
+    }
+
+    private Timer operationTimer(String operation) {
+        return Timer.builder("smartqueue.operation")
+                .description("Latency of queue operations, including validation and database work")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
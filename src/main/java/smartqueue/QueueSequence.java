@@ -0,0 +1,24 @@
+package smartqueue;
+
+/**
+ * @brief Hands out the sequence numbers of each queue's events.
+ * * Chosen with smartqueue.broker.mode. With the simple broker ('simple', the default) every
+ * dashboard is connected to this instance, so {@link LocalQueueSequence} counts in memory. With
+ * the broker relay ('relay') dashboards receive the events of every instance on the same topic,
+ * so the numbers must be shared: {@link DatabaseQueueSequence} keeps them in the database.
+ */
+public interface QueueSequence {
+
+    /**
+     * @param queueId The queue to check.
+     * @return The number of the queue's most recent event, 0 if it has none yet.
+     */
+    long current(String queueId);
+
+    /**
+     * @brief Takes the next number of a queue.
+     * @param queueId The queue the event belongs to.
+     * @return A number no other call, on this instance or any other, has returned for that queue.
+     */
+    long next(String queueId);
+}
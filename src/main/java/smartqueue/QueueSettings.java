@@ -0,0 +1,121 @@
+package smartqueue;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * @brief Entity class holding the configuration of one queue: its business hours and appointment duration.
+ * * One row per queue, so settings survive restarts. Instances are never modified once built:
+ * a change creates a new snapshot with a higher version, saves it, and then swaps it into the
+ * queue's {@link QueueShard} in one volatile write. Readers therefore take a single snapshot and
+ * always see a consistent open/close pair, without taking a lock.
+ * * The version and update time double as the ETag and Last-Modified of /api/customer/hours.
+ */
+@Entity
+@Table(name = "queue_settings")
+public class QueueSettings {
+
+    /** @brief Opening hour of a queue that has never been configured. */
+    public static final int DEFAULT_OPEN_HOUR = 9; // 09:00
+
+    /** @brief Closing hour of a queue that has never been configured. */
+    public static final int DEFAULT_CLOSE_HOUR = 17; // 17:00 (5:00 PM)
+
+    /** @brief Appointment duration, in minutes, of a queue that has never been configured. */
+    public static final int DEFAULT_DURATION_MINUTES = 15;
+
+    /** @brief The queue these settings belong to. */
+    @Id
+    @Column(name = "queue_id")
+    private String queueId;
+
+    /** @brief The hour the service opens (24-hour format). */
+    @Column(name = "open_hour")
+    private int openHour;
+
+    /** @brief The hour the service closes (24-hour format). */
+    @Column(name = "close_hour")
+    private int closeHour;
+
+    /** @brief Expected duration of an appointment in minutes. */
+    @Column(name = "duration_minutes")
+    private int durationMinutes;
+
+    /** @brief Incremented by every change; used as the ETag. */
+    @Column(name = "settings_version")
+    private long version;
+
+    /** @brief When the settings last changed, to the second (the resolution of Last-Modified). */
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    /**
+     * @brief Default constructor.
+     * REQUIRED for JPA to instantiate the entity from the database.
+     */
+    protected QueueSettings() {}
+
+    private QueueSettings(String queueId, int openHour, int closeHour, int durationMinutes, long version) {
+        this.queueId = queueId;
+        this.openHour = openHour;
+        this.closeHour = closeHour;
+        this.durationMinutes = durationMinutes;
+        this.version = version;
+        this.updatedAt = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * @brief Creates the first version of a queue's settings, with the default hours and duration.
+     * @param queueId The queue to configure.
+     * @return A new, unsaved snapshot.
+     */
+    public static QueueSettings defaults(String queueId) {
+        return new QueueSettings(queueId, DEFAULT_OPEN_HOUR, DEFAULT_CLOSE_HOUR, DEFAULT_DURATION_MINUTES, 1);
+    }
+
+    /**
+     * @brief Creates the next version of these settings with different business hours.
+     * @param openHour The new opening hour (0-23).
+     * @param closeHour The new closing hour (1-24).
+     * @return A new, unsaved snapshot; this one is left unchanged.
+     */
+    public QueueSettings withHours(int openHour, int closeHour) {
+        return new QueueSettings(queueId, openHour, closeHour, durationMinutes, version + 1);
+    }
+
+    /**
+     * @brief Creates the next version of these settings with a different appointment duration.
+     * @param durationMinutes The new duration in minutes.
+     * @return A new, unsaved snapshot; this one is left unchanged.
+     */
+    public QueueSettings withDuration(int durationMinutes) {
+        return new QueueSettings(queueId, openHour, closeHour, durationMinutes, version + 1);
+    }
+
+    /** @return The queue these settings belong to. */
+    public String getQueueId() { return queueId; }
+
+    /** @return The opening hour in 24h format. */
+    public int getOpenHour() { return openHour; }
+
+    /** @return The closing hour in 24h format. */
+    public int getCloseHour() { return closeHour; }
+
+    /** @return A bitmap of the bookable hours: bit n is set if hour n is within business hours. */
+    public int bookableHours() {
+        return (int) ((1L << closeHour) - (1L << openHour));
+    }
+
+    /** @return The expected appointment duration in minutes. */
+    public int getDurationMinutes() { return durationMinutes; }
+
+    /** @return The version, starting at 1 and incremented by every change. */
+    public long getVersion() { return version; }
+
+    /** @return When the settings last changed. */
+    public Instant getUpdatedAt() { return updatedAt; }
+}
@@ -0,0 +1,11 @@
+package smartqueue;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+/**
+ * @brief Repository interface for the per-queue settings.
+ * * Read once at startup and written only when staff change a queue's hours or duration;
+ * requests read the in-memory snapshot held by each {@link QueueShard}.
+ */
+public interface QueueSettingsDatabase extends JpaRepository<QueueSettings, String> {
+}
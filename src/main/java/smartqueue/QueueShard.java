@@ -0,0 +1,63 @@
+package smartqueue;
+
+import java.time.LocalDate;
+
+/**
+ * @brief Everything {@link AppointmentService} keeps in memory for one queue (one branch).
+ * * Each queue has its own ordered index, its own slot bitmaps, and its own settings, so every
+ * lock a request takes belongs to its own queue. Serving or booking at one branch never waits
+ * on, or walks through, another branch's appointments.
+ */
+public class QueueShard {
+
+    /** @brief The queue id, e.g. "main" or a branch code. */
+    private final String id;
+
+    /** @brief Write-through, in-memory ordered view of this queue used to answer reads. */
+    final QueueIndex queue = new QueueIndex();
+
+    /** @brief Per-date hour bitmaps and customer/day keys used to validate bookings in O(1). */
+    final SlotIndex slots = new SlotIndex();
+
+    /**
+     * @brief The queue's current hours and duration. Replaced as a whole, never modified, so one
+     * read always gives a consistent set; writers serialize on the shard.
+     */
+    volatile QueueSettings settings;
+
+    /** @brief A date and hour, the key of a cached wait count. */
+    record Slot(LocalDate date, int hour) {}
+
+    /** @brief Wait counts read from the database, used when counts come from the database. */
+    final ReadCache<Slot, Integer> waitCounts;
+
+    /** @brief Positions read from the database, by appointment id, used when counts come from the database. */
+    final ReadCache<String, Integer> positions;
+
+    /** @brief Service times observed at each hour of the day, used for wait estimates. */
+    final ServiceTimeEstimator serviceTimes;
+
+    /**
+     * @brief Creates an empty queue.
+     * @param id The queue id.
+     * @param cacheMaxEntries Size at which each count cache is emptied.
+     * @param cacheTtlMillis Longest time a cached count is served.
+     * @param serviceTimes Estimator that learns this queue's service times from its serves.
+     */
+    public QueueShard(String id, int cacheMaxEntries, long cacheTtlMillis, ServiceTimeEstimator serviceTimes) {
+        this.id = id;
+        this.settings = QueueSettings.defaults(id);
+        this.waitCounts = new ReadCache<>(cacheMaxEntries, cacheTtlMillis);
+        this.positions = new ReadCache<>(cacheMaxEntries, cacheTtlMillis);
+        this.serviceTimes = serviceTimes;
+    }
+
+    /** @brief Makes every cached count stale. Called after each change to this queue's appointments is saved. */
+    void invalidateReads() {
+        waitCounts.invalidate();
+        positions.invalidate();
+    }
+
+    /** @return The queue id. */
+    public String getId() { return id; }
+}
@@ -0,0 +1,60 @@
+package smartqueue;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * @brief Where {@link AppointmentService} makes its changes durable.
+ * * Chosen with smartqueue.persistence. {@link DatabaseQueueStore} ('database', the default)
+ * writes each change to the database in its own transaction. {@link JournalQueueStore}
+ * ('journal') appends it to a memory-mapped journal with group commit and updates the
+ * database from the journal in the background. Either way, a method only returns once the
+ * change would survive a crash.
+ */
+public interface QueueStore {
+
+    /**
+     * @brief Durably saves a new appointment.
+     * @param a The appointment, whose slot is already reserved in memory.
+     * @throws org.springframework.dao.DataIntegrityViolationException if the database already holds the slot or customer/day.
+     */
+    void save(Appointment a);
+
+    /**
+     * @brief Durably saves new appointments, all or none.
+     * @param batch The appointments, whose slots are already reserved in memory.
+     * @throws org.springframework.dao.DataIntegrityViolationException if the database already holds one of the slots or customer/days.
+     */
+    void saveAll(List<Appointment> batch);
+
+    /**
+     * @brief Durably removes an appointment, telling the caller whether it won the removal.
+     * @param id The UUID of the appointment.
+     * @return 1 if this call removed it, 0 if it was already gone.
+     */
+    int claim(String id);
+
+    /**
+     * @brief Durably removes several appointments.
+     * @param ids The UUIDs of the appointments.
+     * @return For each id, in order: 1 if this call removed it, 0 if it was already gone.
+     */
+    int[] claimAll(List<String> ids);
+
+    /**
+     * @brief Durably moves appointments from the live table to the archive, as one change.
+     * * An appointment is archived only if this call removed it from the live table, so a row is
+     * never lost between the two tables, nor archived after it was served or cancelled.
+     * @param batch The appointments to move.
+     * @param archivedAt The time of archival, recorded with each archived row.
+     * @return For each appointment, in order: 1 if this call moved it, 0 if it was already gone.
+     */
+    int[] archiveAll(List<Appointment> batch, Instant archivedAt);
+
+    /**
+     * @brief Durably saves a new version of a queue's settings.
+     * @param settings The new snapshot.
+     * @return The snapshot to use from now on.
+     */
+    QueueSettings saveSettings(QueueSettings settings);
+}
@@ -0,0 +1,80 @@
+package smartqueue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * @brief Bounded cache of database reads for one queue, invalidated by a version number.
+ * * Every change to the queue bumps the version. A read notes the version before it goes to the
+ * database, and a cached value is only returned while the version is unchanged, so a value
+ * loaded concurrently with a change is never served after it. Values also expire after a fixed
+ * time, which bounds how stale they can get when another instance changes the same database.
+ * * A full cache is emptied instead of evicting by recency, so hits never take a lock.
+ * @param <K> The key type, e.g. an appointment id.
+ * @param <V> The cached value type.
+ */
+public class ReadCache<K, V> {
+
+    /** @brief A cached value and the queue version it was read at. */
+    private record Entry<V>(long version, long expiresAtNanos, V value) {}
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    /** @brief Bumped by every change to the queue; entries read at an older version are stale. */
+    private final AtomicLong version = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    /**
+     * @brief Creates an empty cache.
+     * @param maxEntries Number of entries at which the cache is emptied.
+     * @param ttlMillis How long a value may be served, even if the queue did not change here.
+     */
+    public ReadCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * @brief Returns the cached value for a key, loading it if there is no current one.
+     * @param key The key to look up.
+     * @param loader Reads the value from the database on a miss.
+     * @return The cached or freshly loaded value.
+     */
+    public V get(K key, Supplier<V> loader) {
+        long current = version.get();
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.version() == current && now - entry.expiresAtNanos() < 0) {
+            hits.increment();
+            return entry.value();
+        }
+        misses.increment();
+        V value = loader.get();
+        if (entries.size() >= maxEntries) entries.clear();
+        entries.put(key, new Entry<>(current, now + ttlNanos, value));
+        return value;
+    }
+
+    /** @brief Makes every cached value stale. Called after each change to the queue. */
+    public void invalidate() {
+        version.incrementAndGet();
+        entries.clear();
+    }
+
+    /** @return Reads answered from the cache. */
+    public long hits() { return hits.sum(); }
+
+    /** @return Reads that went to the database. */
+    public long misses() { return misses.sum(); }
+
+    /** @return Entries currently held, including stale ones not yet overwritten. */
+    public int size() { return entries.size(); }
+}
@@ -0,0 +1,32 @@
+package smartqueue;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * @brief Configuration class for background jobs such as {@link AppointmentArchiver}.
+ * * Gives @Scheduled jobs their own thread. Otherwise Spring would pick the WebSocket broker's
+ * scheduler, and a long archive run could delay STOMP heartbeats.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig implements SchedulingConfigurer {
+
+    /**
+     * @brief Registers the scheduler that runs every @Scheduled method.
+     * @param registrar The registrar to configure.
+     */
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("maintenance-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        // Not a bean, so closing the context does not shut it down; it must not keep the JVM alive
+        scheduler.setDaemon(true);
+        scheduler.initialize();
+        registrar.setTaskScheduler(scheduler);
+    }
+}
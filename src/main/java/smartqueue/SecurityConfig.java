@@ -2,6 +2,7 @@ package smartqueue;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.core.userdetails.User;
@@ -29,6 +30,10 @@ public class SecurityConfig {
         http
             .csrf(csrf -> csrf.disable()) // Disabled to allow standard JavaScript fetch POST/DELETE requests to work
             .authorizeHttpRequests(auth -> auth
+                // The error page, which the container also renders after a failed write (e.g. to an event stream whose browser went away)
+                .requestMatchers("/error").permitAll()
+                // Bulk booking and cancelling are for the front desk, not the public booking page
+                .requestMatchers("/api/customer/book/bulk", "/api/customer/cancel/bulk").hasRole("EMPLOYEE")
                 // Allow public access to the frontend, customer APIs, and WebSockets
                 .requestMatchers("/", "/index.html", "/bookAppointment.js", "/api/customer/**", "/ws/**").permitAll() 
                 // Restrict employee APIs to users with the "EMPLOYEE" role
@@ -37,6 +42,7 @@ public class SecurityConfig {
                 .anyRequest().authenticated()
             )
             .formLogin(login -> login.permitAll()) // Enables default Spring Boot "Please sign in" page
+            .httpBasic(Customizer.withDefaults()) // Lets Prometheus authenticate when scraping /actuator/prometheus
             .logout(logout -> logout.permitAll()); // Enables logout functionality
 
         return http.build();
@@ -0,0 +1,78 @@
+package smartqueue;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @brief Learns how long one appointment of a queue really takes, separately for each hour of the day.
+ * * Every serve is timestamped, and the time since the previous serve of the same queue is one
+ * observation. With several desks serving one queue this is the time per customer of the whole
+ * branch, which is exactly what a customer's wait depends on. Observations feed an exponentially
+ * weighted moving average for the hour they were made in, so each serve costs O(1) and no
+ * history is kept or scanned.
+ * * Gaps longer than a limit (opening, lunch, an empty queue) are not service time and are ignored,
+ * as is the first serve of each day. Until an hour has enough observations, estimates fall back
+ * to the duration staff configured. Observations are kept in memory only.
+ */
+public class ServiceTimeEstimator {
+
+    /** @brief The moving average for one hour of the day and how many serves it is built from. */
+    private record Average(double minutes, int samples) {}
+
+    /** @brief One average per hour of the day; null until the first observation in that hour. */
+    private final AtomicReferenceArray<Average> byHour = new AtomicReferenceArray<>(24);
+
+    /** @brief When the queue last served someone. */
+    private final AtomicReference<LocalDateTime> lastServed = new AtomicReference<>();
+
+    /** @brief Weight of the newest observation, between 0 and 1. */
+    private final double alpha;
+
+    /** @brief Observations an hour needs before its average replaces the configured duration. */
+    private final int minSamples;
+
+    /** @brief Longest gap between two serves that still counts as service time. */
+    private final Duration maxGap;
+
+    /**
+     * @brief Creates an estimator with no observations.
+     * @param alpha Weight of the newest observation, between 0 and 1.
+     * @param minSamples Observations an hour needs before its average is used.
+     * @param maxGap Longest gap between two serves that still counts as service time.
+     */
+    public ServiceTimeEstimator(double alpha, int minSamples, Duration maxGap) {
+        if (alpha <= 0 || alpha > 1) throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        this.alpha = alpha;
+        this.minSamples = minSamples;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * @brief Records that the queue served someone.
+     * @param at When the serve happened, in the queue's local time.
+     */
+    public void served(LocalDateTime at) {
+        LocalDateTime previous = lastServed.getAndSet(at);
+        if (previous == null || !previous.toLocalDate().equals(at.toLocalDate())) return;
+        Duration gap = Duration.between(previous, at);
+        if (gap.isNegative() || gap.compareTo(maxGap) > 0) return;
+
+        double minutes = gap.toMillis() / 60_000.0;
+        byHour.updateAndGet(at.getHour(), avg -> avg == null
+                ? new Average(minutes, 1)
+                : new Average(avg.minutes() + alpha * (minutes - avg.minutes()), avg.samples() + 1));
+    }
+
+    /**
+     * @brief Estimates the minutes one appointment takes during an hour of the day.
+     * @param hour The hour of the day (0-23).
+     * @param configuredMinutes The duration staff configured, used until the hour has enough observations.
+     * @return The estimated minutes per appointment.
+     */
+    public double minutesPerAppointment(int hour, int configuredMinutes) {
+        Average avg = hour >= 0 && hour < 24 ? byHour.get(hour) : null;
+        return avg != null && avg.samples() >= minSamples ? avg.minutes() : configuredMinutes;
+    }
+}
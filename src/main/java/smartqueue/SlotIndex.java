@@ -0,0 +1,129 @@
+package smartqueue;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief Constant-time occupancy index used to validate and reserve bookings.
+ * * Each date maps to a 24-bit bitmap of taken hours, and a hash set holds one
+ * (date, normalized name) key per customer per day. Reserving a booking is a set-insert
+ * plus an atomic update of the date's bitmap, so two concurrent requests for the same slot or
+ * the same customer/day can never both succeed. The unique constraints on
+ * {@link Appointment} enforce the same rules in the database.
+ * * A date's entry is dropped once its last hour is freed, so days that were served, cancelled
+ * or archived do not stay in the map for the life of the process.
+ */
+public class SlotIndex {
+
+    /** @brief Outcome of a reservation attempt. */
+    public enum Result {
+        /** The slot and the customer's day were both free and are now held. */
+        RESERVED,
+        /** The customer already has an appointment on this date. */
+        NAME_TAKEN,
+        /** Someone else already holds this date and hour. */
+        SLOT_TAKEN
+    }
+
+    /** @brief Bitmap of occupied hours per date (bit n set means hour n is taken). */
+    private final Map<LocalDate, Integer> hoursByDate = new ConcurrentHashMap<>();
+
+    /** @brief One entry per (date, normalized name) pair that holds a booking. */
+    private final Set<String> customerDays = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @brief Normalizes a customer name so lookups match the old equalsIgnoreCase check.
+     * @param name The name as entered by the customer.
+     * @return The lower-cased name.
+     */
+    public static String normalizeName(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @brief Replaces the contents of the index with the given appointments.
+     * @param appointments Every appointment currently stored.
+     */
+    public void rebuild(List<Appointment> appointments) {
+        hoursByDate.clear();
+        customerDays.clear();
+        for (Appointment a : appointments) {
+            // Existing data is trusted as-is, even if it predates these rules
+            hold(a.date, a.hour, a.name);
+        }
+    }
+
+    /**
+     * @brief Marks a slot and the customer's day as taken without checking them, for bookings
+     * that are already in the database (loaded at startup, or made through another instance).
+     * @param date The appointment date.
+     * @param hour The appointment hour (0-23).
+     * @param name The customer's name.
+     */
+    public void hold(LocalDate date, int hour, String name) {
+        customerDays.add(customerDayKey(date, name));
+        setHour(date, hour);
+    }
+
+    /**
+     * @brief Atomically reserves a slot and the customer's day.
+     * @param date The appointment date.
+     * @param hour The appointment hour (0-23).
+     * @param name The customer's name.
+     * @return {@link Result#RESERVED} on success, otherwise the reason it was rejected.
+     */
+    public Result reserve(LocalDate date, int hour, String name) {
+        String key = customerDayKey(date, name);
+        if (!customerDays.add(key)) {
+            return Result.NAME_TAKEN;
+        }
+        if (!setHour(date, hour)) {
+            // Roll back the customer/day hold so the name can be used for another slot
+            customerDays.remove(key);
+            return Result.SLOT_TAKEN;
+        }
+        return Result.RESERVED;
+    }
+
+    /**
+     * @brief Frees a slot and the customer's day after a cancel, serve, or failed save.
+     * @param date The appointment date.
+     * @param hour The appointment hour.
+     * @param name The customer's name.
+     */
+    public void release(LocalDate date, int hour, String name) {
+        customerDays.remove(customerDayKey(date, name));
+        int mask = 1 << hour;
+        // Atomic per date, like setHour, so a booking cannot set its bit in an entry that is being dropped
+        hoursByDate.computeIfPresent(date, (d, bits) -> (bits & ~mask) == 0 ? null : bits & ~mask);
+    }
+
+    /**
+     * @brief Returns the occupied-hours bitmap for a date.
+     * @param date The date to look up.
+     * @return A bitmap where bit n is set if hour n is taken.
+     */
+    public int occupiedHours(LocalDate date) {
+        return hoursByDate.getOrDefault(date, 0);
+    }
+
+    /** @return True if this call flipped the hour bit from free to taken. */
+    private boolean setHour(LocalDate date, int hour) {
+        int mask = 1 << hour;
+        boolean[] flipped = new boolean[1];
+        hoursByDate.compute(date, (d, bits) -> {
+            int previous = bits == null ? 0 : bits;
+            flipped[0] = (previous & mask) == 0;
+            return previous | mask;
+        });
+        return flipped[0];
+    }
+
+    private static String customerDayKey(LocalDate date, String name) {
+        return date.toEpochDay() + "|" + normalizeName(name);
+    }
+}
@@ -0,0 +1,63 @@
+package smartqueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief Lock-free token bucket: a steady request rate plus a burst allowance.
+ * * The bucket is kept as a single number, the time at which it will be full again (the
+ * "generic cell rate algorithm"). Each admitted request pushes that time one refill interval
+ * further out; a request is refused while doing so would put it more than a full burst ahead
+ * of now. Taking a token is therefore one compare-and-set, with no lock and no refill timer,
+ * and a refused request learns exactly how long until a token is available.
+ */
+public class TokenBucket {
+
+    /** @brief Nanoseconds it takes to earn one token. */
+    private final long intervalNanos;
+
+    /** @brief How far ahead of now the full time may be: (burst - 1) intervals. */
+    private final long toleranceNanos;
+
+    /** @brief When the bucket will be full again, on the System.nanoTime() clock. */
+    private final AtomicLong fullAt;
+
+    /**
+     * @brief Creates a full bucket.
+     * @param perSecond Tokens earned per second; must be positive.
+     * @param burst Tokens the bucket holds when full; at least 1.
+     * @param nowNanos The current System.nanoTime().
+     */
+    public TokenBucket(double perSecond, int burst, long nowNanos) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / perSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * @brief Takes a token if one is available.
+     * @param nowNanos The current System.nanoTime().
+     * @return 0 if a token was taken, otherwise the nanoseconds until one will be available.
+     */
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            // A bucket idle long enough is simply full; it does not bank tokens beyond the burst
+            long next = Math.max(current, nowNanos) + intervalNanos;
+            long wait = next - nowNanos - toleranceNanos - intervalNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @param nowNanos The current System.nanoTime().
+     * @return True if the bucket is full, so forgetting it would change nothing.
+     */
+    public boolean isFull(long nowNanos) {
+        return fullAt.get() - nowNanos <= 0;
+    }
+}
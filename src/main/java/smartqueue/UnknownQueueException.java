@@ -0,0 +1,18 @@
+package smartqueue;
+
+/**
+ * @brief Thrown when a request names a queue that is not configured in smartqueue.queues.
+ * * Turned into a 404 response by {@link QueueExceptionHandler}.
+ */
+public class UnknownQueueException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @brief Creates the exception for a queue id.
+     * @param queueId The id that was not found.
+     */
+    public UnknownQueueException(String queueId) {
+        super("Unknown queue: " + queueId);
+    }
+}
@@ -1,31 +1,143 @@
 package smartqueue;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import java.util.regex.Pattern;
 
 /**
  * @brief Configuration class for WebSocket and STOMP messaging.
  * * Enables real-time, bi-directional communication between the server and the browser.
+ * * With smartqueue.broker.mode=simple (the default) topics live in this instance's memory. With
+ * 'relay' they live in an external STOMP broker (Artemis, ActiveMQ, RabbitMQ with the STOMP
+ * plugin), reached through Spring's Reactor Netty TCP client, so a message sent by any instance
+ * reaches the browsers connected to every instance; see {@link ClusterSync}.
  */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    /**
+     * @brief The only destinations browsers may subscribe to: a queue's updates and one appointment's
+     * notifications. Queue ids and appointment ids contain no broker wildcard characters, so a
+     * pattern such as /topic/> (ActiveMQ, Artemis), /topic/# (RabbitMQ) or /topic/** (the simple
+     * broker) can never match.
+     */
+    private static final Pattern BROWSER_SUBSCRIPTION =
+            Pattern.compile("/topic/queues/[a-z0-9-]{1,32}/(queue-update|notify/[0-9a-fA-F-]{1,36})");
+
+    /** @brief Looked up lazily: the broadcaster needs the messaging template this class helps build. */
+    private final ObjectProvider<QueueBroadcaster> broadcaster;
+
+    /** @brief Longest a single send to one session may take before that session is dropped. */
+    private final int sendTimeLimitMillis;
+
+    /** @brief Most unsent data a slow session may buffer before it is dropped. */
+    private final int sendBufferSizeLimitBytes;
+
+    /** @brief True when spring.threads.virtual.enabled is set and the JVM supports virtual threads (Java 21+). */
+    private final boolean virtualThreads;
+
+    /** @brief True to relay topics through an external STOMP broker instead of the in-memory one. */
+    private final boolean relay;
+
+    /** @brief Where the relay connects, and as whom. */
+    private final String relayHost;
+    private final int relayPort;
+    private final String relayLogin;
+    private final String relayPasscode;
+    private final String relayVirtualHost;
+
+    /**
+     * @brief Constructor for dependency injection.
+     * @param broadcaster Provider for the broadcaster that records dropped sessions.
+     * @param sendTimeLimitMillis Per-session send time limit (smartqueue.websocket.send-time-limit-ms).
+     * @param sendBufferSizeLimitBytes Per-session buffer limit (smartqueue.websocket.send-buffer-size-limit-bytes).
+     * @param environment Used to check whether the virtual-thread execution mode is active.
+     * @param brokerMode 'simple' for the in-memory broker, 'relay' for an external one (smartqueue.broker.mode).
+     * @param relayHost Host of the external broker (smartqueue.broker.relay.host).
+     * @param relayPort STOMP port of the external broker (smartqueue.broker.relay.port).
+     * @param relayLogin Login used for every relayed connection (smartqueue.broker.relay.login).
+     * @param relayPasscode Passcode used for every relayed connection (smartqueue.broker.relay.passcode).
+     * @param relayVirtualHost Virtual host to connect to, if the broker needs one (smartqueue.broker.relay.virtual-host).
+     */
+    public WebSocketConfig(ObjectProvider<QueueBroadcaster> broadcaster,
+                           @Value("${smartqueue.websocket.send-time-limit-ms:10000}") int sendTimeLimitMillis,
+                           @Value("${smartqueue.websocket.send-buffer-size-limit-bytes:524288}") int sendBufferSizeLimitBytes,
+                           Environment environment,
+                           @Value("${smartqueue.broker.mode:simple}") String brokerMode,
+                           @Value("${smartqueue.broker.relay.host:127.0.0.1}") String relayHost,
+                           @Value("${smartqueue.broker.relay.port:61613}") int relayPort,
+                           @Value("${smartqueue.broker.relay.login:guest}") String relayLogin,
+                           @Value("${smartqueue.broker.relay.passcode:guest}") String relayPasscode,
+                           @Value("${smartqueue.broker.relay.virtual-host:}") String relayVirtualHost) {
+        this.broadcaster = broadcaster;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.sendBufferSizeLimitBytes = sendBufferSizeLimitBytes;
+        this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+        if (!brokerMode.equals("simple") && !brokerMode.equals("relay")) {
+            throw new IllegalArgumentException("Invalid smartqueue.broker.mode '" + brokerMode + "': use simple or relay");
+        }
+        this.relay = brokerMode.equals("relay");
+        this.relayHost = relayHost;
+        this.relayPort = relayPort;
+        this.relayLogin = relayLogin;
+        this.relayPasscode = relayPasscode;
+        this.relayVirtualHost = relayVirtualHost;
+    }
+
     /**
      * @brief Configures the message broker routes.
      * @param config The registry to configure.
      */
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enables a simple memory-based message broker to carry messages back to the client
-        // Topics prefixed with "/topic" will be broadcasted to subscribed clients
-        config.enableSimpleBroker("/topic");
-        
+        if (relay) {
+            // Topics prefixed with "/topic" are forwarded to the external broker, which delivers
+            // them to the subscribers of every instance
+            StompBrokerRelayRegistration registration = config.enableStompBrokerRelay("/topic")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode);
+            if (!relayVirtualHost.isEmpty()) {
+                registration.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            // Enables a simple memory-based message broker to carry messages back to the client
+            // Topics prefixed with "/topic" will be broadcasted to subscribed clients
+            config.enableSimpleBroker("/topic");
+        }
+
         // Defines the prefix for messages sent FROM the client to the server
         config.setApplicationDestinationPrefixes("/app");
+
+        // Virtual-thread channels run every message on its own thread, so keep each session's
+        // messages in order explicitly (queue deltas must arrive in sequence)
+        if (virtualThreads) {
+            config.setPreservePublishOrder(true);
+        }
     }
 
     /**
@@ -37,5 +149,76 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // Registers the "/ws" endpoint. 
         // withSockJS() provides fallback options for browsers that don't support raw WebSockets.
         registry.addEndpoint("/ws").withSockJS();
+
+        // Subscribe and unsubscribe frames from one session must not overtake each other
+        if (virtualThreads) {
+            registry.setPreserveReceiveOrder(true);
+        }
+    }
+
+    /**
+     * @brief In virtual-thread mode, handles each frame from the browsers on its own virtual thread
+     * instead of the default fixed pool. Also keeps browsers from publishing to topics, and from
+     * subscribing to anything but {@link #BROWSER_SUBSCRIPTION}.
+     * @param registration The inbound channel settings to configure.
+     */
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("stomp-inbound-"));
+        }
+        registration.interceptors(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                StompHeaderAccessor headers = StompHeaderAccessor.wrap(message);
+                StompCommand command = headers.getCommand();
+                if (command != StompCommand.SEND && command != StompCommand.SUBSCRIBE) return message;
+                // Topics carry customer names (notify topics, and in relay mode the cluster topics that
+                // every instance applies), so browsers may not publish to them, and may only listen to
+                // exact, non-wildcard queue-update and notify destinations
+                String destination = headers.getDestination();
+                boolean allowed = command == StompCommand.SEND
+                        ? destination != null && !destination.startsWith("/topic/")
+                        : destination != null && BROWSER_SUBSCRIPTION.matcher(destination).matches();
+                if (!allowed) {
+                    throw new MessageDeliveryException(message, "Not allowed: " + command + " " + destination);
+                }
+                return message;
+            }
+        });
+    }
+
+    /**
+     * @brief In virtual-thread mode, writes each message to the browsers on its own virtual thread,
+     * so a session blocked on a slow network write does not hold a pooled platform thread.
+     * @param registration The outbound channel settings to configure.
+     */
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("stomp-outbound-"));
+        }
+    }
+
+    /**
+     * @brief Bounds how far a slow client can fall behind and counts the sessions that get dropped.
+     * @param registration The transport settings to configure.
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // A session that cannot keep up is closed instead of holding up the fan-out for everyone else
+        registration.setSendTimeLimit(sendTimeLimitMillis);
+        registration.setSendBufferSizeLimit(sendBufferSizeLimitBytes);
+
+        // Spring closes such sessions with SESSION_NOT_RELIABLE; count them for the broadcast metrics
+        registration.addDecoratorFactory(handler -> new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+                if (CloseStatus.SESSION_NOT_RELIABLE.equalsCode(status)) {
+                    broadcaster.getObject().sessionDropped();
+                }
+                super.afterConnectionClosed(session, status);
+            }
+        });
     }
 }
\ No newline at end of file
@@ -3,11 +3,19 @@
  * @brief Handles customer interactions, API requests, and WebSocket connections for the booking station.
  */
 
+// --- Queue Selection ---
+// Each branch has its own queue; the page books into the one named in its URL (?queue=...)
+const queueId = new URLSearchParams(window.location.search).get('queue') || 'main';
+
+// Notifications use SockJS/STOMP unless the URL opts in to Server-Sent Events (?transport=sse)
+const useEventStream = new URLSearchParams(window.location.search).get('transport') === 'sse';
+
 // --- Event Listeners ---
 document.getElementById('bookButton').addEventListener('click', bookAppointment);
 document.getElementById('cancelButton').addEventListener('click', cancelAppointment);
 document.getElementById('waitTimeButton').addEventListener('click', showWaitTime);
 document.getElementById('positionButton').addEventListener('click', showPositionInQueue);
+document.getElementById('date').addEventListener('change', onDateChange);
 
 /**
  * @brief Automatically runs on page load. Fetches valid hours and reconnects to notifications.
@@ -20,7 +28,7 @@ window.onload = function() {
     // 2. Reconnect notifications if they have a saved session
     const savedId = sessionStorage.getItem('appointmentId');
     if (savedId) {
-        connectToNotifications(savedId);
+        connectToNotifications(savedId, savedQueue());
     }
 };
 
@@ -31,48 +39,231 @@ window.onload = function() {
  */
 async function fetchAvailableHours() {
     try {
-        const response = await fetch('/api/customer/hours');
+        const response = await fetch(`/api/customer/hours?queue=${encodeURIComponent(queueId)}`);
         if (response.ok) {
             const data = await response.json();
-            const hourSelect = document.getElementById('hour');
-            hourSelect.innerHTML = ''; // Clear out any existing options before repopulating
-
-            // Loop from Open Hour to Close Hour and build the options list
-            for (let h = data.openHour; h < data.closeHour; h++) {
-                const option = document.createElement('option');
-                option.value = h;
-                // Formats numbers less than 10 to have a leading zero (e.g., 09:00 instead of 9:00)
-                option.textContent = h < 10 ? `0${h}:00` : `${h}:00`;
-                hourSelect.appendChild(option);
-            }
+            renderHourOptions(data.openHour, data.closeHour);
         }
     } catch (error) {
         console.error('Failed to load active service hours:', error);
     }
 }
 
+/**
+ * @brief Rebuilds the hour dropdown for the given service hours.
+ * @param {number} openHour First bookable hour.
+ * @param {number} closeHour Hour the service closes (not bookable).
+ */
+function renderHourOptions(openHour, closeHour) {
+    const hourSelect = document.getElementById('hour');
+    hourSelect.innerHTML = ''; // Clear out any existing options before repopulating
+
+    // Loop from Open Hour to Close Hour and build the options list
+    for (let h = openHour; h < closeHour; h++) {
+        const option = document.createElement('option');
+        option.value = h;
+        option.textContent = hourLabel(h);
+        hourSelect.appendChild(option);
+    }
+    markTakenHours();
+}
+
+/**
+ * @brief Formats an hour for the dropdown.
+ * @param {number} h The hour (0-23).
+ * @returns {string} The hour with a leading zero (e.g., 09:00 instead of 9:00).
+ */
+function hourLabel(h) {
+    return h < 10 ? `0${h}:00` : `${h}:00`;
+}
+
+// --- Availability ---
+
+/** @brief Free-hour bitmaps by date (YYYY-MM-DD) loaded so far; bit n is set if hour n is free. */
+let freeHours = {};
+
+/**
+ * @brief Loads the free hours for the month starting at a date, then greys out the taken hours.
+ * One request covers the whole month, so picking other dates in it needs no further requests.
+ * @param {string} from The first date to load (YYYY-MM-DD).
+ * @async
+ */
+async function fetchAvailability(from) {
+    try {
+        const response = await fetch(`/api/customer/availability?queue=${encodeURIComponent(queueId)}&from=${from}`);
+        if (response.ok) {
+            const data = await response.json();
+            Object.assign(freeHours, data.freeHours);
+            markTakenHours();
+        }
+    } catch (error) {
+        console.error('Failed to load free hours:', error);
+    }
+}
+
+/**
+ * @brief Disables the hours already taken on the selected date.
+ * Dates that have not been loaded, or cannot be booked at all, are left as they are;
+ * the server explains the problem if one of them is booked.
+ */
+function markTakenHours() {
+    const bits = freeHours[document.getElementById('date').value];
+    for (const option of document.getElementById('hour').options) {
+        const taken = bits !== undefined && (bits & (1 << option.value)) === 0;
+        option.disabled = taken;
+        option.textContent = hourLabel(Number(option.value)) + (taken ? ' (taken)' : '');
+    }
+}
+
+/**
+ * @brief Shows the free hours of the newly selected date, loading its month if needed.
+ */
+function onDateChange() {
+    const date = document.getElementById('date').value;
+    if (date && !(date in freeHours)) {
+        fetchAvailability(date);
+    } else {
+        markTakenHours();
+    }
+}
+
+/**
+ * @brief Forgets the loaded free hours and reloads them for the selected date, e.g. after a booking.
+ */
+function refreshAvailability() {
+    freeHours = {};
+    onDateChange();
+}
+
+/**
+ * @brief Returns the queue of the appointment saved in this session.
+ * @returns {string} The saved queue id, or this page's queue if none was saved.
+ */
+function savedQueue() {
+    return sessionStorage.getItem('appointmentQueue') || queueId;
+}
+
+/**
+ * @brief Connects to the targeted notifications and queue updates over the transport the page uses.
+ * @param {string} id The unique UUID of the customer's appointment.
+ * @param {string} queue The queue the appointment was booked in.
+ */
+function connectToNotifications(id, queue) {
+    if (useEventStream) {
+        connectOverEventStream(id, queue);
+    } else {
+        connectOverStomp(id, queue);
+    }
+}
+
 /**
  * @brief Establishes a WebSocket connection to listen for targeted notifications and queue updates.
  * @param {string} id The unique UUID of the customer's appointment.
+ * @param {string} queue The queue the appointment was booked in.
  */
-function connectToNotifications(id) {
+function connectOverStomp(id, queue) {
     // Initialize SockJS and STOMP over the /ws endpoint
     var socket = new SockJS('/ws');
     var stompClient = Stomp.over(socket);
     
     stompClient.connect({}, function () {
-        // Subscribe to a unique topic specific to this user's ID
-        stompClient.subscribe('/topic/notify/' + id, function (message) {
-            alert(message.body); // Alerts the user when the employee clicks "Serve Next"
+        // Subscribe to a unique topic specific to this user's ID.
+        // The server pushes live position updates here, so there is no need to poll.
+        stompClient.subscribe('/topic/queues/' + queue + '/notify/' + id, function (message) {
+            onNotify(message.body);
         });
 
         // Listen for global queue updates to redraw the hours if an admin changes them live
-        stompClient.subscribe('/topic/queue-update', function (message) {
-            fetchAvailableHours(); 
+        // Updates arrive in batches: a JSON array of every event from the last broadcast window
+        stompClient.subscribe('/topic/queues/' + queue + '/queue-update', function (message) {
+            JSON.parse(message.body).forEach(applyQueueEvent);
         });
     });
 }
 
+/** @brief The open event stream, if any; a new booking replaces it. */
+let eventSource = null;
+
+/**
+ * @brief Opens a Server-Sent Events stream for targeted notifications and queue updates.
+ * The browser reconnects on its own and sends the last event id back, so the server
+ * replays whatever was missed in between, including "It is your turn".
+ * @param {string} id The unique UUID of the customer's appointment.
+ * @param {string} queue The queue the appointment was booked in.
+ */
+function connectOverEventStream(id, queue) {
+    if (eventSource) {
+        eventSource.close();
+    }
+    eventSource = new EventSource('/api/customer/events?queue=' + encodeURIComponent(queue) + '&id=' + encodeURIComponent(id));
+
+    // Messages for this appointment only, the same as on the STOMP notify topic
+    eventSource.addEventListener('notify', function (message) {
+        onNotify(message.data);
+    });
+
+    // The same batches as on the STOMP queue-update topic
+    eventSource.addEventListener('queue-update', function (message) {
+        JSON.parse(message.data).forEach(applyQueueEvent);
+    });
+
+    // Sent on reconnect when the missed events are no longer kept: reload instead
+    eventSource.addEventListener('resync', function (message) {
+        lastQueueSeq = Number(message.data);
+        fetchAvailableHours();
+        refreshAvailability();
+    });
+}
+
+/**
+ * @brief Handles a message for this appointment: a live position update or "It is your turn".
+ * @param {string} body The message text.
+ */
+function onNotify(body) {
+    if (body.startsWith('{')) {
+        showLivePosition(JSON.parse(body));
+    } else {
+        alert(body); // Alerts the user when the employee clicks "Serve Next"
+    }
+}
+
+/** @brief Sequence number of the last queue event this page has seen (null until the first one). */
+let lastQueueSeq = null;
+
+/**
+ * @brief Applies a queue change event pushed by the server.
+ * Hours changes carry the new hours, so the dropdown is redrawn without a request.
+ * If events were missed the hours may be stale, so they are re-fetched once.
+ * @param {Object} event The event with seq, type and (for HOURS_CHANGED) openHour/closeHour.
+ */
+function applyQueueEvent(event) {
+    const missedEvents = lastQueueSeq !== null && event.seq > lastQueueSeq + 1;
+    if (lastQueueSeq !== null && event.seq <= lastQueueSeq) {
+        return; // Already applied
+    }
+    lastQueueSeq = event.seq;
+
+    if (missedEvents) {
+        fetchAvailableHours();
+        refreshAvailability();
+    } else if (event.type === 'HOURS_CHANGED') {
+        renderHourOptions(event.openHour, event.closeHour);
+        // Newly opened hours are free, closed ones are no longer bookable
+        refreshAvailability();
+    }
+}
+
+/**
+ * @brief Displays a position/wait estimate pushed by the server.
+ * @param {Object} update The update with position, waitCount and waitMinutes.
+ */
+function showLivePosition(update) {
+    const statusMessage = document.getElementById('statusMessage');
+    const place = update.position === 0 ? "You are next!" : `There are ${update.position} people ahead of you.`;
+    statusMessage.textContent = `${place} Estimated Wait: ${update.waitMinutes} minutes.`;
+    statusMessage.style.color = 'blue';
+}
+
 /**
  * @brief Gathers input data, sends a booking request to the server, and handles the response.
  * @async
@@ -88,7 +279,7 @@ async function bookAppointment() {
         const response = await fetch('/api/customer/book', {
             method: 'POST',
             headers: { 'Content-Type': 'application/json' },
-            body: JSON.stringify({ name: nameInput, date: dateInput, hour: hourInput })
+            body: JSON.stringify({ queue: queueId, name: nameInput, date: dateInput, hour: hourInput })
         });
 
         if (response.ok) {
@@ -97,17 +288,20 @@ async function bookAppointment() {
             // Save the unique ID directly to the browser's session memory.
             // This allows the user to cancel or check their position later without needing to log in.
             sessionStorage.setItem('appointmentId', bookedApp.id); 
+            sessionStorage.setItem('appointmentQueue', queueId);
             
             statusMessage.textContent = "Booked! Waiting for your turn...";
             statusMessage.style.color = 'green';
             
             // Connect to the WebSocket so the server can ping this specific user
-            connectToNotifications(bookedApp.id);
+            connectToNotifications(bookedApp.id, queueId);
         } else {
             // Display validation error messages returned from the server (e.g., "Past dates not allowed")
             statusMessage.textContent = await response.text();
             statusMessage.style.color = 'red';
         }
+        // Either way the free hours have changed (or were stale, if the slot was taken meanwhile)
+        refreshAvailability();
     } catch (error) {
         statusMessage.textContent = 'Network error.';
         statusMessage.style.color = 'red';
@@ -134,7 +328,7 @@ async function cancelAppointment() {
         const response = await fetch('/api/customer/cancel', {
             method: 'DELETE',
             headers: { 'Content-Type': 'application/json' },
-            body: JSON.stringify({ id: savedId }) 
+            body: JSON.stringify({ id: savedId, queue: savedQueue() }) 
         });
 
         const responseText = await response.text();
@@ -143,6 +337,7 @@ async function cancelAppointment() {
         
         if (response.ok) {
             sessionStorage.removeItem('appointmentId'); // Clear the ID on success
+            sessionStorage.removeItem('appointmentQueue');
         }
     } catch (error) {
         statusMessage.textContent = 'Network error.';
@@ -166,7 +361,7 @@ async function showPositionInQueue() {
 
     try {
         // Send GET request with the UUID as a URL query parameter
-        const response = await fetch(`/api/customer/position?id=${savedId}`);
+        const response = await fetch(`/api/customer/position?queue=${encodeURIComponent(savedQueue())}&id=${savedId}`);
         const responseText = await response.text();
 
         statusMessage.textContent = responseText;
@@ -188,7 +383,7 @@ async function showWaitTime() {
 
     try {
         // Send GET request with date and hour as URL query parameters
-        const response = await fetch(`/api/customer/wait-time?date=${dateInput}&hour=${hourInput}`);
+        const response = await fetch(`/api/customer/wait-time?queue=${encodeURIComponent(queueId)}&date=${dateInput}&hour=${hourInput}`);
         const responseText = await response.text();
         
         statusMessage.textContent = responseText;
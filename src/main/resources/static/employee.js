@@ -3,6 +3,11 @@
  * @brief Handles API calls and live WebSocket updates for the staff dashboard.
  */
 
+// --- Queue Selection ---
+// Each branch has its own queue; the dashboard manages the one named in its URL (?queue=...)
+const queueId = new URLSearchParams(window.location.search).get('queue') || 'main';
+const queueParam = `queue=${encodeURIComponent(queueId)}`;
+
 // --- WebSocket Setup ---
 // Connect to the WebSocket endpoint for live global updates
 var socket = new SockJS('/ws');
@@ -10,15 +15,35 @@ var stompClient = Stomp.over(socket);
 
 stompClient.connect({}, function (frame) {
     // Listen to the public update channel for broad queue changes
-    stompClient.subscribe('/topic/queue-update', function (message) {
-        // Automatically fetch the newest list from the DB whenever anyone books, cancels, or is served.
-        // This ensures all staff dashboards are always in sync.
-        loadFullQueue(); 
+    stompClient.subscribe('/topic/queues/' + queueId + '/queue-update', function (message) {
+        // Patch the table with just the changes whenever anyone books, cancels, or is served.
+        // This keeps all staff dashboards in sync without re-downloading the whole queue.
+        // Each message is a JSON array of the events from one broadcast window.
+        JSON.parse(message.body).forEach(onQueueEvent);
     });
 });
 
+// --- Local Queue State ---
+// The dashboard keeps its own copy of the queue and patches it from sequence-numbered events.
+let queueState = [];          // Appointments in (date, hour) order, as returned by /full-queue
+let nextCursor = null;        // X-Next-Cursor of the last page loaded, or null once the whole queue is loaded
+let loadedUntil = null;       // Last appointment of the last page loaded; later ones arrive with the next page
+let lastQueueSeq = 0;         // Sequence number of the last event applied to queueState
+const removedIds = new Set(); // Ids already removed, so a late "added" event cannot resurrect them
+let catchingUp = false;       // True while a resync request is in flight
+let catchUpAgain = false;     // Set when another event arrives during a resync
+let highestSeenSeq = 0;       // Highest sequence number broadcast so far
+let catchUpRetries = 0;       // Resyncs in a row that ended short of highestSeenSeq
+
+// With several server instances, an event broadcast by one of them can reach this dashboard
+// before the instance it is connected to has received it. Such a resync ends short of
+// highestSeenSeq and is retried a few times before falling back to a full reload.
+const CATCH_UP_RETRY_MS = 250;
+const MAX_CATCH_UP_RETRIES = 8;
+
 // --- Event Listeners ---
 document.getElementById('refreshButton').addEventListener('click', loadFullQueue);
+document.getElementById('loadMoreButton').addEventListener('click', loadMoreQueue);
 document.getElementById('serveButton').addEventListener('click', serveNextCustomer);
 document.getElementById('updateDurationButton').addEventListener('click', updateDuration);
 // NEW listener for the hours button
@@ -30,32 +55,22 @@ document.getElementById('generateReportButton').addEventListener('click', genera
 window.onload = loadFullQueue;
 
 /**
- * @brief Fetches the full list of appointments from the server and populates the HTML table.
+ * @brief Fetches the first page of appointments from the server and populates the HTML table.
  * @async
  */
 async function loadFullQueue() {
-    const tableBody = document.getElementById('employeeQueueBody');
     try {
         // Calls @GetMapping("/full-queue") in EmployeeDashboard.java
-        const response = await fetch('/api/employee/full-queue');
+        const response = await fetch(`/api/employee/full-queue?${queueParam}`);
         
         if (response.ok) {
-            const appointments = await response.json();
-            tableBody.innerHTML = ''; // Clear existing rows before appending new ones
-
-            // Iterate through the JSON array and build table rows dynamically
-            appointments.forEach(app => {
-                const row = document.createElement('tr');
-                // Format the 24-hour integer to a more readable HH:00 string format
-                const formattedTime = app.hour < 10 ? `0${app.hour}:00` : `${app.hour}:00`;
-                
-                row.innerHTML = `
-                    <td>${app.name}</td>
-                    <td>${app.date}</td>
-                    <td>${formattedTime}</td>
-                `;
-                tableBody.appendChild(row);
-            });
+            lastQueueSeq = parseInt(response.headers.get('X-Queue-Seq') || '0', 10);
+            queueState = [];
+            // The new first page already leaves out everything removed up to lastQueueSeq, and
+            // later removals are applied again from the events after it
+            removedIds.clear();
+            appendPage(response, await response.json());
+            renderQueue();
         } else if (response.status === 403) {
             // Spring Security returns 403 Forbidden if the staff user isn't logged in
             alert("Session expired or unauthorized. Please refresh and log in again.");
@@ -65,6 +80,178 @@ async function loadFullQueue() {
     }
 }
 
+/**
+ * @brief Fetches the page after the last one loaded and appends it to the table.
+ * Events since the first page keep being applied, so the pages join up without a reload.
+ * @async
+ */
+async function loadMoreQueue() {
+    if (!nextCursor) return;
+    try {
+        const response = await fetch(`/api/employee/full-queue?${queueParam}&after=${encodeURIComponent(nextCursor)}`);
+        if (response.ok) {
+            appendPage(response, await response.json());
+            renderQueue();
+        } else if (response.status === 400) {
+            // The cursor is no longer usable; start over from the first page
+            await loadFullQueue();
+        }
+    } catch (error) {
+        console.error("Error loading more of the queue:", error);
+    }
+}
+
+/**
+ * @brief Adds a page of appointments to the local queue state and remembers where it ended.
+ * @param {Response} response The /full-queue response, for its X-Next-Cursor header.
+ * @param {Array} page The appointments of the page, in queue order.
+ */
+function appendPage(response, page) {
+    page.filter(app => !removedIds.has(app.id) && !queueState.some(o => o.id === app.id))
+        .forEach(app => queueState.push(app));
+    if (page.length > 0) loadedUntil = page[page.length - 1];
+    nextCursor = response.headers.get('X-Next-Cursor');
+    document.getElementById('loadMoreButton').style.display = nextCursor ? 'inline-block' : 'none';
+}
+
+/**
+ * @brief Orders two appointments the way the server's queue does: by date, hour, then id.
+ * @return {number} Negative, zero or positive.
+ */
+function compareQueueOrder(a, b) {
+    // ISO dates compare correctly as strings
+    if (a.date !== b.date) return a.date < b.date ? -1 : 1;
+    if (a.hour !== b.hour) return a.hour - b.hour;
+    return a.id < b.id ? -1 : (a.id > b.id ? 1 : 0);
+}
+
+/**
+ * @brief Redraws the queue table from the local queue state.
+ */
+function renderQueue() {
+    const tableBody = document.getElementById('employeeQueueBody');
+    tableBody.innerHTML = ''; // Clear existing rows before appending new ones
+
+    // Iterate through the local copy and build table rows dynamically
+    queueState.forEach(app => {
+        const row = document.createElement('tr');
+        // Format the 24-hour integer to a more readable HH:00 string format
+        const formattedTime = app.hour < 10 ? `0${app.hour}:00` : `${app.hour}:00`;
+        
+        row.innerHTML = `
+            <td>${app.name}</td>
+            <td>${app.date}</td>
+            <td>${formattedTime}</td>
+        `;
+        tableBody.appendChild(row);
+    });
+}
+
+/**
+ * @brief Handles a broadcast queue event.
+ * The public broadcast has no names or ids, so the dashboard asks the staff-only
+ * resync endpoint for the full events since the last one it applied.
+ * @param {Object} event The redacted event with at least a seq number.
+ */
+function onQueueEvent(event) {
+    highestSeenSeq = Math.max(highestSeenSeq, event.seq);
+    if (event.seq > lastQueueSeq) {
+        catchUpQueue();
+    }
+}
+
+/**
+ * @brief Fetches and applies every event after lastQueueSeq.
+ * Falls back to a full reload if the server no longer has the missing events (410 Gone).
+ * @async
+ */
+async function catchUpQueue() {
+    if (catchingUp) {
+        catchUpAgain = true;
+        return;
+    }
+    catchingUp = true;
+    catchUpAgain = false;
+    try {
+        const response = await fetch(`/api/employee/queue-events?${queueParam}&since=${lastQueueSeq}`);
+        if (response.status === 410) {
+            await loadFullQueue();
+        } else if (response.ok) {
+            const events = await response.json();
+            events.forEach(applyQueueEvent);
+            renderQueue();
+        }
+    } catch (error) {
+        console.error("Error catching up on queue events:", error);
+    } finally {
+        catchingUp = false;
+        if (catchUpAgain) {
+            catchUpQueue();
+        } else if (lastQueueSeq < highestSeenSeq) {
+            retryCatchUp();
+        } else {
+            catchUpRetries = 0;
+        }
+    }
+}
+
+/**
+ * @brief Tries the resync again shortly, or reloads the whole queue once enough tries came up short.
+ */
+function retryCatchUp() {
+    if (++catchUpRetries > MAX_CATCH_UP_RETRIES) {
+        catchUpRetries = 0;
+        loadFullQueue().then(() => { highestSeenSeq = lastQueueSeq; });
+        return;
+    }
+    setTimeout(catchUpQueue, CATCH_UP_RETRY_MS);
+}
+
+/**
+ * @brief Applies one full queue event to the local queue state.
+ * Adds and removes are idempotent, so replaying an event is harmless.
+ * Bulk events list every appointment of the batch and are applied one appointment at a time.
+ * @param {Object} event The event including the appointment id and name.
+ */
+function applyQueueEvent(event) {
+    if (event.seq <= lastQueueSeq) return;
+    lastQueueSeq = event.seq;
+
+    if (event.type === 'APPOINTMENT_ADDED') {
+        addToQueueState(event);
+    } else if (event.type === 'APPOINTMENT_REMOVED' || event.type === 'APPOINTMENT_SERVED') {
+        removeFromQueueState(event.id);
+    } else if (event.type === 'APPOINTMENTS_ADDED') {
+        event.appointments.forEach(addToQueueState);
+    } else if (event.type === 'APPOINTMENTS_REMOVED') {
+        event.appointments.forEach(app => removeFromQueueState(app.id));
+    }
+}
+
+/**
+ * @brief Inserts an appointment into the local queue state unless it is already there or was removed.
+ * @param {Object} app The appointment with id, name, date and hour.
+ */
+function addToQueueState(app) {
+    if (removedIds.has(app.id) || queueState.some(o => o.id === app.id)) return;
+    const entry = { id: app.id, name: app.name, date: app.date, hour: app.hour };
+    // Bookings past the loaded pages are left for "Load More", which starts after loadedUntil
+    if (nextCursor && loadedUntil && compareQueueOrder(entry, loadedUntil) > 0) return;
+    // Keep queue order
+    let i = queueState.findIndex(o => compareQueueOrder(o, entry) > 0);
+    if (i === -1) i = queueState.length;
+    queueState.splice(i, 0, entry);
+}
+
+/**
+ * @brief Removes an appointment from the local queue state and remembers it was removed.
+ * @param {string} id The appointment UUID.
+ */
+function removeFromQueueState(id) {
+    removedIds.add(id);
+    queueState = queueState.filter(app => app.id !== id);
+}
+
 /**
  * @brief Triggers the server to remove the first person in line and notify them.
  * @async
@@ -73,7 +260,7 @@ async function serveNextCustomer() {
     const statusDiv = document.getElementById('serveStatus');
     try {
         // Calls @DeleteMapping("/serve") in EmployeeDashboard.java
-        const response = await fetch('/api/employee/serve', { method: 'DELETE' });
+        const response = await fetch(`/api/employee/serve?${queueParam}`, { method: 'DELETE' });
         const resultText = await response.text();
 
         if (response.ok) {
@@ -81,7 +268,7 @@ async function serveNextCustomer() {
             statusDiv.style.backgroundColor = '#d1f2eb';
             statusDiv.style.color = '#1b4f72';
             statusDiv.textContent = resultText; // Displays "Now Serving: [Name]"
-            loadFullQueue(); // Refresh the table automatically
+            catchUpQueue(); // Apply the serve (and anything else we missed) to the table
         } else {
             // Error styling (Red-ish)
             statusDiv.style.backgroundColor = '#fadbd8';
@@ -94,7 +281,8 @@ async function serveNextCustomer() {
 }
 
 /**
- * @brief Updates the global appointment duration used by the backend for wait-time estimations.
+ * @brief Updates the appointment duration the backend uses for wait-time estimates
+ * until it has observed enough serves at each hour.
  * @async
  */
 async function updateDuration() {
@@ -103,7 +291,7 @@ async function updateDuration() {
 
     try {
         // Calls @PostMapping("/duration") in EmployeeDashboard.java
-        const response = await fetch(`/api/employee/duration?minutes=${minutes}`, {
+        const response = await fetch(`/api/employee/duration?${queueParam}&minutes=${minutes}`, {
             method: 'POST'
         });
 
@@ -141,7 +329,7 @@ async function generateReport() {
     }
 
     try {
-        const response = await fetch(`/api/employee/wait-report?start=${start}&end=${end}`);
+        const response = await fetch(`/api/employee/wait-report?${queueParam}&start=${start}&end=${end}`);
         if (response.ok) {
             const report = await response.json();
             if (report.length === 0) {
@@ -153,11 +341,10 @@ async function generateReport() {
                     csv += `${r.date},${r.hour},${r.waitCount},${r.waitMinutes}\n`;
                 });
                 outputPre.textContent = csv;
-                // create blob and show download link
-                const blob = new Blob([csv], { type: 'text/csv' });
-                const url = URL.createObjectURL(blob);
+                // point the download link at the streamed CSV endpoint so large ranges
+                // are written straight to disk instead of being built in the browser
                 const link = document.getElementById('downloadCsv');
-                link.href = url;
+                link.href = `/api/employee/wait-report.csv?${queueParam}&start=${start}&end=${end}`;
                 link.style.display = 'block';
             }
             statusDiv.style.color = '#27ae60';
@@ -183,7 +370,7 @@ async function updateServiceHours() {
 
     try {
         // Calls the new @PostMapping("/hours") in EmployeeDashboard.java
-        const response = await fetch(`/api/employee/hours?openHour=${openHour}&closeHour=${closeHour}`, { 
+        const response = await fetch(`/api/employee/hours?${queueParam}&openHour=${openHour}&closeHour=${closeHour}`, { 
             method: 'POST' 
         });
         const resultText = await response.text();